@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.database.MatrixCursor;
+import android.support.v7.widget.RecyclerView;
+import android.test.AndroidTestCase;
+import android.view.ViewGroup;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+    Checks that ForecastDiff turns changes between two forecast lists into the notifications
+    RecyclerView needs, and no more.
+ */
+public class TestForecastDiff extends AndroidTestCase {
+
+    private static final long DAY = 1000L * 60 * 60 * 24;
+    private static final String[] COLUMNS = {"_id", "date", "short_desc", "max", "min",
+            "location_setting", "weather_id", "coord_lat", "coord_long", "fetched_at"};
+
+    /*
+        Records the notifications an adapter receives, one string per call.
+     */
+    private static class RecordingObserver extends RecyclerView.AdapterDataObserver {
+        final List<String> mCalls = new ArrayList<>();
+
+        @Override
+        public void onChanged() {
+            mCalls.add("all");
+        }
+
+        @Override
+        public void onItemRangeChanged(int positionStart, int itemCount) {
+            mCalls.add("changed " + positionStart + "+" + itemCount);
+        }
+
+        @Override
+        public void onItemRangeInserted(int positionStart, int itemCount) {
+            mCalls.add("inserted " + positionStart + "+" + itemCount);
+        }
+
+        @Override
+        public void onItemRangeRemoved(int positionStart, int itemCount) {
+            mCalls.add("removed " + positionStart + "+" + itemCount);
+        }
+    }
+
+    private static class EmptyAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder> {
+        @Override
+        public RecyclerView.ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+            return null;
+        }
+
+        @Override
+        public void onBindViewHolder(RecyclerView.ViewHolder holder, int position) {
+        }
+
+        @Override
+        public int getItemCount() {
+            return 0;
+        }
+    }
+
+    /*
+        Days firstDay to lastDay, with day d at a high of d degrees unless it is in changedDays.
+     */
+    private ForecastDiff.Rows createRows(String locationSetting, int firstDay, int lastDay,
+                                         int... changedDays) {
+        MatrixCursor cursor = new MatrixCursor(COLUMNS);
+        for (int day = firstDay; day <= lastDay; day++) {
+            double high = day;
+            for (int changed : changedDays) {
+                if (changed == day) high += 1;
+            }
+            cursor.addRow(new Object[]{day, day * DAY, "Clear", high, high - 5,
+                    locationSetting, 800, null, null, 0});
+        }
+        return ForecastDiff.Rows.from(mContext, cursor, true);
+    }
+
+    private static List<String> dispatch(ForecastDiff diff) {
+        EmptyAdapter adapter = new EmptyAdapter();
+        RecordingObserver observer = new RecordingObserver();
+        adapter.registerAdapterDataObserver(observer);
+        diff.dispatchTo(adapter);
+        return observer.mCalls;
+    }
+
+    public void testUnchangedListNotifiesNothing() {
+        ForecastDiff diff = ForecastDiff.compute(createRows("94043", 0, 13),
+                createRows("94043", 0, 13));
+        assertTrue(diff.isEmpty());
+        assertEquals(0, diff.getRowsToBind());
+        assertTrue(dispatch(diff).isEmpty());
+    }
+
+    public void testChangedDaysAreTheOnlyOnesNotified() {
+        ForecastDiff diff = ForecastDiff.compute(createRows("94043", 0, 13),
+                createRows("94043", 0, 13, 3, 4, 9));
+        assertEquals(3, diff.getRowsToBind());
+        List<String> calls = dispatch(diff);
+        assertEquals(2, calls.size());
+        assertEquals("changed 3+2", calls.get(0));
+        assertEquals("changed 9+1", calls.get(1));
+    }
+
+    public void testNewDayShiftsTheList() {
+        // Overnight the first day drops off and a new one is added at the end
+        ForecastDiff diff = ForecastDiff.compute(createRows("94043", 0, 13),
+                createRows("94043", 1, 14));
+        List<String> calls = dispatch(diff);
+        assertEquals(3, calls.size());
+        assertEquals("removed 0+1", calls.get(0));
+        assertEquals("inserted 13+1", calls.get(1));
+        // The new first row moves into the today layout
+        assertEquals("changed 0+1", calls.get(2));
+        assertEquals(2, diff.getRowsToBind());
+    }
+
+    public void testRowsDisappearingAndAppearing() {
+        ForecastDiff diff = ForecastDiff.compute(createRows("94043", 0, 6),
+                createRows("94043", 0, 2));
+        assertEquals("removed 3+4", dispatch(diff).get(0));
+
+        diff = ForecastDiff.compute(ForecastDiff.Rows.EMPTY, createRows("94043", 0, 6));
+        List<String> calls = dispatch(diff);
+        assertEquals(1, calls.size());
+        assertEquals("inserted 0+7", calls.get(0));
+    }
+
+    public void testNewLocationReplacesTheList() {
+        ForecastDiff diff = ForecastDiff.compute(createRows("94043", 0, 13),
+                createRows("10001", 0, 13));
+        List<String> calls = dispatch(diff);
+        assertEquals(1, calls.size());
+        assertEquals("all", calls.get(0));
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.SharedPreferences;
+import android.database.MatrixCursor;
+import android.os.Debug;
+import android.preference.PreferenceManager;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.test.AndroidTestCase;
+import android.util.Log;
+import android.view.ContextThemeWrapper;
+import android.view.View;
+import android.widget.AbsListView;
+
+import com.example.android.sunshine.app.data.JulianDay;
+
+/*
+    Binds forecast rows the way the list does, and checks that a bind only assigns the
+    prepared values of a ForecastItem.
+ */
+public class TestForecastItemBind extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestForecastItemBind.class.getSimpleName();
+
+    private static final String[] COLUMNS = {"_id", "date", "short_desc", "max", "min",
+            "location_setting", "weather_id", "coord_lat", "coord_long", "fetched_at"};
+    private static final int DAYS = 14;
+    private static final int[] WEATHER_IDS = {800, 803, 500, 600, 741, 211, 301};
+
+    private String mArtPack;
+    private ForecastAdapter mAdapter;
+    private RecyclerView mRecyclerView;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        // Remote art goes through Glide, which allocates its requests, so bind local graphics
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+        String key = mContext.getString(R.string.pref_art_pack_key);
+        mArtPack = prefs.getString(key, null);
+        prefs.edit().putString(key, mContext.getString(R.string.pref_art_pack_sunshine)).commit();
+
+        ContextThemeWrapper context = new ContextThemeWrapper(mContext, R.style.AppTheme);
+        mRecyclerView = new RecyclerView(context);
+        mRecyclerView.setLayoutManager(new LinearLayoutManager(context));
+        mAdapter = new ForecastAdapter(context, null, new View(context),
+                AbsListView.CHOICE_MODE_NONE);
+        mAdapter.setUseTodayLayout(true);
+
+        MatrixCursor cursor = new MatrixCursor(COLUMNS);
+        int today = JulianDay.today();
+        for (int day = 0; day < DAYS; day++) {
+            cursor.addRow(new Object[]{day, JulianDay.toMillis(today + day), "Clear",
+                    20.5 + day, 11.25 - day, "94043", WEATHER_IDS[day % WEATHER_IDS.length],
+                    null, null, 0});
+        }
+        mAdapter.swapCursor(cursor);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        SharedPreferences.Editor editor =
+                PreferenceManager.getDefaultSharedPreferences(mContext).edit();
+        String key = mContext.getString(R.string.pref_art_pack_key);
+        if (mArtPack == null) {
+            editor.remove(key);
+        } else {
+            editor.putString(key, mArtPack);
+        }
+        editor.commit();
+        super.tearDown();
+    }
+
+    public void testBindShowsPreparedItem() {
+        ForecastAdapter.ForecastAdapterViewHolder holder = mAdapter.onCreateViewHolder(
+                mRecyclerView, mAdapter.getItemViewType(2));
+        mAdapter.onBindViewHolder(holder, 2);
+        int date = JulianDay.today() + 2;
+        assertEquals(Utility.getFriendlyDayString(mContext, JulianDay.toMillis(date), false),
+                holder.mDateView.getText().toString());
+        assertEquals(Utility.formatTemperature(mContext, 22.5),
+                holder.mHighTempView.getText().toString());
+        assertEquals(Utility.formatTemperature(mContext, 9.25),
+                holder.mLowTempView.getText().toString());
+        assertEquals(Utility.getStringForWeatherCondition(mContext, WEATHER_IDS[2]),
+                holder.mDescriptionView.getText().toString());
+    }
+
+    /*
+        Counts allocations on this thread while rebinding every row, after a warm-up pass.
+        Logs time and allocations per bind, and fails if binding allocates at all.  The views
+        are never laid out, so this counts the bind itself and not the text layout a drawn
+        list redoes when a row's text changes.
+     */
+    @SuppressWarnings("deprecation")
+    public void testBindMicrobenchmark() {
+        ForecastAdapter.ForecastAdapterViewHolder[] holders =
+                new ForecastAdapter.ForecastAdapterViewHolder[DAYS];
+        for (int i = 0; i < DAYS; i++) {
+            holders[i] = mAdapter.onCreateViewHolder(mRecyclerView, mAdapter.getItemViewType(i));
+            mAdapter.onBindViewHolder(holders[i], i);
+        }
+
+        final int rounds = 200;
+        Debug.resetThreadAllocCount();
+        Debug.startAllocCounting();
+        long start = System.nanoTime();
+        for (int round = 0; round < rounds; round++) {
+            for (int i = 0; i < DAYS; i++) {
+                mAdapter.onBindViewHolder(holders[i], i);
+            }
+        }
+        long nanos = System.nanoTime() - start;
+        Debug.stopAllocCounting();
+        int allocations = Debug.getThreadAllocCount();
+
+        int binds = rounds * DAYS;
+        Log.d(LOG_TAG, "Bind: " + nanos / binds + "ns, " + (float) allocations / binds +
+                " allocations per bind");
+        assertEquals("Error: Binding a prepared row should not allocate", 0, allocations);
+    }
+}
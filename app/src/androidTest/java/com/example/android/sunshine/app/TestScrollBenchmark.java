@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.app.Activity;
+import android.content.SharedPreferences;
+import android.database.MatrixCursor;
+import android.preference.PreferenceManager;
+import android.support.v7.widget.RecyclerView;
+import android.test.ActivityInstrumentationTestCase2;
+import android.util.Log;
+import android.view.View;
+import android.widget.AbsListView;
+
+import com.example.android.sunshine.app.data.JulianDay;
+import com.example.android.sunshine.app.utils.PollingCheck;
+
+/*
+    Scrolls a forecast list up and down the same way every run, and reports its frame times,
+    dropped frames and bind and layout times.  The list is the app's adapter, layout manager
+    and scroll listener in MainActivity's window, with rows from a cursor rather than the
+    database, so every run scrolls the same rows.
+ */
+public class TestScrollBenchmark extends ActivityInstrumentationTestCase2<MainActivity> {
+
+    public static final String LOG_TAG = TestScrollBenchmark.class.getSimpleName();
+
+    private static final String[] COLUMNS = {"_id", "date", "short_desc", "max", "min",
+            "location_setting", "weather_id", "coord_lat", "coord_long", "fetched_at"};
+    // Far longer than a real forecast, so each fling has room to run
+    private static final int DAYS = 200;
+    private static final int[] WEATHER_IDS = {800, 803, 500, 600, 741, 211, 301};
+    private static final int PASSES = 5;
+    private static final long SCROLL_TIMEOUT = 10000;
+
+    private String mArtPack;
+    private RecyclerView mRecyclerView;
+    private FrameTimer mFrameTimer;
+
+    public TestScrollBenchmark() {
+        super(MainActivity.class);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        // Remote art would time the network, so scroll the local graphics
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(
+                getInstrumentation().getTargetContext());
+        String key = getInstrumentation().getTargetContext().getString(R.string.pref_art_pack_key);
+        mArtPack = prefs.getString(key, null);
+        prefs.edit().putString(key, getInstrumentation().getTargetContext()
+                .getString(R.string.pref_art_pack_sunshine)).commit();
+
+        final Activity activity = getActivity();
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mFrameTimer = new FrameTimer(
+                        activity.getWindowManager().getDefaultDisplay().getRefreshRate());
+                mRecyclerView = new RecyclerView(activity);
+                ForecastLayoutManager layoutManager = new ForecastLayoutManager(activity);
+                layoutManager.setFrameTimer(mFrameTimer);
+                mRecyclerView.setLayoutManager(layoutManager);
+                mRecyclerView.setHasFixedSize(true);
+                ForecastAdapter adapter = new ForecastAdapter(activity, null, new View(activity),
+                        AbsListView.CHOICE_MODE_NONE);
+                adapter.setFrameTimer(mFrameTimer);
+                adapter.setUseTodayLayout(true);
+                mRecyclerView.setAdapter(adapter);
+                mRecyclerView.addOnScrollListener(new ForecastScrollListener(null, null, null));
+
+                MatrixCursor cursor = new MatrixCursor(COLUMNS);
+                int today = JulianDay.today();
+                for (int day = 0; day < DAYS; day++) {
+                    cursor.addRow(new Object[]{day, JulianDay.toMillis(today + day), "Clear",
+                            20.5 + day % 10, 11.25 - day % 10, "94043",
+                            WEATHER_IDS[day % WEATHER_IDS.length], null, null, 0});
+                }
+                adapter.swapCursor(cursor);
+                activity.setContentView(mRecyclerView);
+            }
+        });
+        getInstrumentation().waitForIdleSync();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        SharedPreferences.Editor editor = PreferenceManager.getDefaultSharedPreferences(
+                getInstrumentation().getTargetContext()).edit();
+        String key = getInstrumentation().getTargetContext().getString(R.string.pref_art_pack_key);
+        if (mArtPack == null) {
+            editor.remove(key);
+        } else {
+            editor.putString(key, mArtPack);
+        }
+        editor.commit();
+        super.tearDown();
+    }
+
+    private void scrollBy(final int dy) {
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mRecyclerView.smoothScrollBy(0, dy);
+            }
+        });
+        new PollingCheck(SCROLL_TIMEOUT) {
+            @Override
+            protected boolean check() {
+                return mRecyclerView.getScrollState() == RecyclerView.SCROLL_STATE_IDLE;
+            }
+        }.run();
+    }
+
+    public void testScriptedScroll() {
+        // A few screens down and back up again, each pass the same distance
+        final int distance = mRecyclerView.getHeight() * 4;
+        assertTrue("Error: The list wasn't laid out", distance > 0);
+
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mFrameTimer.reset();
+                mFrameTimer.start();
+            }
+        });
+        for (int pass = 0; pass < PASSES; pass++) {
+            scrollBy(distance);
+            scrollBy(-distance);
+        }
+        final String[] report = new String[1];
+        final int[] counts = new int[3];
+        final long[] p95 = new long[1];
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mFrameTimer.stop();
+                report[0] = mFrameTimer.toString();
+                counts[0] = mFrameTimer.getFrameCount();
+                counts[1] = mFrameTimer.getDroppedFrames();
+                counts[2] = mFrameTimer.getBinds();
+                p95[0] = mFrameTimer.getFramePercentileNanos(95);
+            }
+        });
+
+        Log.d(LOG_TAG, "Scripted scroll: " + report[0]);
+        Log.d(LOG_TAG, "Dropped frames: " + counts[1] + " of " + counts[0] + ", p95 frame time " +
+                p95[0] / 1000 + "us against a " + mFrameTimer.getFrameIntervalNanos() / 1000 +
+                "us budget");
+        assertTrue("Error: No frames were timed", counts[0] > 0);
+        assertTrue("Error: Scrolling bound no rows", counts[2] > 0);
+    }
+}
@@ -0,0 +1,230 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.art;
+
+import android.content.SharedPreferences;
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.preference.PreferenceManager;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.R;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+    Installs art packs from a stand-in server on this device, and checks that they are fetched
+    once and then served from local storage.
+ */
+public class TestArtPack extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestArtPack.class.getSimpleName();
+
+    // Bigger than any size the app shows art at, so every size is scaled down
+    private static final int IMAGE_SIZE = 512;
+    // Overcast in OpenWeatherMap's codes, which is the "clouds" artwork
+    private static final int WEATHER_ID = 804;
+
+    /*
+        Serves a generated PNG for every "/art_<name>.png", except names in mMissing, and counts
+        the requests.
+     */
+    private static class ArtServer extends Thread {
+        final ServerSocket mSocket;
+        final AtomicInteger mRequests = new AtomicInteger();
+        final byte[] mImage;
+        volatile String mMissing = "";
+
+        ArtServer() throws IOException {
+            mSocket = new ServerSocket(0, 8, InetAddress.getByName("127.0.0.1"));
+            Bitmap bitmap = Bitmap.createBitmap(IMAGE_SIZE, IMAGE_SIZE, Bitmap.Config.ARGB_8888);
+            bitmap.eraseColor(Color.BLUE);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            bitmap.compress(Bitmap.CompressFormat.PNG, 100, out);
+            mImage = out.toByteArray();
+        }
+
+        String getUrlFormat(String pack) {
+            return "http://127.0.0.1:" + mSocket.getLocalPort() + "/" + pack + "/art_%s.png";
+        }
+
+        @Override
+        public void run() {
+            while (!mSocket.isClosed()) {
+                try {
+                    Socket client = mSocket.accept();
+                    try {
+                        serve(client);
+                    } finally {
+                        client.close();
+                    }
+                } catch (IOException e) {
+                    // Closed by tearDown
+                }
+            }
+        }
+
+        private void serve(Socket client) throws IOException {
+            BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(client.getInputStream()));
+            String requestLine = reader.readLine();
+            String line;
+            while ((line = reader.readLine()) != null && line.length() > 0) {
+                // Skip the headers
+            }
+            mRequests.incrementAndGet();
+            OutputStream out = client.getOutputStream();
+            if (requestLine == null || requestLine.contains("art_" + mMissing + ".png")) {
+                out.write("HTTP/1.1 404 Not Found\r\nContent-Length: 0\r\nConnection: close\r\n\r\n"
+                        .getBytes("US-ASCII"));
+            } else {
+                out.write(("HTTP/1.1 200 OK\r\nContent-Type: image/png\r\nContent-Length: " +
+                        mImage.length + "\r\nConnection: close\r\n\r\n").getBytes("US-ASCII"));
+                out.write(mImage);
+            }
+            out.flush();
+        }
+    }
+
+    private ArtServer mServer;
+    private File mPacksDirectory;
+    private String mArtPack;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mServer = new ArtServer();
+        mServer.start();
+        mPacksDirectory = new File(mContext.getCacheDir(), "test_art_packs");
+        deleteRecursively(mPacksDirectory);
+        mArtPack = PreferenceManager.getDefaultSharedPreferences(mContext)
+                .getString(mContext.getString(R.string.pref_art_pack_key), null);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.mSocket.close();
+        mServer.join();
+        deleteRecursively(mPacksDirectory);
+        setPreferredPack(mArtPack);
+        super.tearDown();
+    }
+
+    private void setPreferredPack(String urlFormat) {
+        SharedPreferences.Editor editor =
+                PreferenceManager.getDefaultSharedPreferences(mContext).edit();
+        String key = mContext.getString(R.string.pref_art_pack_key);
+        if (urlFormat == null) {
+            editor.remove(key);
+        } else {
+            editor.putString(key, urlFormat);
+        }
+        editor.commit();
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+
+    public void testInstallFetchesEachArtworkOnce() {
+        ArtPack artPack = new ArtPack(mContext, mPacksDirectory);
+        String urlFormat = mServer.getUrlFormat("dogs");
+
+        assertFalse(artPack.isInstalled(urlFormat));
+        assertTrue(artPack.install(urlFormat));
+        assertTrue(artPack.isInstalled(urlFormat));
+        assertEquals(ArtPack.ART_NAMES.length, mServer.mRequests.get());
+        assertEquals(ArtPack.ART_NAMES.length, artPack.getNetworkFetches());
+
+        // Installed already, so nothing is fetched again, even by another process
+        assertTrue(artPack.install(urlFormat));
+        assertTrue(new ArtPack(mContext, mPacksDirectory).install(urlFormat));
+        assertEquals(ArtPack.ART_NAMES.length, mServer.mRequests.get());
+    }
+
+    public void testArtIsServedLocallyAtEachSize() {
+        ArtPack artPack = new ArtPack(mContext, mPacksDirectory);
+        String urlFormat = mServer.getUrlFormat("dogs");
+        setPreferredPack(urlFormat);
+
+        // Nothing to show until the pack is installed, so callers fall back to the URL
+        assertNull(artPack.getArt(WEATHER_ID, ArtPack.SIZE_LIST));
+        assertTrue(artPack.installPreferred());
+        int fetches = mServer.mRequests.get();
+
+        int[] dimens = {R.dimen.list_icon, R.dimen.today_icon};
+        int[] sizes = {ArtPack.SIZE_LIST, ArtPack.SIZE_TODAY};
+        for (int i = 0; i < sizes.length; i++) {
+            Bitmap art = artPack.getArt(WEATHER_ID, sizes[i]);
+            assertNotNull("Error: No art at size " + sizes[i], art);
+            int expected = mContext.getResources().getDimensionPixelSize(dimens[i]);
+            assertEquals(expected, art.getWidth());
+            assertEquals(expected, art.getHeight());
+        }
+        Bitmap notification = artPack.getArt(WEATHER_ID, ArtPack.SIZE_NOTIFICATION);
+        assertNotNull(notification);
+        assertTrue(notification.getWidth() <= IMAGE_SIZE);
+
+        // Every surface after the first shares the decoded bitmap
+        int decodes = artPack.getDecodes();
+        assertSame(artPack.getArt(WEATHER_ID, ArtPack.SIZE_LIST),
+                artPack.getArt(WEATHER_ID, ArtPack.SIZE_LIST));
+        assertEquals(decodes, artPack.getDecodes());
+        assertEquals("Error: Showing art went to the network", fetches, mServer.mRequests.get());
+        Log.d(LOG_TAG, artPack.getStats());
+
+        // The app's own graphics don't come from a pack
+        setPreferredPack(mContext.getString(R.string.pref_art_pack_sunshine));
+        assertNull(artPack.getArt(WEATHER_ID, ArtPack.SIZE_LIST));
+        assertFalse(artPack.installPreferred());
+    }
+
+    public void testFailedInstallKeepsNothing() {
+        ArtPack artPack = new ArtPack(mContext, mPacksDirectory);
+        String installed = mServer.getUrlFormat("dogs");
+        assertTrue(artPack.install(installed));
+
+        mServer.mMissing = "rain";
+        String broken = mServer.getUrlFormat("broken");
+        assertFalse(artPack.install(broken));
+        assertFalse(artPack.isInstalled(broken));
+        // The pack that was there stays, and no partial one is left beside it
+        assertTrue(artPack.isInstalled(installed));
+        assertEquals(1, mPacksDirectory.listFiles().length);
+
+        // Switching packs replaces the installed one
+        mServer.mMissing = "";
+        assertTrue(artPack.install(broken));
+        assertFalse(artPack.isInstalled(installed));
+        assertEquals(1, mPacksDirectory.listFiles().length);
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.os.Bundle;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.Random;
+
+/*
+    Fills the database through the provider with as many locations, forecast days and days of
+    history as a test asks for.  The same seed always produces the same rows, and dates are
+    counted from a fixed day rather than from today, so runs on different days compare.
+ */
+class SyntheticWeatherData {
+
+    // December 20th, 2014, the same day as TestUtilities.TEST_DATE
+    static final long BASE_DATE = JulianDay.toMillis(JulianDay.fromMillis(1419033600000L));
+
+    private static final String[] DESCRIPTIONS = {"Clear", "Clouds", "Rain", "Snow", "Fog"};
+    private static final int[] WEATHER_IDS = {800, 803, 500, 600, 741};
+
+    private final long mSeed;
+
+    SyntheticWeatherData(long seed) {
+        mSeed = seed;
+    }
+
+    static String getLocationSetting(int location) {
+        return "synthetic-" + location;
+    }
+
+    static long getDate(int day) {
+        return JulianDay.toMillis(JulianDay.fromMillis(BASE_DATE) + day);
+    }
+
+    ContentValues createLocationValues(int location) {
+        Random random = new Random(mSeed * 31 + location);
+        ContentValues values = new ContentValues();
+        values.put(LocationEntry.COLUMN_LOCATION_SETTING, getLocationSetting(location));
+        values.put(LocationEntry.COLUMN_CITY_NAME, "Synthetic City " + location);
+        values.put(LocationEntry.COLUMN_COORD_LAT, random.nextDouble() * 180 - 90);
+        values.put(LocationEntry.COLUMN_COORD_LONG, random.nextDouble() * 360 - 180);
+        return values;
+    }
+
+    /*
+        One row per day from firstDay, counted from BASE_DATE, with temperatures that wander
+        from day to day the way real forecasts do.
+     */
+    ContentValues[] createWeatherValues(int location, long locationRowId, int firstDay, int days) {
+        Random random = new Random(mSeed * 31 + location + 1000003L * (firstDay + 1));
+        ContentValues[] rows = new ContentValues[days];
+        double high = 5 + random.nextInt(25);
+        for (int i = 0; i < days; i++) {
+            high += random.nextGaussian() * 2;
+            int condition = random.nextInt(WEATHER_IDS.length);
+            ContentValues values = new ContentValues();
+            values.put(WeatherEntry.COLUMN_LOC_KEY, locationRowId);
+            values.put(WeatherEntry.COLUMN_DATE, getDate(firstDay + i));
+            values.put(WeatherEntry.COLUMN_DEGREES, random.nextInt(360));
+            values.put(WeatherEntry.COLUMN_HUMIDITY, 30 + random.nextInt(70));
+            values.put(WeatherEntry.COLUMN_PRESSURE, 980 + random.nextInt(60));
+            values.put(WeatherEntry.COLUMN_MAX_TEMP, high);
+            values.put(WeatherEntry.COLUMN_MIN_TEMP, high - 3 - random.nextInt(10));
+            values.put(WeatherEntry.COLUMN_SHORT_DESC, DESCRIPTIONS[condition]);
+            values.put(WeatherEntry.COLUMN_WIND_SPEED, random.nextInt(200) / 10.0);
+            values.put(WeatherEntry.COLUMN_WEATHER_ID, WEATHER_IDS[condition]);
+            rows[i] = values;
+        }
+        return rows;
+    }
+
+    /*
+        Inserts the locations, each with historyDays of past weather and forecastDays from
+        BASE_DATE on, then archives the past days into the history tables the way a sync does.
+
+        Returns the row ID of each location.
+     */
+    long[] populate(ContentResolver resolver, int locations, int forecastDays, int historyDays) {
+        long[] locationIds = new long[locations];
+        for (int i = 0; i < locations; i++) {
+            locationIds[i] = ContentUris.parseId(
+                    resolver.insert(LocationEntry.CONTENT_URI, createLocationValues(i)));
+            resolver.bulkInsert(WeatherEntry.CONTENT_URI,
+                    createWeatherValues(i, locationIds[i], -historyDays, historyDays + forecastDays));
+        }
+        if (historyDays > 0) {
+            Bundle extras = new Bundle();
+            extras.putLong(WeatherContract.EXTRA_DATE, BASE_DATE);
+            resolver.call(WeatherContract.BASE_CONTENT_URI,
+                    WeatherContract.METHOD_ARCHIVE_HISTORY, null, extras);
+        }
+        return locationIds;
+    }
+}
@@ -0,0 +1,283 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.HistoryEntry;
+import com.example.android.sunshine.app.data.WeatherContract.HourlyEntry;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.io.File;
+
+public class TestCompactSchema extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestCompactSchema.class.getSimpleName();
+
+    // The location and weather tables as released in database version 2
+    private static final String SQL_CREATE_LEGACY_LOCATION_TABLE = "CREATE TABLE location (" +
+            "_id INTEGER PRIMARY KEY, location_setting TEXT UNIQUE NOT NULL, " +
+            "city_name TEXT NOT NULL, coord_lat REAL NOT NULL, coord_long REAL NOT NULL)";
+    private static final String SQL_CREATE_LEGACY_WEATHER_TABLE = "CREATE TABLE weather (" +
+            "_id INTEGER PRIMARY KEY AUTOINCREMENT, location_id INTEGER NOT NULL, " +
+            "date INTEGER NOT NULL, short_desc TEXT NOT NULL, weather_id INTEGER NOT NULL, " +
+            "min REAL NOT NULL, max REAL NOT NULL, humidity REAL NOT NULL, " +
+            "pressure REAL NOT NULL, wind REAL NOT NULL, degrees REAL NOT NULL, " +
+            "UNIQUE (date, location_id) ON CONFLICT REPLACE)";
+
+    private ContentResolver mResolver;
+    private SyntheticWeatherData mData;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mResolver = mContext.getContentResolver();
+        mData = new SyntheticWeatherData(17);
+        mResolver.delete(WeatherEntry.CONTENT_URI, null, null);
+        mResolver.delete(LocationEntry.CONTENT_URI, null, null);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mResolver.delete(WeatherEntry.CONTENT_URI, null, null);
+        mResolver.delete(LocationEntry.CONTENT_URI, null, null);
+        super.tearDown();
+    }
+
+    private SQLiteDatabase createLegacyDatabase(String name) {
+        mContext.deleteDatabase(name);
+        SQLiteDatabase db = mContext.openOrCreateDatabase(name, 0, null);
+        db.execSQL(SQL_CREATE_LEGACY_LOCATION_TABLE);
+        db.execSQL(SQL_CREATE_LEGACY_WEATHER_TABLE);
+        return db;
+    }
+
+    private static void assertSameWeather(ContentValues expected, Cursor cursor) {
+        for (String column : WeatherTable.SCALED_COLUMNS) {
+            assertEquals("Error: " + column + " did not survive the round trip",
+                    expected.getAsDouble(column),
+                    cursor.getDouble(cursor.getColumnIndex(column)), 0.01);
+        }
+        assertEquals(expected.getAsString(WeatherEntry.COLUMN_SHORT_DESC),
+                cursor.getString(cursor.getColumnIndex(WeatherEntry.COLUMN_SHORT_DESC)));
+        assertEquals(expected.getAsInteger(WeatherEntry.COLUMN_WEATHER_ID).intValue(),
+                cursor.getInt(cursor.getColumnIndex(WeatherEntry.COLUMN_WEATHER_ID)));
+    }
+
+    public void testStoresScaledIntegersAndOneDescriptionPerCondition() {
+        long[] locationIds = mData.populate(mResolver, 3, 14, 0);
+
+        SQLiteDatabase db = new WeatherDbHelper(mContext).getReadableDatabase();
+        Cursor cursor = db.rawQuery("SELECT typeof(" + WeatherEntry.COLUMN_MIN_TEMP +
+                "), typeof(" + WeatherEntry.COLUMN_WIND_SPEED + ") FROM " +
+                WeatherEntry.DATA_TABLE_NAME, null);
+        assertEquals(3 * 14, cursor.getCount());
+        while (cursor.moveToNext()) {
+            assertEquals("integer", cursor.getString(0));
+            assertEquals("integer", cursor.getString(1));
+        }
+        cursor.close();
+        assertEquals("Error: Each weather_id should have a single condition row",
+                DatabaseUtils.longForQuery(db, "SELECT COUNT(DISTINCT " +
+                        WeatherEntry.COLUMN_WEATHER_ID + ") FROM " +
+                        WeatherEntry.DATA_TABLE_NAME, null),
+                DatabaseUtils.queryNumEntries(db, WeatherEntry.CONDITION_TABLE_NAME));
+        db.close();
+
+        // Reads through the provider see the values that were written, at storage precision
+        ContentValues[] written = mData.createWeatherValues(1, locationIds[1], 0, 14);
+        cursor = mResolver.query(WeatherEntry.buildWeatherLocation(
+                SyntheticWeatherData.getLocationSetting(1)), null, null, null,
+                WeatherEntry.COLUMN_DATE + " ASC");
+        assertEquals(written.length, cursor.getCount());
+        for (ContentValues values : written) {
+            assertTrue(cursor.moveToNext());
+            assertSameWeather(values, cursor);
+        }
+        cursor.close();
+    }
+
+    public void testUpdateAndDeleteSelectDecodedValues() {
+        mData.populate(mResolver, 2, 7, 0);
+
+        // Selections are written against the contract's columns, not the stored integers
+        ContentValues values = new ContentValues();
+        values.put(WeatherEntry.COLUMN_MAX_TEMP, 99.5);
+        values.put(WeatherEntry.COLUMN_SHORT_DESC, "Heat");
+        int updated = mResolver.update(WeatherEntry.CONTENT_URI, values,
+                WeatherEntry.COLUMN_DATE + " = ?",
+                new String[]{Long.toString(SyntheticWeatherData.getDate(0))});
+        assertEquals(2, updated);
+
+        Cursor cursor = mResolver.query(WeatherEntry.CONTENT_URI, null,
+                WeatherEntry.COLUMN_MAX_TEMP + " = ?", new String[]{"99.5"}, null);
+        assertEquals(2, cursor.getCount());
+        while (cursor.moveToNext()) {
+            assertEquals("Heat", cursor.getString(
+                    cursor.getColumnIndex(WeatherEntry.COLUMN_SHORT_DESC)));
+        }
+        cursor.close();
+
+        assertEquals(2, mResolver.delete(WeatherEntry.CONTENT_URI,
+                WeatherEntry.COLUMN_MAX_TEMP + " > ?", new String[]{"99"}));
+        cursor = mResolver.query(WeatherEntry.CONTENT_URI, null, null, null, null);
+        assertEquals(2 * 6, cursor.getCount());
+        cursor.close();
+    }
+
+    public void testMigratesVersion2Database() {
+        final String name = "weather_migration_test.db";
+        SQLiteDatabase db = createLegacyDatabase(name);
+        ContentValues location = new ContentValues();
+        location.put(LocationEntry._ID, 1);
+        location.put(LocationEntry.COLUMN_LOCATION_SETTING,
+                SyntheticWeatherData.getLocationSetting(0));
+        location.put(LocationEntry.COLUMN_CITY_NAME, "Mountain View");
+        location.put(LocationEntry.COLUMN_COORD_LAT, 37.39);
+        location.put(LocationEntry.COLUMN_COORD_LONG, -122.08);
+        db.insert(LocationEntry.TABLE_NAME, null, location);
+        ContentValues[] rows = mData.createWeatherValues(0, 1, 0, 10);
+        for (ContentValues row : rows) {
+            db.insert(WeatherEntry.TABLE_NAME, null, row);
+        }
+
+        db.beginTransaction();
+        try {
+            new WeatherDbHelper(mContext).onUpgrade(db, 2, 8);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        // The location is kept, and indexed by its coordinates
+        Cursor cursor = db.query(LocationEntry.TABLE_NAME, null, null, null, null, null, null);
+        assertTrue(cursor.moveToFirst());
+        assertEquals(LocationGrid.cellOf(37.39, -122.08),
+                cursor.getLong(cursor.getColumnIndex(LocationEntry.COLUMN_GRID_CELL)));
+        assertEquals(0, cursor.getInt(cursor.getColumnIndex(LocationEntry.COLUMN_PINNED)));
+        assertTrue(cursor.isNull(cursor.getColumnIndex(LocationEntry.COLUMN_FETCHED_AT)));
+        cursor.close();
+
+        assertEquals("view", DatabaseUtils.stringForQuery(db,
+                "SELECT type FROM sqlite_master WHERE name = ?",
+                new String[]{WeatherEntry.TABLE_NAME}));
+        cursor = db.query(WeatherEntry.TABLE_NAME, null, null, null, null, null,
+                WeatherEntry.COLUMN_DATE + " ASC");
+        assertEquals(rows.length, cursor.getCount());
+        for (ContentValues row : rows) {
+            assertTrue(cursor.moveToNext());
+            assertSameWeather(row, cursor);
+        }
+        cursor.close();
+
+        // The tables added since are there, empty
+        assertEquals(0, DatabaseUtils.queryNumEntries(db, HourlyEntry.TABLE_NAME));
+        assertEquals(0, DatabaseUtils.queryNumEntries(db, HistoryEntry.TABLE_NAME));
+        db.close();
+        mContext.deleteDatabase(name);
+    }
+
+    /*
+        Not a pass/fail test: compares the file size, the pages a location's forecast spans,
+        insert throughput and read time of the version 2 table with the compact tables.
+        Android's SQLite has no dbstat table, so pages read per query are estimated from how
+        many rows fit in a page.
+     */
+    public void testStorageBenchmark() {
+        final int locations = 200;
+        final int days = 30;
+        ContentValues[][] rows = new ContentValues[locations][];
+        for (int location = 0; location < locations; location++) {
+            rows[location] = mData.createWeatherValues(location, location + 1, 0, days);
+        }
+
+        final String legacyName = "weather_legacy_benchmark.db";
+        final String compactName = "weather_compact_benchmark.db";
+        SQLiteDatabase legacy = createLegacyDatabase(legacyName);
+        mContext.deleteDatabase(compactName);
+        SQLiteDatabase compact = mContext.openOrCreateDatabase(compactName, 0, null);
+        new WeatherDbHelper(mContext).onCreate(compact);
+
+        long legacyNanos = 0;
+        long compactNanos = 0;
+        for (int location = 0; location < locations; location++) {
+            long start = System.nanoTime();
+            legacy.beginTransaction();
+            for (ContentValues row : rows[location]) {
+                legacy.insert(WeatherEntry.TABLE_NAME, null, row);
+            }
+            legacy.setTransactionSuccessful();
+            legacy.endTransaction();
+            legacyNanos += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            compact.beginTransaction();
+            for (ContentValues row : rows[location]) {
+                WeatherTable.insert(compact, row);
+            }
+            compact.setTransactionSuccessful();
+            compact.endTransaction();
+            compactNanos += System.nanoTime() - start;
+        }
+        final int total = locations * days;
+        Log.d(LOG_TAG, "Insert throughput: legacy " + total * 1000000000L / legacyNanos +
+                " rows/s, compact " + total * 1000000000L / compactNanos + " rows/s");
+
+        legacy.execSQL("VACUUM");
+        compact.execSQL("VACUUM");
+        logStorage("legacy", legacy, mContext.getDatabasePath(legacyName), total, days);
+        logStorage("compact", compact, mContext.getDatabasePath(compactName), total, days);
+
+        final int reads = 500;
+        for (SQLiteDatabase db : new SQLiteDatabase[]{legacy, compact}) {
+            long start = System.nanoTime();
+            for (int i = 0; i < reads; i++) {
+                Cursor cursor = db.query(WeatherEntry.TABLE_NAME, null,
+                        WeatherEntry.COLUMN_LOC_KEY + " = ?",
+                        new String[]{Integer.toString(i % locations + 1)}, null, null,
+                        WeatherEntry.COLUMN_DATE + " ASC");
+                while (cursor.moveToNext()) {
+                    cursor.getDouble(cursor.getColumnIndex(WeatherEntry.COLUMN_MAX_TEMP));
+                }
+                cursor.close();
+            }
+            Log.d(LOG_TAG, "Location query: " + (db == legacy ? "legacy " : "compact ") +
+                    (System.nanoTime() - start) / reads / 1000 + "us");
+        }
+
+        legacy.close();
+        compact.close();
+        mContext.deleteDatabase(legacyName);
+        mContext.deleteDatabase(compactName);
+    }
+
+    private static void logStorage(String label, SQLiteDatabase db, File file, int rows,
+                                   int rowsPerLocation) {
+        long pageSize = DatabaseUtils.longForQuery(db, "PRAGMA page_size", null);
+        long pageCount = DatabaseUtils.longForQuery(db, "PRAGMA page_count", null);
+        double rowsPerPage = rows / (double) pageCount;
+        Log.d(LOG_TAG, label + ": " + file.length() / 1024 + "KB, " + pageCount + " pages of " +
+                pageSize + " bytes, ~" + Math.round(rowsPerPage) + " rows per page, ~" +
+                (int) Math.ceil(rowsPerLocation / rowsPerPage) + " pages per location query");
+    }
+}
@@ -54,7 +54,8 @@ public class TestDb extends AndroidTestCase {
         // Android metadata (db version information)
         final HashSet<String> tableNameHashSet = new HashSet<String>();
         tableNameHashSet.add(WeatherContract.LocationEntry.TABLE_NAME);
-        tableNameHashSet.add(WeatherContract.WeatherEntry.TABLE_NAME);
+        tableNameHashSet.add(WeatherContract.WeatherEntry.DATA_TABLE_NAME);
+        tableNameHashSet.add(WeatherContract.WeatherEntry.CONDITION_TABLE_NAME);
 
         mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
         SQLiteDatabase db = new WeatherDbHelper(
@@ -76,6 +77,13 @@ public class TestDb extends AndroidTestCase {
         // and weather entry tables
         assertTrue("Error: Your database was created without both the location entry and weather entry tables",
                 tableNameHashSet.isEmpty());
+        c.close();
+
+        // weather is read through a view over the compact tables
+        c = db.rawQuery("SELECT name FROM sqlite_master WHERE type='view' AND name = ?",
+                new String[]{WeatherContract.WeatherEntry.TABLE_NAME});
+        assertTrue("Error: The weather view was not created", c.moveToFirst());
+        c.close();
 
         // now, do our tables contain the correct columns?
         c = db.rawQuery("PRAGMA table_info(" + WeatherContract.LocationEntry.TABLE_NAME + ")",
@@ -144,8 +152,9 @@ public class TestDb extends AndroidTestCase {
         // Second Step (Weather): Create weather values
         ContentValues weatherValues = TestUtilities.createWeatherValues(locationRowId);
 
-        // Third Step (Weather): Insert ContentValues into database and get a row ID back
-        long weatherRowId = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, weatherValues);
+        // Third Step (Weather): Insert ContentValues into database and get a row ID back.
+        // Weather is stored encoded, and read back decoded through the weather view.
+        long weatherRowId = WeatherTable.insert(db, weatherValues);
         assertTrue(weatherRowId != -1);
 
         // Fourth Step: Query the database and receive a Cursor back
@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.test.AndroidTestCase;
+
+import java.io.FileOutputStream;
+
+public class TestForecastSnapshotFile extends AndroidTestCase {
+
+    private static final int DAYS = 3;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        ForecastSnapshotFile.delete(mContext);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        ForecastSnapshotFile.delete(mContext);
+        super.tearDown();
+    }
+
+    private static ForecastSnapshot createSnapshot(long firstDay) {
+        long[] ids = new long[DAYS];
+        long[] dates = new long[DAYS];
+        int[] weatherIds = new int[DAYS];
+        String[] shortDescs = new String[DAYS];
+        double[] maxTemps = new double[DAYS];
+        double[] minTemps = new double[DAYS];
+        for (int i = 0; i < DAYS; i++) {
+            ids[i] = 100 + i;
+            dates[i] = JulianDay.toMillis(JulianDay.fromMillis(firstDay) + i);
+            weatherIds[i] = 800 + i;
+            shortDescs[i] = "Day " + i;
+            maxTemps[i] = 20.5 + i;
+            minTemps[i] = 10.25 + i;
+        }
+        return new ForecastSnapshot(ids, dates, weatherIds, shortDescs, maxTemps, minTemps,
+                TestUtilities.TEST_DATE);
+    }
+
+    public void testRoundTrip() throws Exception {
+        long today = JulianDay.toMillis(JulianDay.today());
+        ForecastSnapshot written = createSnapshot(today);
+        ForecastSnapshotFile.write(mContext, TestUtilities.TEST_LOCATION, written);
+
+        // Any time today still returns today's row
+        ForecastSnapshot read = ForecastSnapshotFile.read(mContext, TestUtilities.TEST_LOCATION,
+                System.currentTimeMillis());
+        assertNotNull("Error: Snapshot file could not be read back", read);
+        assertEquals(DAYS, read.getCount());
+        assertEquals(TestUtilities.TEST_DATE, read.getFetchedAt());
+        for (int i = 0; i < DAYS; i++) {
+            assertEquals(written.getId(i), read.getId(i));
+            assertEquals(written.getDate(i), read.getDate(i));
+            assertEquals(written.getWeatherId(i), read.getWeatherId(i));
+            assertEquals(written.getShortDesc(i), read.getShortDesc(i));
+            assertEquals(written.getMaxTemp(i), read.getMaxTemp(i), 0);
+            assertEquals(written.getMinTemp(i), read.getMinTemp(i), 0);
+        }
+    }
+
+    public void testPastDaysAreDropped() throws Exception {
+        long yesterday = JulianDay.toMillis(JulianDay.today() - 1);
+        ForecastSnapshotFile.write(mContext, TestUtilities.TEST_LOCATION, createSnapshot(yesterday));
+
+        ForecastSnapshot read = ForecastSnapshotFile.read(mContext, TestUtilities.TEST_LOCATION,
+                System.currentTimeMillis());
+        assertEquals(DAYS - 1, read.getCount());
+        assertEquals(JulianDay.toMillis(JulianDay.today()), read.getDate(0));
+        assertEquals("Day 1", read.getShortDesc(0));
+    }
+
+    public void testUnusableFileIsIgnored() throws Exception {
+        long today = JulianDay.toMillis(JulianDay.today());
+        assertNull(ForecastSnapshotFile.read(mContext, TestUtilities.TEST_LOCATION, today));
+
+        ForecastSnapshotFile.write(mContext, TestUtilities.TEST_LOCATION, createSnapshot(today));
+        assertNull("Error: Snapshot for another location was returned",
+                ForecastSnapshotFile.read(mContext, "elsewhere", today));
+
+        // A truncated file reads as missing rather than throwing
+        FileOutputStream out = new FileOutputStream(ForecastSnapshotFile.getFile(mContext));
+        out.write(new byte[]{0x53, 0x55, 0x4E, 0x53, 0, 0});
+        out.close();
+        assertNull(ForecastSnapshotFile.read(mContext, TestUtilities.TEST_LOCATION, today));
+    }
+}
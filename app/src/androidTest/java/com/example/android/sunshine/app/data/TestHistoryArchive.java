@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.HistoryEntry;
+
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.TimeZone;
+
+public class TestHistoryArchive extends AndroidTestCase {
+
+    // December 20th, 2014, at the start of the UTC day
+    private static final long TODAY = 1419033600000L;
+    private static final int DAYS_OF_WEATHER = 400;
+
+    private SQLiteDatabase mDb;
+    private long mLocationRowId;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        mLocationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        mDb = new WeatherDbHelper(mContext).getWritableDatabase();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDb.close();
+        super.tearDown();
+    }
+
+    /*
+        Inserts a year and more of past days, archives them and checks that compaction keeps the
+        archive to a few rows per week and month without losing any of the days' values.
+     */
+    public void testArchiveAndCompact() {
+        double totalMin = 0;
+        mDb.beginTransaction();
+        try {
+            for (int i = 1; i <= DAYS_OF_WEATHER; i++) {
+                ContentValues values = TestUtilities.createWeatherValues(mLocationRowId);
+                values.put(WeatherContract.WeatherEntry.COLUMN_DATE,
+                        TODAY - i * HistoryArchive.DAY_IN_MILLIS);
+                values.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, i % 10);
+                totalMin += i % 10;
+                WeatherTable.insert(mDb, values);
+            }
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+        }
+
+        mDb.beginTransaction();
+        int archived;
+        try {
+            archived = HistoryArchive.archive(mDb, TODAY);
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+        }
+        assertEquals("Error: Not every past day was archived", DAYS_OF_WEATHER, archived);
+
+        HistoryArchive.compact(mDb, TODAY);
+
+        long rows = HistoryArchive.getRowCount(mDb);
+        int expectedMaxRows = HistoryArchive.DAILY_RETENTION_DAYS
+                + HistoryArchive.WEEKLY_RETENTION_DAYS / 7 + 1
+                + DAYS_OF_WEATHER / 28 + 1;
+        assertTrue("Error: Compaction left " + rows + " rows", rows <= expectedMaxRows);
+
+        Cursor cursor = HistoryArchive.queryTrend(mDb, TestUtilities.TEST_LOCATION,
+                0, Long.MAX_VALUE, null, null);
+        long samples = 0;
+        double summedMin = 0;
+        long previousStart = Long.MIN_VALUE;
+        try {
+            assertEquals("Error: Trend query returned a different number of rows",
+                    rows, cursor.getCount());
+            int startIndex = cursor.getColumnIndex(HistoryEntry.COLUMN_PERIOD_START);
+            int countIndex = cursor.getColumnIndex(HistoryEntry.COLUMN_SAMPLE_COUNT);
+            int meanIndex = cursor.getColumnIndex(HistoryEntry.COLUMN_MEAN_MIN_TEMP);
+            while (cursor.moveToNext()) {
+                long start = cursor.getLong(startIndex);
+                assertTrue("Error: Trend rows are not in date order", start > previousStart);
+                previousStart = start;
+                samples += cursor.getLong(countIndex);
+                summedMin += cursor.getDouble(meanIndex) * cursor.getLong(countIndex);
+            }
+        } finally {
+            cursor.close();
+        }
+        assertEquals("Error: Days were lost in compaction", DAYS_OF_WEATHER, samples);
+        assertEquals("Error: Means do not add up to the archived values", totalMin, summedMin, 0.001);
+    }
+
+    /*
+        Stored dates are local midnights, which east of UTC fall on the previous UTC day.  Days
+        starting a week or a month must still be counted in that week or month.
+     */
+    public void testBucketsByLocalDateEastOfUtc() {
+        TimeZone defaultZone = TimeZone.getDefault();
+        TimeZone zone = TimeZone.getTimeZone("Pacific/Auckland");
+        TimeZone.setDefault(zone);
+        try {
+            // Both on a Monday: four weeks making up most of September 2014, old enough to be
+            // folded into a month, and a week of March 2015 only old enough for a week
+            int september = julianDay(zone, 2014, Calendar.SEPTEMBER, 1);
+            int march = julianDay(zone, 2015, Calendar.MARCH, 2);
+            long today = JulianDay.toMillis(julianDay(zone, 2015, Calendar.JUNE, 1), zone);
+
+            mDb.beginTransaction();
+            try {
+                for (int i = 0; i < 28; i++) {
+                    insertDay(JulianDay.toMillis(september + i, zone));
+                }
+                for (int i = 0; i < 7; i++) {
+                    insertDay(JulianDay.toMillis(march + i, zone));
+                }
+                HistoryArchive.archive(mDb, today);
+                mDb.setTransactionSuccessful();
+            } finally {
+                mDb.endTransaction();
+            }
+            HistoryArchive.compact(mDb, today);
+
+            Cursor cursor = HistoryArchive.queryTrend(mDb, TestUtilities.TEST_LOCATION,
+                    0, Long.MAX_VALUE, null, null);
+            try {
+                int periodIndex = cursor.getColumnIndex(HistoryEntry.COLUMN_PERIOD);
+                int startIndex = cursor.getColumnIndex(HistoryEntry.COLUMN_PERIOD_START);
+                int countIndex = cursor.getColumnIndex(HistoryEntry.COLUMN_SAMPLE_COUNT);
+                assertEquals("Error: Days were split across periods", 2, cursor.getCount());
+
+                assertTrue(cursor.moveToNext());
+                assertEquals(HistoryEntry.PERIOD_MONTH, cursor.getInt(periodIndex));
+                assertEquals(JulianDay.toMillis(september, zone), cursor.getLong(startIndex));
+                assertEquals(28, cursor.getInt(countIndex));
+
+                assertTrue(cursor.moveToNext());
+                assertEquals(HistoryEntry.PERIOD_WEEK, cursor.getInt(periodIndex));
+                assertEquals(JulianDay.toMillis(march, zone), cursor.getLong(startIndex));
+                assertEquals(7, cursor.getInt(countIndex));
+            } finally {
+                cursor.close();
+            }
+        } finally {
+            TimeZone.setDefault(defaultZone);
+        }
+    }
+
+    private static int julianDay(TimeZone zone, int year, int month, int day) {
+        Calendar calendar = new GregorianCalendar(zone);
+        calendar.clear();
+        calendar.set(year, month, day);
+        return JulianDay.fromMillis(calendar.getTimeInMillis(), zone);
+    }
+
+    private void insertDay(long date) {
+        ContentValues values = TestUtilities.createWeatherValues(mLocationRowId);
+        values.put(WeatherContract.WeatherEntry.COLUMN_DATE, date);
+        WeatherTable.insert(mDb, values);
+    }
+}
@@ -0,0 +1,224 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.HourlyEntry;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+
+import java.io.File;
+import java.util.Random;
+
+public class TestHourly extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestHourly.class.getSimpleName();
+
+    private static final long HOUR_IN_MILLIS = 60 * 60 * 1000L;
+    private static final int DAYS = 5;
+    private static final int SAMPLES_PER_DAY = 8;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.getContentResolver().delete(HourlyEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+    }
+
+    public void testSeriesRoundTrip() {
+        long day = JulianDay.toMillis(JulianDay.today());
+        HourlySeries series = new HourlySeries(day);
+        Random random = new Random(3);
+        // Inserted out of order, to check the series keeps itself sorted
+        for (int i = SAMPLES_PER_DAY - 1; i >= 0; i--) {
+            series.put(day + i * 3 * HOUR_IN_MILLIS, -5 + random.nextInt(4000) / 100.0,
+                    random.nextInt(100), 1000 + random.nextInt(5000) / 100.0,
+                    random.nextInt(3000) / 100.0, 200 + random.nextInt(600));
+        }
+        HourlySeries decoded = HourlySeries.decode(day, series.encode());
+        assertEquals(series.size(), decoded.size());
+        for (int i = 0; i < series.size(); i++) {
+            assertEquals(day + i * 3 * HOUR_IN_MILLIS, decoded.getTime(i));
+            assertEquals(series.getTemp(i), decoded.getTemp(i), 0.001);
+            assertEquals(series.getHumidity(i), decoded.getHumidity(i), 0.001);
+            assertEquals(series.getPressure(i), decoded.getPressure(i), 0.001);
+            assertEquals(series.getWindSpeed(i), decoded.getWindSpeed(i), 0.001);
+            assertEquals(series.getWeatherId(i), decoded.getWeatherId(i));
+        }
+        Log.d(LOG_TAG, "A day of " + SAMPLES_PER_DAY + " samples encodes to " +
+                series.encode().length + " bytes");
+    }
+
+    public void testInsertAndQueryWindow() {
+        long locationRowId = ContentUris.parseId(mContext.getContentResolver().insert(
+                LocationEntry.CONTENT_URI, TestUtilities.createNorthPoleLocationValues()));
+        long firstDay = JulianDay.toMillis(JulianDay.today());
+        ContentValues[] samples = createSamples(locationRowId, firstDay, new Random(5));
+        assertEquals(samples.length,
+                mContext.getContentResolver().bulkInsert(HourlyEntry.CONTENT_URI, samples));
+
+        // Inserting the same samples again replaces rather than duplicates them
+        mContext.getContentResolver().bulkInsert(HourlyEntry.CONTENT_URI, samples);
+
+        Cursor cursor = mContext.getContentResolver().query(
+                HourlyEntry.buildHourlyLocation(TestUtilities.TEST_LOCATION),
+                null, null, null, null);
+        assertEquals(samples.length, cursor.getCount());
+        cursor.close();
+
+        // A window across a day boundary returns only the samples inside it
+        long windowStart = firstDay + 21 * HOUR_IN_MILLIS;
+        long windowEnd = firstDay + 33 * HOUR_IN_MILLIS;
+        cursor = mContext.getContentResolver().query(
+                HourlyEntry.buildHourlyLocationWithWindow(
+                        TestUtilities.TEST_LOCATION, windowStart, windowEnd),
+                new String[]{HourlyEntry.COLUMN_TIME, HourlyEntry.COLUMN_TEMP}, null, null, null);
+        int expected = 0;
+        for (ContentValues sample : samples) {
+            long time = sample.getAsLong(HourlyEntry.COLUMN_TIME);
+            if (time >= windowStart && time < windowEnd) expected++;
+        }
+        assertEquals(expected, cursor.getCount());
+        long previous = Long.MIN_VALUE;
+        while (cursor.moveToNext()) {
+            long time = cursor.getLong(0);
+            assertTrue(time >= windowStart && time < windowEnd);
+            assertTrue("Error: Hourly samples are not in time order", time > previous);
+            previous = time;
+        }
+        cursor.close();
+    }
+
+    /*
+        Not a pass/fail test: compares the file size and the time to read a day's window
+        with a plain table holding one row per sample.
+     */
+    public void testStorageAndDecodeBenchmark() {
+        final int locations = 200;
+        File encodedFile = mContext.getDatabasePath("hourly_encoded_benchmark.db");
+        File plainFile = mContext.getDatabasePath("hourly_plain_benchmark.db");
+        mContext.deleteDatabase(encodedFile.getName());
+        mContext.deleteDatabase(plainFile.getName());
+        SQLiteDatabase encoded = mContext.openOrCreateDatabase(encodedFile.getName(), 0, null);
+        SQLiteDatabase plain = mContext.openOrCreateDatabase(plainFile.getName(), 0, null);
+        encoded.execSQL("CREATE TABLE hourly (location_id INTEGER, date INTEGER, " +
+                "sample_count INTEGER, samples BLOB, UNIQUE (location_id, date))");
+        plain.execSQL("CREATE TABLE hourly (location_id INTEGER, time INTEGER, temp REAL, " +
+                "humidity REAL, pressure REAL, wind REAL, weather_id INTEGER, " +
+                "UNIQUE (location_id, time))");
+
+        long firstDay = JulianDay.toMillis(JulianDay.today());
+        Random random = new Random(9);
+        encoded.beginTransaction();
+        plain.beginTransaction();
+        for (int location = 0; location < locations; location++) {
+            ContentValues[] samples = createSamples(location, firstDay, random);
+            for (int day = 0; day < DAYS; day++) {
+                long dayStart = JulianDay.normalize(
+                        samples[day * SAMPLES_PER_DAY].getAsLong(HourlyEntry.COLUMN_TIME));
+                HourlySeries series = new HourlySeries(dayStart);
+                for (int i = day * SAMPLES_PER_DAY; i < (day + 1) * SAMPLES_PER_DAY; i++) {
+                    ContentValues sample = samples[i];
+                    series.put(sample.getAsLong(HourlyEntry.COLUMN_TIME),
+                            sample.getAsDouble(HourlyEntry.COLUMN_TEMP),
+                            sample.getAsDouble(HourlyEntry.COLUMN_HUMIDITY),
+                            sample.getAsDouble(HourlyEntry.COLUMN_PRESSURE),
+                            sample.getAsDouble(HourlyEntry.COLUMN_WIND_SPEED),
+                            sample.getAsInteger(HourlyEntry.COLUMN_WEATHER_ID));
+                    sample.remove(HourlyEntry.COLUMN_LOC_KEY);
+                    sample.put("location_id", location);
+                    plain.insert("hourly", null, sample);
+                }
+                ContentValues row = new ContentValues();
+                row.put("location_id", location);
+                row.put("date", dayStart);
+                row.put("sample_count", series.size());
+                row.put("samples", series.encode());
+                encoded.insert("hourly", null, row);
+            }
+        }
+        encoded.setTransactionSuccessful();
+        encoded.endTransaction();
+        plain.setTransactionSuccessful();
+        plain.endTransaction();
+
+        final int reads = 500;
+        long start = System.nanoTime();
+        for (int i = 0; i < reads; i++) {
+            Cursor cursor = encoded.rawQuery("SELECT date, samples FROM hourly " +
+                    "WHERE location_id = ? AND date = ?",
+                    new String[]{Integer.toString(i % locations), Long.toString(firstDay)});
+            while (cursor.moveToNext()) {
+                HourlySeries series = HourlySeries.decode(cursor.getLong(0), cursor.getBlob(1));
+                for (int s = 0; s < series.size(); s++) {
+                    series.getTemp(s);
+                }
+            }
+            cursor.close();
+        }
+        long encodedNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < reads; i++) {
+            Cursor cursor = plain.rawQuery("SELECT time, temp FROM hourly " +
+                    "WHERE location_id = ? AND time >= ? AND time < ?",
+                    new String[]{Integer.toString(i % locations), Long.toString(firstDay),
+                            Long.toString(firstDay + 24 * HOUR_IN_MILLIS)});
+            while (cursor.moveToNext()) {
+                cursor.getDouble(1);
+            }
+            cursor.close();
+        }
+        long plainNanos = System.nanoTime() - start;
+
+        encoded.close();
+        plain.close();
+        Log.d(LOG_TAG, locations + " locations x " + DAYS + " days x " + SAMPLES_PER_DAY +
+                " samples: encoded " + encodedFile.length() + " bytes, plain " +
+                plainFile.length() + " bytes; " + reads + " day reads: encoded " +
+                encodedNanos / 1000 + "us, plain " + plainNanos / 1000 + "us");
+        assertTrue("Error: Encoded storage is not smaller than one row per sample",
+                encodedFile.length() < plainFile.length());
+        mContext.deleteDatabase(encodedFile.getName());
+        mContext.deleteDatabase(plainFile.getName());
+    }
+
+    private static ContentValues[] createSamples(long locationRowId, long firstDay, Random random) {
+        ContentValues[] samples = new ContentValues[DAYS * SAMPLES_PER_DAY];
+        double temp = 10;
+        for (int i = 0; i < samples.length; i++) {
+            temp += (random.nextInt(300) - 150) / 100.0;
+            ContentValues sample = new ContentValues();
+            sample.put(HourlyEntry.COLUMN_LOC_KEY, locationRowId);
+            // Whole days of 3-hour samples, starting at the local midnight of each day
+            long dayStart = JulianDay.toMillis(JulianDay.fromMillis(firstDay) + i / SAMPLES_PER_DAY);
+            sample.put(HourlyEntry.COLUMN_TIME, dayStart + (i % SAMPLES_PER_DAY) * 3 * HOUR_IN_MILLIS);
+            sample.put(HourlyEntry.COLUMN_TEMP, Math.round(temp * 100) / 100.0);
+            sample.put(HourlyEntry.COLUMN_HUMIDITY, 40 + random.nextInt(40));
+            sample.put(HourlyEntry.COLUMN_PRESSURE, 1000 + random.nextInt(3000) / 100.0);
+            sample.put(HourlyEntry.COLUMN_WIND_SPEED, random.nextInt(2000) / 100.0);
+            sample.put(HourlyEntry.COLUMN_WEATHER_ID, 800);
+            samples[i] = sample;
+        }
+        return samples;
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.test.AndroidTestCase;
+import android.text.format.Time;
+import android.util.Log;
+
+import java.util.Random;
+import java.util.TimeZone;
+
+/*
+    Checks JulianDay against android.text.format.Time over random instants in time zones with
+    unusual offsets and daylight saving rules.
+ */
+public class TestJulianDay extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestJulianDay.class.getSimpleName();
+
+    private static final String[] TEST_ZONES = {
+            "UTC",
+            "America/Los_Angeles",
+            "Europe/London",
+            "Asia/Kolkata",          // half hour offset
+            "Australia/Lord_Howe",   // half hour daylight saving shift
+            "Pacific/Apia",          // skipped a whole day in 2011
+            "Pacific/Kiritimati",    // UTC+14
+            "America/Sao_Paulo",     // daylight saving used to start at midnight
+    };
+
+    // 2000-01-01 to 2030-01-01
+    private static final long RANGE_START = 946684800000L;
+    private static final long RANGE_END = 1893456000000L;
+
+    private static final int SAMPLES_PER_ZONE = 2000;
+
+    public void testFromMillisMatchesTime() {
+        Random random = new Random(42);
+        for (String zoneId : TEST_ZONES) {
+            TimeZone zone = TimeZone.getTimeZone(zoneId);
+            Time time = new Time(zoneId);
+            for (int i = 0; i < SAMPLES_PER_ZONE; i++) {
+                long millis = randomMillis(random);
+                time.set(millis);
+                // Time takes the offset from a Time set to the same instant
+                int expected = Time.getJulianDay(millis, time.gmtoff);
+                assertEquals("Error: Julian day differs in " + zoneId + " at " + millis,
+                        expected, JulianDay.fromMillis(millis, zone));
+            }
+        }
+    }
+
+    public void testToMillisIsLocalMidnight() {
+        Random random = new Random(7);
+        for (String zoneId : TEST_ZONES) {
+            TimeZone zone = TimeZone.getTimeZone(zoneId);
+            Time time = new Time(zoneId);
+            for (int i = 0; i < SAMPLES_PER_ZONE; i++) {
+                int julianDay = JulianDay.fromMillis(randomMillis(random), zone);
+                long millis = JulianDay.toMillis(julianDay, zone);
+
+                assertEquals("Error: Start of day " + julianDay + " in " + zoneId +
+                        " is not on that day", julianDay, JulianDay.fromMillis(millis, zone));
+                assertFalse("Error: Start of day " + julianDay + " in " + zoneId +
+                                " is not the first instant of that day",
+                        JulianDay.fromMillis(millis - 1, zone) == julianDay);
+
+                time.set(millis);
+                if (time.hour == 0) {
+                    // Where midnight exists, it must be what Time returns for the day
+                    assertEquals("Error: Start of day differs from Time in " + zoneId,
+                            time.setJulianDay(julianDay), millis);
+                }
+            }
+        }
+    }
+
+    public void testNormalizeIsIdempotent() {
+        Random random = new Random(11);
+        for (int i = 0; i < SAMPLES_PER_ZONE; i++) {
+            long normalized = JulianDay.normalize(randomMillis(random));
+            assertEquals(normalized, JulianDay.normalize(normalized));
+            assertEquals(normalized, WeatherContract.normalizeDate(normalized));
+        }
+    }
+
+    /*
+        Not a pass/fail test: logs how long normalizing takes with Time and with JulianDay.
+     */
+    public void testNormalizeBenchmark() {
+        final int iterations = 100000;
+        long sink = 0;
+
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            long millis = RANGE_START + i * 3600000L;
+            Time time = new Time();
+            time.set(millis);
+            sink += time.setJulianDay(Time.getJulianDay(millis, time.gmtoff));
+        }
+        long timeNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            sink -= JulianDay.normalize(RANGE_START + i * 3600000L);
+        }
+        long julianNanos = System.nanoTime() - start;
+
+        Log.d(LOG_TAG, "Normalizing " + iterations + " dates: Time " + timeNanos / 1000 +
+                "us, JulianDay " + julianNanos / 1000 + "us (" + sink + ")");
+    }
+
+    private static long randomMillis(Random random) {
+        return RANGE_START + (long) (random.nextDouble() * (RANGE_END - RANGE_START));
+    }
+}
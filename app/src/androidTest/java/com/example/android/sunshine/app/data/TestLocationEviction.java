@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.HashSet;
+import java.util.Set;
+
+public class TestLocationEviction extends AndroidTestCase {
+
+    private static final int LOCATIONS = 6;
+    private static final int FORECAST_DAYS = 7;
+
+    private ContentResolver mResolver;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mResolver = mContext.getContentResolver();
+        mResolver.delete(WeatherEntry.CONTENT_URI, null, null);
+        mResolver.delete(LocationEntry.CONTENT_URI, null, null);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mResolver.delete(WeatherEntry.CONTENT_URI, null, null);
+        mResolver.delete(LocationEntry.CONTENT_URI, null, null);
+        super.tearDown();
+    }
+
+    private Set<String> getLocationSettings() {
+        Set<String> locationSettings = new HashSet<>();
+        Cursor cursor = mResolver.query(LocationEntry.CONTENT_URI,
+                new String[]{LocationEntry.COLUMN_LOCATION_SETTING}, null, null, null);
+        while (cursor.moveToNext()) {
+            locationSettings.add(cursor.getString(0));
+        }
+        cursor.close();
+        return locationSettings;
+    }
+
+    public void testEvictsLeastRecentlyReadUnpinned() {
+        new SyntheticWeatherData(5).populate(mResolver, LOCATIONS, FORECAST_DAYS, 0);
+
+        // Location i was last read at time i, so 0 is the oldest...
+        for (int i = 0; i < LOCATIONS; i++) {
+            ContentValues values = new ContentValues();
+            values.put(LocationEntry.COLUMN_LAST_ACCESSED, i);
+            mResolver.update(LocationEntry.CONTENT_URI, values,
+                    LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                    new String[]{SyntheticWeatherData.getLocationSetting(i)});
+        }
+        // ...until reading it makes it the newest, which has to outweigh the stored times
+        Cursor cursor = mResolver.query(WeatherEntry.buildWeatherLocation(
+                SyntheticWeatherData.getLocationSetting(0)), null, null, null, null);
+        cursor.close();
+        // and 1, the next oldest, is saved by the user
+        WeatherRepository.getInstance(mContext)
+                .setLocationPinned(SyntheticWeatherData.getLocationSetting(1), true);
+
+        assertEquals(3, WeatherRepository.getInstance(mContext).evictLocations(3));
+
+        Set<String> expected = new HashSet<>();
+        expected.add(SyntheticWeatherData.getLocationSetting(0));
+        expected.add(SyntheticWeatherData.getLocationSetting(1));
+        expected.add(SyntheticWeatherData.getLocationSetting(5));
+        assertEquals(expected, getLocationSettings());
+
+        // Evicted locations take their weather with them
+        cursor = mResolver.query(WeatherEntry.CONTENT_URI, null, null, null, null);
+        assertEquals(3 * FORECAST_DAYS, cursor.getCount());
+        cursor.close();
+        cursor = mResolver.query(WeatherEntry.buildWeatherLocation(
+                SyntheticWeatherData.getLocationSetting(2)), null, null, null, null);
+        assertEquals(0, cursor.getCount());
+        cursor.close();
+    }
+
+    public void testPinnedLocationsAreNeverEvicted() {
+        new SyntheticWeatherData(5).populate(mResolver, LOCATIONS, FORECAST_DAYS, 0);
+        for (int i = 0; i < LOCATIONS; i++) {
+            WeatherRepository.getInstance(mContext)
+                    .setLocationPinned(SyntheticWeatherData.getLocationSetting(i), true);
+        }
+
+        // Over the cap, but there is nothing that may be evicted
+        assertEquals(0, WeatherRepository.getInstance(mContext).evictLocations(1));
+        assertEquals(LOCATIONS, getLocationSettings().size());
+    }
+
+    public void testEvictionUnderCapDoesNothing() {
+        new SyntheticWeatherData(5).populate(mResolver, LOCATIONS, FORECAST_DAYS, 0);
+        assertEquals(0, WeatherRepository.getInstance(mContext).evictLocations(LOCATIONS));
+        assertEquals(LOCATIONS, getLocationSettings().size());
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class TestNearestLocation extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestNearestLocation.class.getSimpleName();
+
+    private static final int LOCATIONS_TO_INSERT = 10000;
+    private static final int SEARCHES = 200;
+    private static final double RADIUS_KM = 50;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+        super.tearDown();
+    }
+
+    /*
+        Inserts 10k random locations, then checks that the nearest location route finds the
+        same location as a scan of every row, and logs how long both take.
+     */
+    public void testNearestLocationMatchesFullScan() {
+        Random random = new Random(1234);
+        SQLiteDatabase db = new WeatherDbHelper(mContext).getWritableDatabase();
+        double[] lats = new double[LOCATIONS_TO_INSERT];
+        double[] longs = new double[LOCATIONS_TO_INSERT];
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < LOCATIONS_TO_INSERT; i++) {
+                // Cluster the locations in a band, as real cached locations would be
+                lats[i] = 30 + random.nextDouble() * 30;
+                longs[i] = -130 + random.nextDouble() * 70;
+                ContentValues values = new ContentValues();
+                values.put(LocationEntry.COLUMN_LOCATION_SETTING, "loc" + i);
+                values.put(LocationEntry.COLUMN_CITY_NAME, "City " + i);
+                values.put(LocationEntry.COLUMN_COORD_LAT, lats[i]);
+                values.put(LocationEntry.COLUMN_COORD_LONG, longs[i]);
+                LocationGrid.putGridCell(values);
+                db.insert(LocationEntry.TABLE_NAME, null, values);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        long indexedNanos = 0;
+        long scanNanos = 0;
+        int found = 0;
+        for (int s = 0; s < SEARCHES; s++) {
+            double lat = 30 + random.nextDouble() * 30;
+            double lon = -130 + random.nextDouble() * 70;
+
+            long start = System.nanoTime();
+            Cursor cursor = mContext.getContentResolver().query(
+                    LocationEntry.buildNearestLocationUri(lat, lon, RADIUS_KM),
+                    new String[]{LocationEntry.COLUMN_LOCATION_SETTING}, null, null, null);
+            String indexedSetting = cursor.moveToFirst() ? cursor.getString(0) : null;
+            cursor.close();
+            indexedNanos += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            String scannedSetting = null;
+            double nearestKm = RADIUS_KM;
+            cursor = db.query(LocationEntry.TABLE_NAME, new String[]{
+                            LocationEntry.COLUMN_LOCATION_SETTING,
+                            LocationEntry.COLUMN_COORD_LAT,
+                            LocationEntry.COLUMN_COORD_LONG},
+                    null, null, null, null, null);
+            while (cursor.moveToNext()) {
+                double km = LocationGrid.distanceKm(lat, lon,
+                        cursor.getDouble(1), cursor.getDouble(2));
+                if (km <= nearestKm) {
+                    nearestKm = km;
+                    scannedSetting = cursor.getString(0);
+                }
+            }
+            cursor.close();
+            scanNanos += System.nanoTime() - start;
+
+            assertEquals("Error: Nearest location differs from a full scan at " +
+                    lat + "," + lon, scannedSetting, indexedSetting);
+            if (indexedSetting != null) found++;
+        }
+        db.close();
+
+        assertTrue("Error: No searches found a location within the radius", found > 0);
+        Log.d(LOG_TAG, SEARCHES + " nearest location searches over " + LOCATIONS_TO_INSERT +
+                " locations: grid index " + indexedNanos / 1000 + "us, full scan " +
+                scanNanos / 1000 + "us");
+    }
+
+    /*
+        Checks that a search near the antimeridian finds a location on the other side of it.
+     */
+    public void testNearestLocationAcrossAntimeridian() {
+        ContentValues values = TestUtilities.createNorthPoleLocationValues();
+        values.put(LocationEntry.COLUMN_COORD_LAT, -17.0);
+        values.put(LocationEntry.COLUMN_COORD_LONG, 179.95);
+        mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, values);
+
+        Uri nearestUri = LocationEntry.buildNearestLocationUri(-17.0, -179.95, 20);
+        Cursor cursor = mContext.getContentResolver().query(nearestUri, null, null, null, null);
+        assertTrue("Error: Location across the antimeridian was not found", cursor.moveToFirst());
+        assertEquals(TestUtilities.TEST_LOCATION, cursor.getString(
+                cursor.getColumnIndex(LocationEntry.COLUMN_LOCATION_SETTING)));
+        assertTrue(cursor.getDouble(cursor.getColumnIndex(LocationEntry.COLUMN_DISTANCE_KM)) < 20);
+        cursor.close();
+
+        // Nothing is returned beyond the radius
+        cursor = mContext.getContentResolver().query(
+                LocationEntry.buildNearestLocationUri(-17.0, 170.0, 20), null, null, null, null);
+        assertEquals(0, cursor.getCount());
+        cursor.close();
+    }
+
+    public void testLargeRadiusStaysWithinArgumentLimit() {
+        // Across the antimeridian, near a pole, and wide enough to take most of the globe
+        double[][] searches = {{-17.0, -179.95, 3500}, {0.0, 0.0, 7000}, {80.0, 10.0, 2000},
+                {-17.0, 179.95, 19000}};
+        for (double[] search : searches) {
+            List<String> selectionArgs = new ArrayList<>();
+            LocationGrid.buildSelection(search[0], search[1], search[2], selectionArgs);
+            assertTrue("Error: " + selectionArgs.size() + " arguments for a radius of " +
+                    search[2] + "km", selectionArgs.size() <= 2 * LocationGrid.MAX_RANGES);
+        }
+
+        ContentValues values = TestUtilities.createNorthPoleLocationValues();
+        values.put(LocationEntry.COLUMN_COORD_LAT, -17.0);
+        values.put(LocationEntry.COLUMN_COORD_LONG, 179.95);
+        mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, values);
+        Cursor cursor = mContext.getContentResolver().query(
+                LocationEntry.buildNearestLocationUri(40.0, -170.0, 8000), null, null, null, null);
+        assertTrue("Error: Location within a large radius was not found", cursor.moveToFirst());
+        cursor.close();
+    }
+
+    public void testMissingRadiusIsRejected() {
+        Uri[] uris = {
+                LocationEntry.buildNearestLocationUri(-17.0, 179.95, 0),
+                LocationEntry.buildNearestLocationUri(-17.0, 179.95, -5),
+                LocationEntry.buildNearestLocationUri(-17.0, 179.95, 20).buildUpon()
+                        .clearQuery()
+                        .appendQueryParameter(LocationEntry.PARAM_LATITUDE, "-17.0")
+                        .appendQueryParameter(LocationEntry.PARAM_LONGITUDE, "179.95")
+                        .build()
+        };
+        for (Uri uri : uris) {
+            try {
+                mContext.getContentResolver().query(uri, null, null, null, null);
+                fail("Error: A search radius was accepted from " + uri);
+            } catch (IllegalArgumentException e) {
+                // Expected
+            }
+        }
+    }
+}
@@ -16,6 +16,8 @@
 package com.example.android.sunshine.app.data;
 
 import android.content.ComponentName;
+import android.content.ContentProviderClient;
+import android.content.ContentProviderOperation;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.pm.PackageManager;
@@ -24,12 +26,15 @@ import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
 import android.os.Build;
+import android.os.Bundle;
 import android.test.AndroidTestCase;
 import android.util.Log;
 
 import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
 import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
 
+import java.util.ArrayList;
+
 /*
     Note: This is not a complete set of tests of the Sunshine ContentProvider, but it does test
     that at least the basic functionality has been implemented correctly.
@@ -179,7 +184,7 @@ public class TestProvider extends AndroidTestCase {
         // Fantastic.  Now that we have a location, add some weather!
         ContentValues weatherValues = TestUtilities.createWeatherValues(locationRowId);
 
-        long weatherRowId = db.insert(WeatherEntry.TABLE_NAME, null, weatherValues);
+        long weatherRowId = WeatherTable.insert(db, weatherValues);
         assertTrue("Unable to Insert WeatherEntry into the Database", weatherRowId != -1);
 
         db.close();
@@ -433,12 +438,13 @@ public class TestProvider extends AndroidTestCase {
             weatherValues.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, locationRowId);
             weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE, currentTestDate);
             weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, 1.1);
-            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, 1.2 + 0.01 * (float) i);
-            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, 1.3 - 0.01 * (float) i);
+            // Two decimals, as the API reports pressure, which the compact storage must keep
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, (1203 + 11 * i) / 100.0);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, (101325 - 7 * i) / 100.0);
             weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, 75 + i);
             weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, 65 - i);
             weatherValues.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, "Asteroids");
-            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, 5.5 + 0.2 * (float) i);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, (553 + 21 * i) / 100.0);
             weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, 321);
             returnContentValues[i] = weatherValues;
         }
@@ -512,4 +518,556 @@ public class TestProvider extends AndroidTestCase {
         }
         cursor.close();
     }
+
+    /*
+        This test checks that a batch of weather writes for one location is reported to
+        observers as a single change on that location's URI.
+     */
+    public void testBatchNotificationsCoalesced() throws Exception {
+        ContentValues testValues = TestUtilities.createNorthPoleLocationValues();
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, testValues);
+        long locationRowId = ContentUris.parseId(locationUri);
+
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+        for (ContentValues weatherValues : createBulkInsertWeatherValues(locationRowId)) {
+            operations.add(ContentProviderOperation.newInsert(WeatherEntry.CONTENT_URI)
+                    .withValues(weatherValues).build());
+        }
+
+        ContentProviderClient client = mContext.getContentResolver()
+                .acquireContentProviderClient(WeatherContract.CONTENT_AUTHORITY);
+        WeatherProvider provider = (WeatherProvider) client.getLocalContentProvider();
+        long notificationsBefore = provider.getNotificationCount();
+
+        TestUtilities.TestContentObserver weatherObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(
+                WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION), true, weatherObserver);
+
+        mContext.getContentResolver().applyBatch(WeatherContract.CONTENT_AUTHORITY, operations);
+
+        weatherObserver.waitForNotificationOrFail();
+        mContext.getContentResolver().unregisterContentObserver(weatherObserver);
+
+        assertEquals("Error: A batch for one location should send exactly one notification",
+                notificationsBefore + 1, provider.getNotificationCount());
+        client.release();
+    }
+
+    /*
+        This test checks that repeated forecast reads are served from the provider's snapshot
+        cache, and that a write to the location invalidates it.
+     */
+    public void testSnapshotCacheInvalidatedByWrites() {
+        ContentValues testValues = TestUtilities.createNorthPoleLocationValues();
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, testValues);
+        long locationRowId = ContentUris.parseId(locationUri);
+        mContext.getContentResolver().insert(WeatherEntry.CONTENT_URI,
+                TestUtilities.createWeatherValues(locationRowId));
+
+        ContentProviderClient client = mContext.getContentResolver()
+                .acquireContentProviderClient(WeatherContract.CONTENT_AUTHORITY);
+        WeatherProvider provider = (WeatherProvider) client.getLocalContentProvider();
+        ForecastSnapshotCache cache = provider.getSnapshotCache();
+
+        Uri forecastUri = WeatherEntry.buildWeatherLocationWithStartDate(
+                TestUtilities.TEST_LOCATION, TestUtilities.TEST_DATE);
+        String sortOrder = WeatherEntry.COLUMN_DATE + " ASC";
+
+        Cursor cursor = mContext.getContentResolver().query(forecastUri, null, null, null, sortOrder);
+        assertEquals(1, cursor.getCount());
+        cursor.close();
+
+        long hitsBefore = cache.getHitCount();
+        cursor = mContext.getContentResolver().query(forecastUri, null, null, null, sortOrder);
+        assertEquals(1, cursor.getCount());
+        cursor.close();
+        assertEquals("Error: The second identical forecast query should be a cache hit",
+                hitsBefore + 1, cache.getHitCount());
+        assertTrue(cache.getBytesHeld() > 0);
+
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                createBulkInsertWeatherValues(locationRowId));
+
+        cursor = mContext.getContentResolver().query(forecastUri, null, null, null, sortOrder);
+        assertEquals("Error: A write to the location should invalidate its cached forecast",
+                BULK_INSERT_RECORDS_TO_INSERT, cursor.getCount());
+        cursor.close();
+        client.release();
+    }
+
+    /*
+        This test checks that the fetch time stamped on a location is returned with its
+        forecast, both on the cursor and in the snapshot, and that a maxAge read still returns
+        the cached rows.
+     */
+    public void testFetchedAt() {
+        long locationRowId = ContentUris.parseId(mContext.getContentResolver().insert(
+                LocationEntry.CONTENT_URI, TestUtilities.createNorthPoleLocationValues()));
+        mContext.getContentResolver().insert(WeatherEntry.CONTENT_URI,
+                TestUtilities.createWeatherValues(locationRowId));
+
+        long fetchedAt = System.currentTimeMillis() - 60 * 60 * 1000;
+        ContentValues stamp = new ContentValues();
+        stamp.put(LocationEntry.COLUMN_FETCHED_AT, fetchedAt);
+        assertEquals(1, mContext.getContentResolver().update(LocationEntry.CONTENT_URI, stamp,
+                LocationEntry._ID + " = ?", new String[]{Long.toString(locationRowId)}));
+
+        // Older than the maxAge: the cached row comes back regardless
+        Uri uri = WeatherContract.buildMaxAgeUri(WeatherEntry.buildWeatherLocationWithStartDate(
+                TestUtilities.TEST_LOCATION, TestUtilities.TEST_DATE), 60 * 1000);
+        Cursor cursor = mContext.getContentResolver().query(uri,
+                new String[]{WeatherEntry.COLUMN_DATE, LocationEntry.COLUMN_FETCHED_AT},
+                null, null, null);
+        assertTrue("Error: A stale read should still return the cached forecast",
+                cursor.moveToFirst());
+        assertEquals(fetchedAt, cursor.getLong(1));
+        cursor.close();
+
+        ForecastSnapshot snapshot = ForecastSnapshot.query(mContext.getContentResolver(),
+                TestUtilities.TEST_LOCATION, TestUtilities.TEST_DATE, 60 * 1000);
+        assertNotNull(snapshot);
+        assertEquals(1, snapshot.getCount());
+        assertEquals(fetchedAt, snapshot.getFetchedAt());
+    }
+
+    /*
+        This test checks that today returns one row per location for the day, and
+        compares its cost with one weather/[location]/[date] query per location.
+     */
+    public void testWeatherToday() {
+        final int locations = 20;
+        long today = WeatherContract.normalizeDate(System.currentTimeMillis());
+        for (int i = 0; i < locations; i++) {
+            ContentValues locationValues = TestUtilities.createNorthPoleLocationValues();
+            locationValues.put(LocationEntry.COLUMN_LOCATION_SETTING, "today" + i);
+            long locationRowId = ContentUris.parseId(mContext.getContentResolver().insert(
+                    LocationEntry.CONTENT_URI, locationValues));
+            ContentValues[] weatherValues = createBulkInsertWeatherValues(locationRowId);
+            for (int day = 0; day < weatherValues.length; day++) {
+                weatherValues[day].put(WeatherEntry.COLUMN_DATE,
+                        JulianDay.toMillis(JulianDay.fromMillis(today) + day - 2));
+            }
+            mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, weatherValues);
+        }
+
+        String[] projection = {LocationEntry.COLUMN_LOCATION_SETTING, WeatherEntry.COLUMN_MAX_TEMP};
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherToday(), projection, null, null, null);
+        assertEquals("Error: today should return one row per location",
+                locations, cursor.getCount());
+        cursor.close();
+
+        // A location set to "today" still gets its own forecast, not every location's day
+        ContentValues todayValues = TestUtilities.createNorthPoleLocationValues();
+        todayValues.put(LocationEntry.COLUMN_LOCATION_SETTING, "today");
+        long todayRowId = ContentUris.parseId(mContext.getContentResolver().insert(
+                LocationEntry.CONTENT_URI, todayValues));
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                createBulkInsertWeatherValues(todayRowId));
+        cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocation("today"), projection, null, null, null);
+        assertEquals("Error: The location \"today\" should get its own forecast",
+                BULK_INSERT_RECORDS_TO_INSERT, cursor.getCount());
+        while (cursor.moveToNext()) {
+            assertEquals("today", cursor.getString(0));
+        }
+        cursor.close();
+
+        ContentProviderClient client = mContext.getContentResolver()
+                .acquireContentProviderClient(WeatherContract.CONTENT_AUTHORITY);
+        WeatherProvider provider = (WeatherProvider) client.getLocalContentProvider();
+
+        // Each round starts with an empty snapshot cache, as the first read after a sync does
+        final int rounds = 50;
+        long joinNanos = 0;
+        long separateNanos = 0;
+        for (int round = 0; round < rounds; round++) {
+            provider.getSnapshotCache().invalidateAll();
+            long start = System.nanoTime();
+            cursor = mContext.getContentResolver().query(
+                    WeatherEntry.buildWeatherToday(), projection, null, null, null);
+            cursor.getCount();
+            cursor.close();
+            joinNanos += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < locations; i++) {
+                cursor = mContext.getContentResolver().query(
+                        WeatherEntry.buildWeatherLocationWithDate("today" + i, today),
+                        projection, null, null, null);
+                cursor.getCount();
+                cursor.close();
+            }
+            separateNanos += System.nanoTime() - start;
+        }
+        client.release();
+        Log.d(LOG_TAG, "Today for " + locations + " locations over " + rounds + " rounds: " +
+                "today " + joinNanos / 1000 / rounds + "us, separate queries " +
+                separateNanos / 1000 / rounds + "us");
+    }
+
+    /*
+        This test pages through a location's forecast and through the location table, checking
+        that the pages together return every row exactly once and in key order.
+     */
+    public void testKeysetPagination() {
+        long locationRowId = ContentUris.parseId(mContext.getContentResolver().insert(
+                LocationEntry.CONTENT_URI, TestUtilities.createNorthPoleLocationValues()));
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                createBulkInsertWeatherValues(locationRowId));
+
+        final int pageSize = 3;
+        int rows = 0;
+        int pages = 0;
+        long after = 0;
+        while (true) {
+            Cursor cursor = mContext.getContentResolver().query(
+                    WeatherEntry.buildWeatherLocationPage(TestUtilities.TEST_LOCATION, after, pageSize),
+                    new String[]{WeatherEntry.COLUMN_DATE}, null, null, null);
+            assertTrue("Error: A page returned more rows than its limit",
+                    cursor.getCount() <= pageSize);
+            if (cursor.getCount() == 0) {
+                cursor.close();
+                break;
+            }
+            while (cursor.moveToNext()) {
+                long date = cursor.getLong(0);
+                assertTrue("Error: Forecast pages are not in date order", date > after);
+                after = date;
+                rows++;
+            }
+            cursor.close();
+            pages++;
+        }
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, rows);
+        assertEquals((BULK_INSERT_RECORDS_TO_INSERT + pageSize - 1) / pageSize, pages);
+
+        for (int i = 0; i < 4; i++) {
+            ContentValues values = TestUtilities.createNorthPoleLocationValues();
+            values.put(LocationEntry.COLUMN_LOCATION_SETTING, "page" + i);
+            mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, values);
+        }
+        rows = 0;
+        after = 0;
+        while (true) {
+            Cursor cursor = mContext.getContentResolver().query(
+                    LocationEntry.buildLocationPage(after, 2),
+                    new String[]{LocationEntry._ID}, null, null, null);
+            if (!cursor.moveToFirst()) {
+                cursor.close();
+                break;
+            }
+            do {
+                assertTrue("Error: Location pages are not in _id order", cursor.getLong(0) > after);
+                after = cursor.getLong(0);
+                rows++;
+            } while (cursor.moveToNext());
+            cursor.close();
+        }
+        assertEquals(5, rows);
+    }
+
+    /*
+        This test checks that repeated queries reuse the SQL built for the first one, and that
+        a different projection gets SQL of its own.
+     */
+    public void testQueryPlanCache() {
+        mContext.getContentResolver().insert(LocationEntry.CONTENT_URI,
+                TestUtilities.createNorthPoleLocationValues());
+
+        ContentProviderClient client = mContext.getContentResolver()
+                .acquireContentProviderClient(WeatherContract.CONTENT_AUTHORITY);
+        WeatherProvider provider = (WeatherProvider) client.getLocalContentProvider();
+        QueryPlanCache cache = provider.getQueryPlanCache();
+
+        String[] projection = {LocationEntry._ID, LocationEntry.COLUMN_CITY_NAME};
+        Cursor cursor = mContext.getContentResolver().query(
+                LocationEntry.CONTENT_URI, projection, null, null, null);
+        assertEquals(1, cursor.getCount());
+        cursor.close();
+
+        long hitsBefore = cache.getHitCount();
+        final int iterations = 200;
+        for (int i = 0; i < iterations; i++) {
+            cursor = mContext.getContentResolver().query(
+                    LocationEntry.CONTENT_URI, projection, null, null, null);
+            assertEquals(1, cursor.getCount());
+            cursor.close();
+        }
+        assertEquals("Error: Repeated identical queries should reuse the cached SQL",
+                hitsBefore + iterations, cache.getHitCount());
+
+        long missesBefore = cache.getMissCount();
+        cursor = mContext.getContentResolver().query(LocationEntry.CONTENT_URI,
+                new String[]{LocationEntry.COLUMN_CITY_NAME}, null, null, null);
+        cursor.close();
+        assertEquals("Error: A different projection should build SQL of its own",
+                missesBefore + 1, cache.getMissCount());
+
+        Log.d(LOG_TAG, cache.toString());
+        client.release();
+    }
+
+    /*
+        This test checks that inserting a location that already exists returns the existing
+        row instead of failing or creating a duplicate.
+     */
+    public void testInsertExistingLocationReturnsSameId() {
+        ContentValues testValues = TestUtilities.createNorthPoleLocationValues();
+        long firstId = ContentUris.parseId(
+                mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, testValues));
+        long secondId = ContentUris.parseId(
+                mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, testValues));
+        assertEquals("Error: Re-inserting a location should return its existing ID",
+                firstId, secondId);
+
+        Cursor cursor = mContext.getContentResolver().query(
+                LocationEntry.CONTENT_URI, null, null, null, null);
+        assertEquals("Error: Re-inserting a location should not create a duplicate row",
+                1, cursor.getCount());
+        cursor.close();
+
+        // Once the location is deleted, the cached ID must not be handed out again
+        deleteAllRecordsFromProvider();
+        long thirdId = ContentUris.parseId(
+                mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, testValues));
+        cursor = mContext.getContentResolver().query(LocationEntry.CONTENT_URI, null,
+                LocationEntry._ID + " = ?", new String[]{Long.toString(thirdId)}, null);
+        assertEquals(1, cursor.getCount());
+        cursor.close();
+    }
+
+    /*
+        This test checks that the range stats URI computes the same min, max, mean and count as
+        iterating over the full cursor, and logs how long each approach takes.
+     */
+    public void testWeatherRangeStats() {
+        ContentValues testValues = TestUtilities.createNorthPoleLocationValues();
+        long locationRowId = ContentUris.parseId(
+                mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, testValues));
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                createBulkInsertWeatherValues(locationRowId));
+
+        long millisecondsInADay = 1000*60*60*24;
+        long startDate = TestUtilities.TEST_DATE;
+        long endDate = startDate + (BULK_INSERT_RECORDS_TO_INSERT - 1) * millisecondsInADay;
+        Uri statsUri = WeatherEntry.buildWeatherLocationRangeStats(
+                TestUtilities.TEST_LOCATION, startDate, endDate);
+        Uri rangeUri = WeatherEntry.buildWeatherLocationWithStartDate(
+                TestUtilities.TEST_LOCATION, startDate);
+
+        final int iterations = 50;
+        double clientMin = 0, clientMax = 0, clientMeanMin = 0;
+        int clientCount = 0;
+        long clientStart = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            // Read through the provider's weather table directly so the snapshot cache does
+            // not hide the cost of pulling every row
+            Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI,
+                    new String[]{WeatherEntry.COLUMN_MIN_TEMP, WeatherEntry.COLUMN_MAX_TEMP},
+                    WeatherEntry.COLUMN_LOC_KEY + " = ? AND " +
+                            WeatherEntry.COLUMN_DATE + " BETWEEN ? AND ?",
+                    new String[]{Long.toString(locationRowId),
+                            Long.toString(WeatherContract.normalizeDate(startDate)),
+                            Long.toString(WeatherContract.normalizeDate(endDate))},
+                    null);
+            clientMin = Double.MAX_VALUE;
+            clientMax = -Double.MAX_VALUE;
+            double sumMin = 0;
+            clientCount = 0;
+            while (cursor.moveToNext()) {
+                clientMin = Math.min(clientMin, cursor.getDouble(0));
+                clientMax = Math.max(clientMax, cursor.getDouble(1));
+                sumMin += cursor.getDouble(0);
+                clientCount++;
+            }
+            clientMeanMin = sumMin / clientCount;
+            cursor.close();
+        }
+        long clientNanos = System.nanoTime() - clientStart;
+
+        Cursor stats = null;
+        long sqlStart = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            if (stats != null) stats.close();
+            stats = mContext.getContentResolver().query(statsUri, null, null, null, null);
+            stats.moveToFirst();
+        }
+        long sqlNanos = System.nanoTime() - sqlStart;
+
+        Log.d(LOG_TAG, "Range stats over " + iterations + " reads: client-side " +
+                clientNanos / 1000 + "us, in SQL " + sqlNanos / 1000 + "us");
+
+        assertEquals("Error: Range stats should return a single row", 1, stats.getCount());
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, clientCount);
+        assertEquals(clientCount, stats.getInt(
+                stats.getColumnIndex(WeatherEntry.COLUMN_RANGE_DAY_COUNT)));
+        assertEquals(clientMin, stats.getDouble(
+                stats.getColumnIndex(WeatherEntry.COLUMN_RANGE_MIN_TEMP)), 0.001);
+        assertEquals(clientMax, stats.getDouble(
+                stats.getColumnIndex(WeatherEntry.COLUMN_RANGE_MAX_TEMP)), 0.001);
+        assertEquals(clientMeanMin, stats.getDouble(
+                stats.getColumnIndex(WeatherEntry.COLUMN_RANGE_MEAN_MIN_TEMP)), 0.001);
+        stats.close();
+
+        // A projection narrows the row to the requested aggregates
+        stats = mContext.getContentResolver().query(statsUri,
+                new String[]{WeatherEntry.COLUMN_RANGE_DAY_COUNT}, null, null, null);
+        assertTrue(stats.moveToFirst());
+        assertEquals(1, stats.getColumnCount());
+        stats.close();
+
+        // The cursor over the whole range still agrees on the number of days
+        Cursor range = mContext.getContentResolver().query(rangeUri, null, null, null, null);
+        assertEquals(clientCount, range.getCount());
+        range.close();
+    }
+
+    /*
+        This test checks that the forecast snapshot returned by the provider call matches the
+        cursor for the same location and date, and logs how long each read takes.
+     */
+    public void testForecastSnapshotCall() {
+        ContentValues testValues = TestUtilities.createNorthPoleLocationValues();
+        long locationRowId = ContentUris.parseId(
+                mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, testValues));
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                createBulkInsertWeatherValues(locationRowId));
+
+        Uri weatherUri = WeatherEntry.buildWeatherLocationWithStartDate(
+                TestUtilities.TEST_LOCATION, TestUtilities.TEST_DATE);
+        String[] projection = new String[]{
+                WeatherEntry.TABLE_NAME + "." + WeatherEntry._ID,
+                WeatherEntry.COLUMN_DATE,
+                WeatherEntry.COLUMN_WEATHER_ID,
+                WeatherEntry.COLUMN_SHORT_DESC,
+                WeatherEntry.COLUMN_MAX_TEMP,
+                WeatherEntry.COLUMN_MIN_TEMP
+        };
+
+        final int iterations = 50;
+        long cursorStart = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            Cursor cursor = mContext.getContentResolver().query(weatherUri, projection, null, null,
+                    WeatherEntry.COLUMN_DATE + " ASC");
+            while (cursor.moveToNext()) {
+                cursor.getLong(0);
+                cursor.getLong(1);
+                cursor.getInt(2);
+                cursor.getString(3);
+                cursor.getDouble(4);
+                cursor.getDouble(5);
+            }
+            cursor.close();
+        }
+        long cursorNanos = System.nanoTime() - cursorStart;
+
+        ForecastSnapshot snapshot = null;
+        long callStart = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            snapshot = ForecastSnapshot.query(mContext.getContentResolver(),
+                    TestUtilities.TEST_LOCATION, TestUtilities.TEST_DATE);
+        }
+        long callNanos = System.nanoTime() - callStart;
+
+        Log.d(LOG_TAG, "Forecast reads over " + iterations + " iterations: cursor " +
+                cursorNanos / 1000 + "us, snapshot call " + callNanos / 1000 + "us");
+
+        assertNotNull("Error: The provider did not return a forecast snapshot", snapshot);
+        Cursor cursor = mContext.getContentResolver().query(weatherUri, projection, null, null,
+                WeatherEntry.COLUMN_DATE + " ASC");
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, snapshot.getCount());
+        assertEquals(cursor.getCount(), snapshot.getCount());
+        for (int i = 0; cursor.moveToNext(); i++) {
+            assertEquals(cursor.getLong(0), snapshot.getId(i));
+            assertEquals(cursor.getLong(1), snapshot.getDate(i));
+            assertEquals(cursor.getInt(2), snapshot.getWeatherId(i));
+            assertEquals(cursor.getString(3), snapshot.getShortDesc(i));
+            assertEquals(cursor.getDouble(4), snapshot.getMaxTemp(i));
+            assertEquals(cursor.getDouble(5), snapshot.getMinTemp(i));
+        }
+        cursor.close();
+
+        // A snapshot of another layout version is rejected rather than misread
+        Bundle stale = snapshot.toBundle();
+        stale.putInt(ForecastSnapshot.KEY_VERSION, ForecastSnapshot.VERSION + 1);
+        assertNull(ForecastSnapshot.fromBundle(stale));
+    }
+
+    /*
+        This test checks that provider metrics count calls per route while enabled, and stop
+        counting once disabled.
+     */
+    public void testProviderMetrics() {
+        Bundle extras = new Bundle();
+        extras.putBoolean(WeatherContract.EXTRA_ENABLED, true);
+        mContext.getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                WeatherContract.METHOD_SET_METRICS_ENABLED, null, extras);
+
+        Uri weatherUri = WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION);
+        final int queries = 5;
+        for (int i = 0; i < queries; i++) {
+            mContext.getContentResolver().query(weatherUri, null, null, null, null).close();
+        }
+        assertEquals(queries, getMetricsCalls("query", "weather/*"));
+
+        extras.putBoolean(WeatherContract.EXTRA_ENABLED, false);
+        mContext.getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                WeatherContract.METHOD_SET_METRICS_ENABLED, null, extras);
+        mContext.getContentResolver().query(weatherUri, null, null, null, null).close();
+        assertEquals("Error: Metrics were recorded while disabled",
+                queries, getMetricsCalls("query", "weather/*"));
+    }
+
+    private long getMetricsCalls(String operation, String route) {
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.MetricsEntry.CONTENT_URI, null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                if (operation.equals(cursor.getString(cursor.getColumnIndex(
+                        WeatherContract.MetricsEntry.COLUMN_OPERATION))) &&
+                        route.equals(cursor.getString(cursor.getColumnIndex(
+                                WeatherContract.MetricsEntry.COLUMN_ROUTE)))) {
+                    return cursor.getLong(cursor.getColumnIndex(
+                            WeatherContract.MetricsEntry.COLUMN_CALLS));
+                }
+            }
+            return 0;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /*
+        This test checks that database maintenance runs, reports its measurements, and leaves
+        the database incrementally vacuumable and intact.
+     */
+    public void testRunMaintenance() {
+        ContentValues testValues = TestUtilities.createNorthPoleLocationValues();
+        long locationRowId = ContentUris.parseId(
+                mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, testValues));
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                createBulkInsertWeatherValues(locationRowId));
+        deleteAllRecordsFromProvider();
+
+        for (int run = 0; run < 2; run++) {
+            Bundle report = mContext.getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                    WeatherContract.METHOD_RUN_MAINTENANCE, null, null);
+            assertNotNull(report);
+            assertFalse("Error: Maintenance was skipped with no batch open",
+                    report.getBoolean(WeatherContract.EXTRA_MAINTENANCE_SKIPPED));
+            assertTrue("Error: Integrity check failed",
+                    report.getBoolean(WeatherContract.EXTRA_MAINTENANCE_INTEGRITY_OK));
+            assertTrue(report.getLong(WeatherContract.EXTRA_MAINTENANCE_SIZE_AFTER) > 0);
+            assertEquals("Error: Free pages were left after vacuuming", 0,
+                    report.getLong(WeatherContract.EXTRA_MAINTENANCE_FREE_PAGES_AFTER));
+        }
+
+        SQLiteDatabase db = new WeatherDbHelper(mContext).getReadableDatabase();
+        Cursor cursor = db.rawQuery("PRAGMA auto_vacuum", null);
+        assertTrue(cursor.moveToFirst());
+        assertEquals("Error: Database was not switched to incremental vacuum", 2, cursor.getInt(0));
+        cursor.close();
+        db.close();
+    }
 }
@@ -0,0 +1,208 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentProviderClient;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.HistoryEntry;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/*
+    Load benchmark for the provider: fills the database with SyntheticWeatherData at growing
+    sizes and times queries, bulk inserts, updates and deletes at each size.  A test fails when
+    the 95th percentile latency of an operation goes over its budget, which is set well above
+    what a mid-range device needs so that only real regressions trip it.
+ */
+public class TestProviderLoad extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestProviderLoad.class.getSimpleName();
+
+    private static final int[] LOCATION_COUNTS = {10, 100, 400};
+    private static final int FORECAST_DAYS = 14;
+    private static final int HISTORY_DAYS = 30;
+    private static final int OPERATIONS = 100;
+
+    // p95 latency budgets, in milliseconds
+    private static final long QUERY_BUDGET_MS = 25;
+    private static final long BULK_INSERT_BUDGET_MS = 50;
+    private static final long UPDATE_BUDGET_MS = 20;
+    private static final long DELETE_BUDGET_MS = 30;
+
+    private ContentResolver mResolver;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mResolver = mContext.getContentResolver();
+        clearDatabase();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        clearDatabase();
+        super.tearDown();
+    }
+
+    private void clearDatabase() {
+        mResolver.delete(WeatherEntry.CONTENT_URI, null, null);
+        mResolver.delete(LocationEntry.CONTENT_URI, null, null);
+        // The provider has no route for deleting history, so go to the tables directly
+        SQLiteDatabase db = new WeatherDbHelper(mContext).getWritableDatabase();
+        db.delete(HistoryEntry.TABLE_NAME, null, null);
+        db.delete(HistoryEntry.SUMMARY_TABLE_NAME, null, null);
+        db.close();
+    }
+
+    /*
+        The same seed must always produce the same rows.
+     */
+    public void testGeneratorIsDeterministic() {
+        SyntheticWeatherData first = new SyntheticWeatherData(7);
+        SyntheticWeatherData second = new SyntheticWeatherData(7);
+        assertEquals(first.createLocationValues(3), second.createLocationValues(3));
+        assertTrue(Arrays.equals(first.createWeatherValues(3, 1, 0, FORECAST_DAYS),
+                second.createWeatherValues(3, 1, 0, FORECAST_DAYS)));
+        assertFalse(Arrays.equals(first.createWeatherValues(3, 1, 0, FORECAST_DAYS),
+                new SyntheticWeatherData(8).createWeatherValues(3, 1, 0, FORECAST_DAYS)));
+    }
+
+    public void testLoad() {
+        ContentProviderClient client = mResolver
+                .acquireContentProviderClient(WeatherContract.CONTENT_AUTHORITY);
+        WeatherProvider provider = (WeatherProvider) client.getLocalContentProvider();
+        SyntheticWeatherData data = new SyntheticWeatherData(42);
+        try {
+            for (int locations : LOCATION_COUNTS) {
+                clearDatabase();
+                runScale(provider, data, locations);
+            }
+        } finally {
+            client.release();
+        }
+    }
+
+    private void runScale(WeatherProvider provider, SyntheticWeatherData data, int locations) {
+        long start = System.nanoTime();
+        long[] locationIds = data.populate(mResolver, locations, FORECAST_DAYS, HISTORY_DAYS);
+        long populateNanos = System.nanoTime() - start;
+        int rows = locations * (FORECAST_DAYS + HISTORY_DAYS);
+        Log.d(LOG_TAG, locations + " locations: populated " + rows + " rows in " +
+                populateNanos / 1000000 + "ms (" + rows * 1000000000L / populateNanos +
+                " rows/s)");
+
+        Random random = new Random(locations);
+
+        // Every query starts from an empty snapshot cache, so each one reaches SQLite
+        Latencies query = new Latencies("query", locations);
+        for (int i = 0; i < OPERATIONS; i++) {
+            provider.getSnapshotCache().invalidateAll();
+            String locationSetting =
+                    SyntheticWeatherData.getLocationSetting(random.nextInt(locations));
+            query.start();
+            Cursor cursor = mResolver.query(WeatherEntry.buildWeatherLocationWithStartDate(
+                    locationSetting, SyntheticWeatherData.BASE_DATE), null, null, null, null);
+            assertEquals(FORECAST_DAYS, cursor.getCount());
+            cursor.close();
+            query.stop();
+        }
+
+        // Re-inserting a location's forecast replaces it, as every sync does
+        Latencies bulkInsert = new Latencies("bulkInsert", locations);
+        for (int i = 0; i < OPERATIONS; i++) {
+            int location = random.nextInt(locations);
+            ContentValues[] values =
+                    data.createWeatherValues(location, locationIds[location], 0, FORECAST_DAYS);
+            bulkInsert.start();
+            assertEquals(FORECAST_DAYS, mResolver.bulkInsert(WeatherEntry.CONTENT_URI, values));
+            bulkInsert.stop();
+        }
+
+        Latencies update = new Latencies("update", locations);
+        ContentValues change = new ContentValues();
+        change.put(WeatherEntry.COLUMN_SHORT_DESC, "Updated");
+        for (int i = 0; i < OPERATIONS; i++) {
+            int location = random.nextInt(locations);
+            update.start();
+            assertEquals(1, mResolver.update(WeatherEntry.CONTENT_URI, change,
+                    WeatherEntry.COLUMN_LOC_KEY + " = ? AND " + WeatherEntry.COLUMN_DATE + " = ?",
+                    new String[]{Long.toString(locationIds[location]),
+                            Long.toString(SyntheticWeatherData.getDate(random.nextInt(FORECAST_DAYS)))}));
+            update.stop();
+        }
+
+        // Deletes each location's forecast once, so only as many as there are locations
+        Latencies delete = new Latencies("delete", locations);
+        for (int location = 0; location < Math.min(OPERATIONS, locations); location++) {
+            delete.start();
+            mResolver.delete(WeatherEntry.CONTENT_URI, WeatherEntry.COLUMN_LOC_KEY + " = ?",
+                    new String[]{Long.toString(locationIds[location])});
+            delete.stop();
+        }
+
+        query.assertWithin(QUERY_BUDGET_MS);
+        bulkInsert.assertWithin(BULK_INSERT_BUDGET_MS);
+        update.assertWithin(UPDATE_BUDGET_MS);
+        delete.assertWithin(DELETE_BUDGET_MS);
+    }
+
+    private static final class Latencies {
+        private final String mOperation;
+        private final int mLocations;
+        private long[] mNanos = new long[OPERATIONS];
+        private int mCount;
+        private long mStart;
+
+        Latencies(String operation, int locations) {
+            mOperation = operation;
+            mLocations = locations;
+        }
+
+        void start() {
+            mStart = System.nanoTime();
+        }
+
+        void stop() {
+            mNanos[mCount++] = System.nanoTime() - mStart;
+        }
+
+        void assertWithin(long budgetMillis) {
+            long[] sorted = Arrays.copyOf(mNanos, mCount);
+            Arrays.sort(sorted);
+            long total = 0;
+            for (long nanos : sorted) {
+                total += nanos;
+            }
+            long p50 = sorted[mCount / 2];
+            long p95 = sorted[Math.min(mCount - 1, (int) Math.ceil(mCount * 0.95) - 1)];
+            Log.d(LOG_TAG, mLocations + " locations: " + mOperation + " x" + mCount +
+                    " mean=" + total / mCount / 1000 + "us p50=" + p50 / 1000 + "us p95=" +
+                    p95 / 1000 + "us (" + mCount * 1000000000L / total + " ops/s)");
+            assertTrue("Error: " + mOperation + " p95 of " + p95 / 1000000 + "ms at " +
+                            mLocations + " locations is over the " + budgetMillis + "ms budget",
+                    p95 <= budgetMillis * 1000000);
+        }
+    }
+}
@@ -34,8 +34,14 @@ public class TestUriMatcher extends AndroidTestCase {
     private static final Uri TEST_WEATHER_DIR = WeatherContract.WeatherEntry.CONTENT_URI;
     private static final Uri TEST_WEATHER_WITH_LOCATION_DIR = WeatherContract.WeatherEntry.buildWeatherLocation(LOCATION_QUERY);
     private static final Uri TEST_WEATHER_WITH_LOCATION_AND_DATE_DIR = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(LOCATION_QUERY, TEST_DATE);
+    private static final Uri TEST_WEATHER_RANGE_STATS = WeatherContract.WeatherEntry.buildWeatherLocationRangeStats(LOCATION_QUERY, TEST_DATE, TEST_DATE);
+    private static final Uri TEST_WEATHER_TODAY = WeatherContract.WeatherEntry.buildWeatherToday();
     // content://com.example.android.sunshine.app/location"
     private static final Uri TEST_LOCATION_DIR = WeatherContract.LocationEntry.CONTENT_URI;
+    private static final Uri TEST_LOCATION_NEAREST = WeatherContract.LocationEntry.buildNearestLocationUri(51.5, -0.12, 25);
+    // content://com.example.android.sunshine.app/history/London, UK"
+    private static final Uri TEST_HISTORY_WITH_LOCATION_DIR = WeatherContract.HistoryEntry.buildHistoryLocation(LOCATION_QUERY);
+    private static final Uri TEST_HOURLY_WITH_LOCATION_DIR = WeatherContract.HourlyEntry.buildHourlyLocation(LOCATION_QUERY);
 
     /*
         Students: This function tests that your UriMatcher returns the correct integer value
@@ -51,7 +57,20 @@ public class TestUriMatcher extends AndroidTestCase {
                 testMatcher.match(TEST_WEATHER_WITH_LOCATION_DIR), WeatherProvider.WEATHER_WITH_LOCATION);
         assertEquals("Error: The WEATHER WITH LOCATION AND DATE URI was matched incorrectly.",
                 testMatcher.match(TEST_WEATHER_WITH_LOCATION_AND_DATE_DIR), WeatherProvider.WEATHER_WITH_LOCATION_AND_DATE);
+        assertEquals("Error: The WEATHER RANGE STATS URI was matched incorrectly.",
+                testMatcher.match(TEST_WEATHER_RANGE_STATS), WeatherProvider.WEATHER_RANGE_STATS);
+        assertEquals("Error: The WEATHER TODAY URI was matched incorrectly.",
+                testMatcher.match(TEST_WEATHER_TODAY), WeatherProvider.WEATHER_TODAY);
+        assertEquals("Error: A location set to \"today\" was matched incorrectly.",
+                testMatcher.match(WeatherContract.WeatherEntry.buildWeatherLocation("today")),
+                WeatherProvider.WEATHER_WITH_LOCATION);
         assertEquals("Error: The LOCATION URI was matched incorrectly.",
                 testMatcher.match(TEST_LOCATION_DIR), WeatherProvider.LOCATION);
+        assertEquals("Error: The LOCATION NEAREST URI was matched incorrectly.",
+                testMatcher.match(TEST_LOCATION_NEAREST), WeatherProvider.LOCATION_NEAREST);
+        assertEquals("Error: The HISTORY WITH LOCATION URI was matched incorrectly.",
+                testMatcher.match(TEST_HISTORY_WITH_LOCATION_DIR), WeatherProvider.HISTORY_WITH_LOCATION);
+        assertEquals("Error: The HOURLY WITH LOCATION URI was matched incorrectly.",
+                testMatcher.match(TEST_HOURLY_WITH_LOCATION_DIR), WeatherProvider.HOURLY_WITH_LOCATION);
     }
 }
@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentProviderClient;
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+
+public class TestWeatherRepository extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestWeatherRepository.class.getSimpleName();
+
+    private static final int FORECAST_DAYS = 14;
+
+    private ContentResolver mResolver;
+    private WeatherRepository mRepository;
+    private SyntheticWeatherData mData;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mResolver = mContext.getContentResolver();
+        mRepository = WeatherRepository.getInstance(mContext);
+        mData = new SyntheticWeatherData(11);
+        mResolver.delete(WeatherEntry.CONTENT_URI, null, null);
+        mResolver.delete(LocationEntry.CONTENT_URI, null, null);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mResolver.delete(WeatherEntry.CONTENT_URI, null, null);
+        mResolver.delete(LocationEntry.CONTENT_URI, null, null);
+        super.tearDown();
+    }
+
+    private long addLocation(int location) {
+        ContentValues values = mData.createLocationValues(location);
+        return mRepository.addLocation(
+                values.getAsString(LocationEntry.COLUMN_LOCATION_SETTING),
+                values.getAsString(LocationEntry.COLUMN_CITY_NAME),
+                values.getAsDouble(LocationEntry.COLUMN_COORD_LAT),
+                values.getAsDouble(LocationEntry.COLUMN_COORD_LONG));
+    }
+
+    public void testAddLocationSharesRowsWithProvider() {
+        long locationId = addLocation(0);
+        assertTrue(locationId > 0);
+        assertEquals("Error: Adding an existing location should return its row",
+                locationId, addLocation(0));
+        assertEquals("Error: The provider should see the repository's location",
+                locationId, ContentUris.parseId(mResolver.insert(LocationEntry.CONTENT_URI,
+                        mData.createLocationValues(0))));
+    }
+
+    /*
+        A save through the repository has to reach observers of the provider and drop what the
+        provider had cached, or loaders would keep showing the old forecast.
+     */
+    public void testSaveNotifiesAndInvalidates() {
+        String locationSetting = SyntheticWeatherData.getLocationSetting(0);
+        long locationId = addLocation(0);
+
+        // Caches an empty forecast
+        assertEquals(0, mRepository.getForecast(locationSetting, SyntheticWeatherData.BASE_DATE)
+                .getCount());
+
+        TestUtilities.TestContentObserver observer = TestUtilities.getTestContentObserver();
+        mResolver.registerContentObserver(WeatherEntry.buildWeatherLocation(locationSetting),
+                true, observer);
+        long fetchedAt = System.currentTimeMillis();
+        assertEquals(FORECAST_DAYS, mRepository.saveForecast(locationId,
+                mData.createWeatherValues(0, locationId, 0, FORECAST_DAYS), fetchedAt));
+        observer.waitForNotificationOrFail();
+        mResolver.unregisterContentObserver(observer);
+
+        ForecastSnapshot fromRepository =
+                mRepository.getForecast(locationSetting, SyntheticWeatherData.BASE_DATE);
+        ForecastSnapshot fromProvider =
+                ForecastSnapshot.query(mResolver, locationSetting, SyntheticWeatherData.BASE_DATE);
+        assertEquals(FORECAST_DAYS, fromRepository.getCount());
+        assertEquals(fetchedAt, fromRepository.getFetchedAt());
+        assertEquals(fromProvider.getCount(), fromRepository.getCount());
+        for (int i = 0; i < FORECAST_DAYS; i++) {
+            assertEquals(fromProvider.getId(i), fromRepository.getId(i));
+            assertEquals(fromProvider.getDate(i), fromRepository.getDate(i));
+            assertEquals(fromProvider.getMaxTemp(i), fromRepository.getMaxTemp(i), 0);
+        }
+    }
+
+    /*
+        Not a pass/fail test: logs the latency of the same reads and writes made through the
+        ContentResolver and through the repository.
+     */
+    public void testLatencyComparison() throws Exception {
+        final int locations = 20;
+        final int operations = 200;
+        long[] locationIds = new long[locations];
+        for (int i = 0; i < locations; i++) {
+            locationIds[i] = addLocation(i);
+            mRepository.saveForecast(locationIds[i],
+                    mData.createWeatherValues(i, locationIds[i], 0, FORECAST_DAYS), 0);
+        }
+        ContentProviderClient client =
+                mResolver.acquireContentProviderClient(WeatherContract.CONTENT_AUTHORITY);
+        WeatherProvider provider = (WeatherProvider) client.getLocalContentProvider();
+        client.release();
+
+        // Reads, from the snapshot cache and from SQLite
+        for (boolean cold : new boolean[]{false, true}) {
+            long resolverNanos = 0;
+            long repositoryNanos = 0;
+            for (int i = 0; i < operations; i++) {
+                String locationSetting = SyntheticWeatherData.getLocationSetting(i % locations);
+                if (cold) provider.getSnapshotCache().invalidateAll();
+                long start = System.nanoTime();
+                ForecastSnapshot.query(mResolver, locationSetting, SyntheticWeatherData.BASE_DATE);
+                resolverNanos += System.nanoTime() - start;
+
+                if (cold) provider.getSnapshotCache().invalidateAll();
+                start = System.nanoTime();
+                mRepository.getForecast(locationSetting, SyntheticWeatherData.BASE_DATE);
+                repositoryNanos += System.nanoTime() - start;
+            }
+            Log.d(LOG_TAG, (cold ? "Uncached" : "Cached") + " forecast read: resolver " +
+                    resolverNanos / operations / 1000 + "us, repository " +
+                    repositoryNanos / operations / 1000 + "us");
+        }
+
+        // Writes, as a sync makes them
+        long resolverNanos = 0;
+        long repositoryNanos = 0;
+        for (int i = 0; i < operations / 4; i++) {
+            int location = i % locations;
+            ContentValues[] values =
+                    mData.createWeatherValues(location, locationIds[location], 0, FORECAST_DAYS);
+            ArrayList<ContentProviderOperation> batch = new ArrayList<>(values.length + 1);
+            for (ContentValues value : values) {
+                batch.add(ContentProviderOperation.newInsert(WeatherEntry.CONTENT_URI)
+                        .withValues(value).build());
+            }
+            batch.add(ContentProviderOperation.newUpdate(LocationEntry.CONTENT_URI)
+                    .withSelection(LocationEntry._ID + " = ?",
+                            new String[]{Long.toString(locationIds[location])})
+                    .withValue(LocationEntry.COLUMN_FETCHED_AT, System.currentTimeMillis())
+                    .build());
+            long start = System.nanoTime();
+            mResolver.applyBatch(WeatherContract.CONTENT_AUTHORITY, batch);
+            resolverNanos += System.nanoTime() - start;
+
+            values = mData.createWeatherValues(location, locationIds[location], 0, FORECAST_DAYS);
+            start = System.nanoTime();
+            mRepository.saveForecast(locationIds[location], values, System.currentTimeMillis());
+            repositoryNanos += System.nanoTime() - start;
+        }
+        Log.d(LOG_TAG, FORECAST_DAYS + "-day forecast save: resolver " +
+                resolverNanos / (operations / 4) / 1000 + "us, repository " +
+                repositoryNanos / (operations / 4) / 1000 + "us");
+    }
+}
@@ -17,6 +17,7 @@ package com.example.android.sunshine.app;
 
 import android.content.Intent;
 import android.database.Cursor;
+import android.graphics.Bitmap;
 import android.net.Uri;
 import android.os.Bundle;
 import android.support.v4.app.Fragment;
@@ -38,6 +39,7 @@ import android.widget.ImageView;
 import android.widget.TextView;
 
 import com.bumptech.glide.Glide;
+import com.example.android.sunshine.app.art.ArtPack;
 import com.example.android.sunshine.app.data.WeatherContract;
 import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
 
@@ -200,8 +202,15 @@ public class DetailFragment extends Fragment implements LoaderManager.LoaderCall
             // Read weather condition ID from cursor
             int weatherId = data.getInt(COL_WEATHER_CONDITION_ID);
 
+            // Only art the list already decoded; anything else is left to Glide, off this thread
+            Bitmap art = ArtPack.getInstance(getActivity())
+                    .getDecodedArt(weatherId, ArtPack.SIZE_TODAY);
             if ( Utility.usingLocalGraphics(getActivity()) ) {
                 mIconView.setImageResource(Utility.getArtResourceForWeatherCondition(weatherId));
+            } else if ( art != null ) {
+                // From the installed art pack
+                Glide.clear(mIconView);
+                mIconView.setImageBitmap(art);
             } else {
                 // Use weather art image
                 Glide.with(this)
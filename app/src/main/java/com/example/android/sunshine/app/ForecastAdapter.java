@@ -17,6 +17,7 @@ package com.example.android.sunshine.app;
 
 import android.content.Context;
 import android.database.Cursor;
+import android.graphics.Bitmap;
 import android.os.Build;
 import android.os.Bundle;
 import android.support.v4.view.ViewCompat;
@@ -30,13 +31,13 @@ import android.widget.ImageView;
 import android.widget.TextView;
 
 import com.bumptech.glide.Glide;
-import com.example.android.sunshine.app.data.WeatherContract;
 
 /**
  * {@link ForecastAdapter} exposes a list of weather forecasts
  * from a {@link android.database.Cursor} to a {@link android.support.v7.widget.RecyclerView}.
  */
 public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ForecastAdapterViewHolder> {
+    public static final String LOG_TAG = ForecastAdapter.class.getSimpleName();
 
     private static final int VIEW_TYPE_TODAY = 0;
     private static final int VIEW_TYPE_FUTURE_DAY = 1;
@@ -45,6 +46,11 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
     private boolean mUseTodayLayout = true;
 
     private Cursor mCursor;
+    // The items built from mCursor, which the list shows and the next cursor is diffed against
+    private ForecastDiff.Rows mRows = ForecastDiff.Rows.EMPTY;
+    private int mRowsBound;
+    // Times binds while the list is being scrolled, in debug builds
+    private FrameTimer mFrameTimer;
     final private Context mContext;
     final private ForecastAdapterOnClickHandler mClickHandler;
     final private View mEmptyView;
@@ -59,6 +65,11 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
         public final TextView mDescriptionView;
         public final TextView mHighTempView;
         public final TextView mLowTempView;
+        // The local graphic or the installed pack's image the icon shows, if it shows one
+        int mIconResource;
+        Bitmap mIconBitmap;
+        // Whether Glide may still be loading into the icon
+        boolean mIconFromGlide;
 
         public ForecastAdapterViewHolder(View view) {
             super(view);
@@ -73,9 +84,7 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
         @Override
         public void onClick(View v) {
             int adapterPosition = getAdapterPosition();
-            mCursor.moveToPosition(adapterPosition);
-            int dateColumnIndex = mCursor.getColumnIndex(WeatherContract.WeatherEntry.COLUMN_DATE);
-            mClickHandler.onClick(mCursor.getLong(dateColumnIndex), this);
+            mClickHandler.onClick(mRows.get(adapterPosition).mDate, this);
             mICM.onClick(this);
         }
     }
@@ -122,67 +131,67 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
         }
     }
 
+    /*
+        Only assigns the item's prepared values, so binding doesn't allocate, read preferences
+        or format anything.  Art from an installed pack is already decoded; only a pack that is
+        still being installed goes through Glide.
+     */
     @Override
     public void onBindViewHolder(ForecastAdapterViewHolder forecastAdapterViewHolder, int position) {
-        mCursor.moveToPosition(position);
-        int weatherId = mCursor.getInt(ForecastFragment.COL_WEATHER_CONDITION_ID);
-        int defaultImage;
-        boolean useLongToday;
-
-        switch (getItemViewType(position)) {
-            case VIEW_TYPE_TODAY:
-                defaultImage = Utility.getArtResourceForWeatherCondition(weatherId);
-                useLongToday = true;
-                break;
-            default:
-                defaultImage = Utility.getIconResourceForWeatherCondition(weatherId);
-                useLongToday = false;
-        }
-
-        if ( Utility.usingLocalGraphics(mContext) ) {
-            forecastAdapterViewHolder.mIconView.setImageResource(defaultImage);
+        long start = mFrameTimer != null ? System.nanoTime() : 0;
+        ForecastItem item = mRows.get(position);
+        boolean today = getItemViewType(position) == VIEW_TYPE_TODAY;
+        int defaultImage = today ? item.mArtResource : item.mIconResource;
+
+        Bitmap bitmap = today ? item.mArtBitmap : item.mIconBitmap;
+        if (item.mArtUrl == null || bitmap != null) {
+            if (forecastAdapterViewHolder.mIconFromGlide) {
+                Glide.clear(forecastAdapterViewHolder.mIconView);
+                forecastAdapterViewHolder.mIconFromGlide = false;
+            }
+            if (bitmap != null) {
+                if (forecastAdapterViewHolder.mIconBitmap != bitmap) {
+                    forecastAdapterViewHolder.mIconView.setImageBitmap(bitmap);
+                    forecastAdapterViewHolder.mIconBitmap = bitmap;
+                    forecastAdapterViewHolder.mIconResource = 0;
+                }
+            } else if (forecastAdapterViewHolder.mIconResource != defaultImage) {
+                // Setting a resource loads its drawable again, even the one already shown
+                forecastAdapterViewHolder.mIconView.setImageResource(defaultImage);
+                forecastAdapterViewHolder.mIconResource = defaultImage;
+                forecastAdapterViewHolder.mIconBitmap = null;
+            }
         } else {
+            forecastAdapterViewHolder.mIconResource = 0;
+            forecastAdapterViewHolder.mIconBitmap = null;
+            forecastAdapterViewHolder.mIconFromGlide = true;
             Glide.with(mContext)
-                    .load(Utility.getArtUrlForWeatherCondition(mContext, weatherId))
+                    .load(item.mArtUrl)
                     .error(defaultImage)
                     .crossFade()
                     .into(forecastAdapterViewHolder.mIconView);
         }
+        ViewCompat.setTransitionName(forecastAdapterViewHolder.mIconView, item.mTransitionName);
 
-        // this enables better animations. even if we lose state due to a device rotation,
-        // the animator can use this to re-find the original view
-        ViewCompat.setTransitionName(forecastAdapterViewHolder.mIconView, "iconView" + position);
-
-        // Read date from cursor
-        long dateInMillis = mCursor.getLong(ForecastFragment.COL_WEATHER_DATE);
-
-        // Find TextView and set formatted date on it
-        forecastAdapterViewHolder.mDateView.setText(Utility.getFriendlyDayString(mContext, dateInMillis, useLongToday));
-
-        // Read weather forecast from cursor
-        String description = Utility.getStringForWeatherCondition(mContext, weatherId);
-
-        // Find TextView and set weather forecast on it
-        forecastAdapterViewHolder.mDescriptionView.setText(description);
-        forecastAdapterViewHolder.mDescriptionView.setContentDescription(mContext.getString(R.string.a11y_forecast, description));
+        forecastAdapterViewHolder.mDateView.setText(today ? item.mTodayDateText : item.mDateText);
 
         // For accessibility, we don't want a content description for the icon field
         // because the information is repeated in the description view and the icon
         // is not individually selectable
+        forecastAdapterViewHolder.mDescriptionView.setText(item.mDescription);
+        forecastAdapterViewHolder.mDescriptionView.setContentDescription(item.mDescriptionA11y);
 
-        // Read high temperature from cursor
-        double high = mCursor.getDouble(ForecastFragment.COL_WEATHER_MAX_TEMP);
-        String highString = Utility.formatTemperature(mContext, high);
-        forecastAdapterViewHolder.mHighTempView.setText(highString);
-        forecastAdapterViewHolder.mHighTempView.setContentDescription(mContext.getString(R.string.a11y_high_temp, highString));
+        forecastAdapterViewHolder.mHighTempView.setText(item.mHighText);
+        forecastAdapterViewHolder.mHighTempView.setContentDescription(item.mHighA11y);
 
-        // Read low temperature from cursor
-        double low = mCursor.getDouble(ForecastFragment.COL_WEATHER_MIN_TEMP);
-        String lowString = Utility.formatTemperature(mContext, low);
-        forecastAdapterViewHolder.mLowTempView.setText(lowString);
-        forecastAdapterViewHolder.mLowTempView.setContentDescription(mContext.getString(R.string.a11y_low_temp, lowString));
+        forecastAdapterViewHolder.mLowTempView.setText(item.mLowText);
+        forecastAdapterViewHolder.mLowTempView.setContentDescription(item.mLowA11y);
 
         mICM.onBindViewHolder(forecastAdapterViewHolder, position);
+        mRowsBound++;
+        if (mFrameTimer != null) {
+            mFrameTimer.addBind(System.nanoTime() - start);
+        }
     }
 
     public void onRestoreInstanceState(Bundle savedInstanceState) {
@@ -193,7 +202,17 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
         mICM.onSaveInstanceState(outState);
     }
 
+    /**
+     * Reports how long each bind takes to frameTimer, or to nothing if it is null.
+     */
+    void setFrameTimer(FrameTimer frameTimer) {
+        mFrameTimer = frameTimer;
+    }
+
     public void setUseTodayLayout(boolean useTodayLayout) {
+        if (mUseTodayLayout != useTodayLayout && getItemCount() > 0) {
+            notifyItemChanged(0);
+        }
         mUseTodayLayout = useTodayLayout;
     }
 
@@ -208,16 +227,37 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
 
     @Override
     public int getItemCount() {
-        if ( null == mCursor ) return 0;
-        return mCursor.getCount();
+        return mRows.size();
     }
 
+    /*
+        Shows the new cursor, notifying only the rows that were added, removed or read
+        differently.  Cursors from ForecastLoader come with their items built and diffed
+        against the previous delivery.  Others, or ones diffed against rows that are no longer
+        shown, are built and diffed here, which for a couple of weeks of rows is quick.  Those
+        built here don't decode art, so until the loader delivers, an installed pack's art is
+        loaded by Glide.
+     */
     public void swapCursor(Cursor newCursor) {
+        ForecastDiff diff = newCursor instanceof ForecastLoader.DiffedCursor
+                ? ((ForecastLoader.DiffedCursor) newCursor).getDiff() : null;
+        if (diff == null || diff.getFrom() != mRows) {
+            diff = ForecastDiff.compute(mRows,
+                    diff != null ? diff.getTo() : ForecastDiff.Rows.from(mContext, newCursor, false));
+        }
         mCursor = newCursor;
-        notifyDataSetChanged();
+        mRows = diff.getTo();
+
+        // The items are formatted with the current units, art and day, so a change to any of
+        // them shows up in the diff
+        diff.dispatchTo(this);
+        Log.d(LOG_TAG, "Forecast update: " + diff + "; " + mRowsBound +
+                " rows bound since the previous update");
+        mRowsBound = 0;
         mEmptyView.setVisibility(getItemCount() == 0 ? View.VISIBLE : View.GONE);
     }
 
+
     public Cursor getCursor() {
         return mCursor;
     }
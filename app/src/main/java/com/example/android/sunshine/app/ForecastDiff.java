@@ -0,0 +1,242 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.support.v7.widget.RecyclerView;
+import android.text.TextUtils;
+
+import java.util.Arrays;
+
+/**
+ * The row changes between two deliveries of the forecast list, as RecyclerView notifications.
+ * <p>
+ * Rows are identified by location and date, and count as changed when anything the list shows
+ * for them differs, including how a changed setting or a new day formats them.  Both lists are sorted by date, so the diff is a single merge of the two.
+ * A different location replaces the whole list.
+ */
+class ForecastDiff {
+
+    private static final int OP_CHANGE = 0;
+    private static final int OP_INSERT = 1;
+    private static final int OP_REMOVE = 2;
+
+    /**
+     * The items of the forecast list for one location, in date order.
+     */
+    static class Rows {
+        static final Rows EMPTY = new Rows(null, new ForecastItem[0]);
+
+        final String mLocationSetting;
+        final ForecastItem[] mItems;
+
+        private Rows(String locationSetting, ForecastItem[] items) {
+            mLocationSetting = locationSetting;
+            mItems = items;
+        }
+
+        /**
+         * Builds the items for every row of the cursor, which may be null.  Leaves the cursor
+         * before the first row.
+         *
+         * @param decodeArt whether to decode an installed art pack's images, which is only
+         *                  done off the main thread.
+         */
+        static Rows from(Context context, Cursor cursor, boolean decodeArt) {
+            if (cursor == null || cursor.getCount() == 0) {
+                return EMPTY;
+            }
+            cursor.moveToFirst();
+            String locationSetting = cursor.getString(ForecastFragment.COL_LOCATION_SETTING);
+            return new Rows(locationSetting, ForecastItem.fromCursor(context, cursor, decodeArt));
+        }
+
+        int size() {
+            return mItems.length;
+        }
+
+        ForecastItem get(int position) {
+            return mItems[position];
+        }
+
+        long getDate(int position) {
+            return mItems[position].mDate;
+        }
+
+        boolean sameContents(int i, Rows other, int j) {
+            return mItems[i].looksLike(other.mItems[j]);
+        }
+
+        /**
+         * @return the position of the row for the date, or a negative number if there is none.
+         */
+        int indexOf(long date) {
+            int low = 0;
+            int high = mItems.length - 1;
+            while (low <= high) {
+                int middle = (low + high) >>> 1;
+                long middleDate = mItems[middle].mDate;
+                if (middleDate < date) {
+                    low = middle + 1;
+                } else if (middleDate > date) {
+                    high = middle - 1;
+                } else {
+                    return middle;
+                }
+            }
+            return -1;
+        }
+    }
+
+    private final Rows mFrom;
+    private final Rows mTo;
+    private final boolean mReplaced;
+    private boolean mFirstRowMoved;
+    // Runs of (op, position, count), positions as they are when the run is dispatched
+    private int[] mOps = new int[12];
+    private int mOpCount;
+    private int mChanged;
+    private int mInserted;
+    private int mRemoved;
+
+    private ForecastDiff(Rows from, Rows to, boolean replaced) {
+        mFrom = from;
+        mTo = to;
+        mReplaced = replaced;
+    }
+
+    static ForecastDiff compute(Rows from, Rows to) {
+        if (from.size() > 0 && to.size() > 0
+                && !TextUtils.equals(from.mLocationSetting, to.mLocationSetting)) {
+            ForecastDiff diff = new ForecastDiff(from, to, true);
+            diff.mRemoved = from.size();
+            diff.mInserted = to.size();
+            return diff;
+        }
+        ForecastDiff diff = new ForecastDiff(from, to, false);
+        int i = 0;
+        int j = 0;
+        int position = 0;
+        while (i < from.size() || j < to.size()) {
+            if (j == to.size() || (i < from.size() && from.getDate(i) < to.getDate(j))) {
+                // Removing doesn't move on, the next row takes its position
+                diff.add(OP_REMOVE, position);
+                diff.mRemoved++;
+                i++;
+            } else if (i == from.size() || to.getDate(j) < from.getDate(i)) {
+                diff.add(OP_INSERT, position++);
+                diff.mInserted++;
+                j++;
+            } else {
+                if (!from.sameContents(i, to, j)) {
+                    diff.add(OP_CHANGE, position);
+                    diff.mChanged++;
+                }
+                position++;
+                i++;
+                j++;
+            }
+        }
+        // A row that moves up into first place takes the today layout, so has to be rebound
+        // even if its contents are the same
+        if (to.size() > 0 && from.size() > 1) {
+            int previous = from.indexOf(to.getDate(0));
+            if (previous > 0 && from.sameContents(previous, to, 0)) {
+                diff.mFirstRowMoved = true;
+                diff.mChanged++;
+            }
+        }
+        return diff;
+    }
+
+    private void add(int op, int position) {
+        if (mOpCount > 0) {
+            int last = (mOpCount - 1) * 3;
+            if (mOps[last] == op) {
+                // Extends the run, which for removals stays at the same position
+                int end = op == OP_REMOVE ? mOps[last + 1] : mOps[last + 1] + mOps[last + 2];
+                if (position == end) {
+                    mOps[last + 2]++;
+                    return;
+                }
+            }
+        }
+        if ((mOpCount + 1) * 3 > mOps.length) {
+            mOps = Arrays.copyOf(mOps, mOps.length * 2);
+        }
+        mOps[mOpCount * 3] = op;
+        mOps[mOpCount * 3 + 1] = position;
+        mOps[mOpCount * 3 + 2] = 1;
+        mOpCount++;
+    }
+
+    /**
+     * @return the rows the diff starts from, which have to be the ones the adapter shows for
+     * it to apply.
+     */
+    Rows getFrom() {
+        return mFrom;
+    }
+
+    Rows getTo() {
+        return mTo;
+    }
+
+    /**
+     * @return the number of rows that need binding after the update.
+     */
+    int getRowsToBind() {
+        return mChanged + mInserted;
+    }
+
+    boolean isEmpty() {
+        return mChanged == 0 && mInserted == 0 && mRemoved == 0;
+    }
+
+    /**
+     * Sends the diff to the adapter, which must already be showing the new rows.
+     */
+    void dispatchTo(RecyclerView.Adapter adapter) {
+        if (mReplaced) {
+            adapter.notifyDataSetChanged();
+            return;
+        }
+        for (int k = 0; k < mOpCount; k++) {
+            int position = mOps[k * 3 + 1];
+            int count = mOps[k * 3 + 2];
+            switch (mOps[k * 3]) {
+                case OP_CHANGE:
+                    adapter.notifyItemRangeChanged(position, count);
+                    break;
+                case OP_INSERT:
+                    adapter.notifyItemRangeInserted(position, count);
+                    break;
+                default:
+                    adapter.notifyItemRangeRemoved(position, count);
+            }
+        }
+        if (mFirstRowMoved) {
+            adapter.notifyItemChanged(0);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return mChanged + " changed, " + mInserted + " inserted, " + mRemoved + " removed" +
+                (mReplaced ? " (new location)" : "");
+    }
+}
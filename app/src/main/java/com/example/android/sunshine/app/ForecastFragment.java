@@ -15,23 +15,23 @@
  */
 package com.example.android.sunshine.app;
 
-import android.annotation.TargetApi;
 import android.app.Activity;
 import android.content.Intent;
 import android.content.SharedPreferences;
 import android.content.res.TypedArray;
 import android.database.Cursor;
+import android.database.MatrixCursor;
 import android.net.Uri;
-import android.os.Build;
 import android.os.Bundle;
+import android.os.SystemClock;
 import android.preference.PreferenceManager;
+import android.text.format.DateUtils;
 import android.support.design.widget.AppBarLayout;
+import android.support.design.widget.Snackbar;
 import android.support.v4.app.Fragment;
 import android.support.v4.app.LoaderManager;
-import android.support.v4.content.CursorLoader;
 import android.support.v4.content.Loader;
 import android.support.v4.view.ViewCompat;
-import android.support.v7.widget.LinearLayoutManager;
 import android.support.v7.widget.RecyclerView;
 import android.util.AttributeSet;
 import android.util.Log;
@@ -45,6 +45,8 @@ import android.view.ViewTreeObserver;
 import android.widget.AbsListView;
 import android.widget.TextView;
 
+import com.example.android.sunshine.app.data.ForecastSnapshot;
+import com.example.android.sunshine.app.data.ForecastSnapshotFile;
 import com.example.android.sunshine.app.data.WeatherContract;
 import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
 
@@ -59,6 +61,14 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
     private int mChoiceMode;
     private boolean mHoldForTransition;
     private long mInitialSelectedDate = -1;
+    private long mCreateTime;
+    private boolean mDatabaseFrameLogged;
+    // When the location last changed, on both clocks, or -1 once the new forecast was shown
+    private long mLocationChangeTime = -1;
+    private long mLocationChangeWallTime;
+    private Snackbar mStaleSnackbar;
+    // Only in debug builds
+    private FrameTimer mFrameTimer;
 
     private static final String SELECTED_KEY = "selected_position";
 
@@ -80,7 +90,8 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
             WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING,
             WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
             WeatherContract.LocationEntry.COLUMN_COORD_LAT,
-            WeatherContract.LocationEntry.COLUMN_COORD_LONG
+            WeatherContract.LocationEntry.COLUMN_COORD_LONG,
+            WeatherContract.LocationEntry.COLUMN_FETCHED_AT
     };
 
     // These indices are tied to FORECAST_COLUMNS.  If FORECAST_COLUMNS changes, these
@@ -94,6 +105,7 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
     static final int COL_WEATHER_CONDITION_ID = 6;
     static final int COL_COORD_LAT = 7;
     static final int COL_COORD_LONG = 8;
+    static final int COL_FETCHED_AT = 9;
 
     /**
      * A callback interface that all activities containing this fragment must
@@ -113,6 +125,7 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
     @Override
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+        mCreateTime = SystemClock.elapsedRealtime();
         // Add this line in order for this fragment to handle menu events.
         setHasOptionsMenu(true);
     }
@@ -176,7 +189,8 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
         mRecyclerView = (RecyclerView) rootView.findViewById(R.id.recyclerview_forecast);
 
         // Set the layout manager
-        mRecyclerView.setLayoutManager(new LinearLayoutManager(getActivity()));
+        ForecastLayoutManager layoutManager = new ForecastLayoutManager(getActivity());
+        mRecyclerView.setLayoutManager(layoutManager);
         View emptyView = rootView.findViewById(R.id.recyclerview_forecast_empty);
 
         // use this setting to improve performance if you know that changes
@@ -201,41 +215,19 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
         mRecyclerView.setAdapter(mForecastAdapter);
 
         final View parallaxView = rootView.findViewById(R.id.parallax_bar);
-        if (null != parallaxView) {
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
-                mRecyclerView.addOnScrollListener(new RecyclerView.OnScrollListener() {
-                    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
-                    @Override
-                    public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
-                        super.onScrolled(recyclerView, dx, dy);
-                        int max = parallaxView.getHeight();
-                        if (dy > 0) {
-                            parallaxView.setTranslationY(Math.max(-max, parallaxView.getTranslationY() - dy / 2));
-                        } else {
-                            parallaxView.setTranslationY(Math.min(0, parallaxView.getTranslationY() - dy / 2));
-                        }
-                    }
-                });
-            }
-        }
-
         final AppBarLayout appbarView = (AppBarLayout)rootView.findViewById(R.id.appbar);
         if (null != appbarView) {
             ViewCompat.setElevation(appbarView, 0);
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
-                mRecyclerView.addOnScrollListener(new RecyclerView.OnScrollListener() {
-                    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
-                    @Override
-                    public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
-                        if (0 == mRecyclerView.computeVerticalScrollOffset()) {
-                            appbarView.setElevation(0);
-                        } else {
-                            appbarView.setElevation(appbarView.getTargetElevation());
-                        }
-                    }
-                });
-            }
         }
+        // Debug builds log the frame, bind and layout times of every scroll
+        if (BuildConfig.DEBUG) {
+            mFrameTimer = new FrameTimer(
+                    getActivity().getWindowManager().getDefaultDisplay().getRefreshRate());
+            layoutManager.setFrameTimer(mFrameTimer);
+            mForecastAdapter.setFrameTimer(mFrameTimer);
+        }
+        mRecyclerView.addOnScrollListener(
+                new ForecastScrollListener(parallaxView, appbarView, mFrameTimer));
 
         // If there's instance state, mine it for useful information.
         // The end-goal here is that the user never knows that turning their device sideways
@@ -259,26 +251,141 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
         if ( mHoldForTransition ) {
             getActivity().supportPostponeEnterTransition();
         }
+        // On a cold start, show the forecast from the snapshot file while the loader opens the
+        // database; the loader's cursor replaces it when it arrives.
+        if (getLoaderManager().getLoader(FORECAST_LOADER) == null) {
+            Cursor snapshot = readSnapshotFile();
+            if (snapshot != null) {
+                mForecastAdapter.swapCursor(snapshot);
+                updateEmptyView();
+                updateStaleIndicator();
+                logFirstFrame("snapshot");
+            }
+        }
         getLoaderManager().initLoader(FORECAST_LOADER, null, this);
         super.onActivityCreated(savedInstanceState);
     }
 
-    // since we read the location when we create the loader, all we need to do is restart things
+    /*
+        The preferred location's forecast from the snapshot file, laid out like FORECAST_COLUMNS,
+        or null if the file doesn't have it.  The file has no coordinates, so those are null
+        until the loader finishes.
+     */
+    private Cursor readSnapshotFile() {
+        String locationSetting = Utility.getPreferredLocation(getActivity());
+        ForecastSnapshot snapshot = ForecastSnapshotFile.read(getActivity(), locationSetting,
+                System.currentTimeMillis());
+        return toCursor(snapshot, locationSetting);
+    }
+
+    private static Cursor toCursor(ForecastSnapshot snapshot, String locationSetting) {
+        if (snapshot == null || snapshot.getCount() == 0) {
+            return null;
+        }
+        MatrixCursor cursor = new MatrixCursor(FORECAST_COLUMNS, snapshot.getCount());
+        for (int i = 0; i < snapshot.getCount(); i++) {
+            cursor.addRow(new Object[]{
+                    snapshot.getId(i),
+                    snapshot.getDate(i),
+                    snapshot.getShortDesc(i),
+                    snapshot.getMaxTemp(i),
+                    snapshot.getMinTemp(i),
+                    locationSetting,
+                    snapshot.getWeatherId(i),
+                    null,
+                    null,
+                    snapshot.getFetchedAt()
+            });
+        }
+        return cursor;
+    }
+
+    /*
+        Logs the time from onCreate to the next frame, which shows the rows from the given source.
+        A cold start with the file logs both, so the two can be compared on the same launch.
+     */
+    private void logFirstFrame(String source) {
+        logNextFrame("First forecast frame from " + source, mCreateTime);
+    }
+
+    private void logNextFrame(final String event, final long since) {
+        mRecyclerView.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+            @Override
+            public boolean onPreDraw() {
+                mRecyclerView.getViewTreeObserver().removeOnPreDrawListener(this);
+                Log.d(LOG_TAG, event + " after " + (SystemClock.elapsedRealtime() - since) + "ms");
+                return true;
+            }
+        });
+    }
+
+    /*
+        Clears the list and restarts the loader, which reads whatever forecast is already
+        stored for the new location off the main thread.  That is shown as stale while the sync
+        started by the location change fetches a new one, which the loader then delivers in
+        place.  The time from the change to the first rows is logged.
+     */
     void onLocationChanged() {
+        mLocationChangeTime = SystemClock.elapsedRealtime();
+        mLocationChangeWallTime = System.currentTimeMillis();
+        // Never leave the old location's rows on screen under the new one
+        mForecastAdapter.swapCursor(null);
+        updateEmptyView();
+        updateStaleIndicator();
+        // since we read the location when we create the loader, all we need to do is restart things
         getLoaderManager().restartLoader(FORECAST_LOADER, null, this);
     }
 
+    /*
+        Says how old the forecast on screen is if it predates the last location change, whose
+        sync hasn't landed yet, or is overdue for a sync, and hides that once a new one arrives.
+     */
+    private void updateStaleIndicator() {
+        Cursor cursor = mForecastAdapter.getCursor();
+        long fetchedAt = -1;
+        if (cursor != null && cursor.moveToFirst()) {
+            fetchedAt = cursor.isNull(COL_FETCHED_AT) ? 0 : cursor.getLong(COL_FETCHED_AT);
+        }
+        long now = System.currentTimeMillis();
+        boolean stale = fetchedAt >= 0 && (fetchedAt < mLocationChangeWallTime
+                || now - fetchedAt > SunshineSyncAdapter.MAX_FORECAST_AGE);
+        if (!stale) {
+            if (mStaleSnackbar != null) {
+                mStaleSnackbar.dismiss();
+                mStaleSnackbar = null;
+            }
+            return;
+        }
+        String message = fetchedAt == 0
+                ? getString(R.string.forecast_stale_unknown)
+                : getString(R.string.forecast_stale, DateUtils.getRelativeTimeSpanString(
+                        fetchedAt, now, DateUtils.MINUTE_IN_MILLIS));
+        if (mStaleSnackbar == null) {
+            mStaleSnackbar = Snackbar.make(mRecyclerView, message, Snackbar.LENGTH_INDEFINITE);
+        } else {
+            mStaleSnackbar.setText(message);
+        }
+        mStaleSnackbar.show();
+    }
+
     private void openPreferredLocationInMap() {
         // Using the URI scheme for showing a location found on a map.  This super-handy
         // intent can is detailed in the "Common Intents" page of Android's developer site:
         // http://developer.android.com/guide/components/intents-common.html#Maps
         if (null != mForecastAdapter) {
             Cursor c = mForecastAdapter.getCursor();
-            if (null != c) {
-                c.moveToPosition(0);
-                String posLat = c.getString(COL_COORD_LAT);
-                String posLong = c.getString(COL_COORD_LONG);
-                Uri geoLocation = Uri.parse("geo:" + posLat + "," + posLong);
+            if (null != c && c.moveToPosition(0)) {
+                Uri geoLocation;
+                if (c.isNull(COL_COORD_LAT) || c.isNull(COL_COORD_LONG)) {
+                    // Rows from the snapshot file have no coordinates, so until the loader
+                    // delivers, search for the location setting instead
+                    geoLocation = Uri.parse("geo:0,0?q=" +
+                            Uri.encode(c.getString(COL_LOCATION_SETTING)));
+                } else {
+                    String posLat = c.getString(COL_COORD_LAT);
+                    String posLong = c.getString(COL_COORD_LONG);
+                    geoLocation = Uri.parse("geo:" + posLat + "," + posLong);
+                }
 
                 Intent intent = new Intent(Intent.ACTION_VIEW);
                 intent.setData(geoLocation);
@@ -315,12 +422,15 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
         String locationSetting = Utility.getPreferredLocation(getActivity());
         Uri weatherForLocationUri = WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
                 locationSetting, System.currentTimeMillis());
+        // Show what's cached straight away; if it's overdue the provider kicks off a sync, and
+        // the loader reloads when the new rows land.
+        weatherForLocationUri = WeatherContract.buildMaxAgeUri(weatherForLocationUri,
+                SunshineSyncAdapter.MAX_FORECAST_AGE);
 
-        return new CursorLoader(getActivity(),
+        // Diffs each load against the last one in the background, for the adapter
+        return new ForecastLoader(getActivity(),
                 weatherForLocationUri,
                 FORECAST_COLUMNS,
-                null,
-                null,
                 sortOrder);
     }
 
@@ -328,6 +438,15 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
     public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
         mForecastAdapter.swapCursor(data);
         updateEmptyView();
+        updateStaleIndicator();
+        if (!mDatabaseFrameLogged && data.getCount() > 0) {
+            mDatabaseFrameLogged = true;
+            logFirstFrame("database");
+        }
+        if (mLocationChangeTime != -1 && data.getCount() > 0) {
+            logNextFrame("Forecast after location change", mLocationChangeTime);
+            mLocationChangeTime = -1;
+        }
         if ( data.getCount() == 0 ) {
             getActivity().supportStartPostponedEnterTransition();
         } else {
@@ -380,11 +499,15 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
         if (null != mRecyclerView) {
             mRecyclerView.clearOnScrollListeners();
         }
+        if (null != mFrameTimer) {
+            mFrameTimer.stop();
+        }
     }
 
     @Override
     public void onLoaderReset(Loader<Cursor> loader) {
         mForecastAdapter.swapCursor(null);
+        updateStaleIndicator();
     }
 
     public void setUseTodayLayout(boolean useTodayLayout) {
@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.graphics.Bitmap;
+import android.text.TextUtils;
+
+import com.example.android.sunshine.app.art.ArtPack;
+
+/**
+ * One row of the forecast list, formatted and ready to be shown.
+ * <p>
+ * Everything a bind needs is worked out when the row is built, on the loader's thread: the
+ * preferences, the date formatting, the temperature formatting and the accessibility strings.
+ * {@link ForecastAdapter#onBindViewHolder} then only assigns these to views.  Both the today
+ * and the regular layout are covered, since which one a row gets depends on its position.
+ */
+final class ForecastItem {
+
+    final long mDate;
+    final int mWeatherId;
+    // Local graphics for the regular and the today layout
+    final int mIconResource;
+    final int mArtResource;
+    // The installed art pack's images for the regular and the today layout, or null when
+    // using local graphics, while the pack is still being installed, or for items built on
+    // the main thread
+    final Bitmap mIconBitmap;
+    final Bitmap mArtBitmap;
+    // The art pack's image, or null when using local graphics
+    final String mArtUrl;
+    final String mTransitionName;
+    final String mDateText;
+    // Only different from mDateText for today's row
+    final String mTodayDateText;
+    final String mDescription;
+    final String mDescriptionA11y;
+    final String mHighText;
+    final String mHighA11y;
+    final String mLowText;
+    final String mLowA11y;
+
+    private ForecastItem(Context context, long date, int weatherId, double high, double low,
+                         boolean localGraphics, ArtPack artPack) {
+        mDate = date;
+        mWeatherId = weatherId;
+        mIconResource = Utility.getIconResourceForWeatherCondition(weatherId);
+        mArtResource = Utility.getArtResourceForWeatherCondition(weatherId);
+        mIconBitmap = artPack == null ? null : artPack.getArt(weatherId, ArtPack.SIZE_LIST);
+        mArtBitmap = artPack == null ? null : artPack.getArt(weatherId, ArtPack.SIZE_TODAY);
+        mArtUrl = localGraphics ? null : Utility.getArtUrlForWeatherCondition(context, weatherId);
+        // this enables better animations. even if we lose state due to a device rotation,
+        // the animator can use this to re-find the original view
+        mTransitionName = "iconView" + date;
+        mDateText = Utility.getFriendlyDayString(context, date, false);
+        String todayDateText = Utility.getFriendlyDayString(context, date, true);
+        mTodayDateText = todayDateText.equals(mDateText) ? mDateText : todayDateText;
+        mDescription = Utility.getStringForWeatherCondition(context, weatherId);
+        mDescriptionA11y = context.getString(R.string.a11y_forecast, mDescription);
+        mHighText = Utility.formatTemperature(context, high);
+        mHighA11y = context.getString(R.string.a11y_high_temp, mHighText);
+        mLowText = Utility.formatTemperature(context, low);
+        mLowA11y = context.getString(R.string.a11y_low_temp, mLowText);
+    }
+
+    /**
+     * Builds the items for every row of a cursor over ForecastFragment's columns, reading the
+     * preferences once.
+     *
+     * @param decodeArt whether to decode an installed art pack's images, which is only done on
+     *                  the loader's thread.  Without them the items give the pack's URLs.
+     */
+    static ForecastItem[] fromCursor(Context context, Cursor cursor, boolean decodeArt) {
+        ForecastItem[] items = new ForecastItem[cursor.getCount()];
+        boolean localGraphics = Utility.usingLocalGraphics(context);
+        ArtPack artPack = localGraphics || !decodeArt ? null : ArtPack.getInstance(context);
+        cursor.moveToPosition(-1);
+        for (int i = 0; cursor.moveToNext(); i++) {
+            items[i] = new ForecastItem(context,
+                    cursor.getLong(ForecastFragment.COL_WEATHER_DATE),
+                    cursor.getInt(ForecastFragment.COL_WEATHER_CONDITION_ID),
+                    cursor.getDouble(ForecastFragment.COL_WEATHER_MAX_TEMP),
+                    cursor.getDouble(ForecastFragment.COL_WEATHER_MIN_TEMP),
+                    localGraphics, artPack);
+        }
+        cursor.moveToPosition(-1);
+        return items;
+    }
+
+    /**
+     * @return whether the two would be shown the same way.
+     */
+    boolean looksLike(ForecastItem other) {
+        return mIconResource == other.mIconResource
+                && mArtResource == other.mArtResource
+                && mIconBitmap == other.mIconBitmap
+                && mArtBitmap == other.mArtBitmap
+                && TextUtils.equals(mArtUrl, other.mArtUrl)
+                && mDateText.equals(other.mDateText)
+                && mTodayDateText.equals(other.mTodayDateText)
+                && mDescription.equals(other.mDescription)
+                && mHighText.equals(other.mHighText)
+                && mLowText.equals(other.mLowText);
+    }
+}
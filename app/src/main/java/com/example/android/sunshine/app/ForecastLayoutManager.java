@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+
+/**
+ * Lays out the forecast list like {@link LinearLayoutManager}, and reports how long each
+ * layout pass and each scroll step takes to a {@link FrameTimer}.  Both include the binds of
+ * rows they bring on screen.
+ */
+class ForecastLayoutManager extends LinearLayoutManager {
+
+    private FrameTimer mFrameTimer;
+
+    ForecastLayoutManager(Context context) {
+        super(context);
+    }
+
+    void setFrameTimer(FrameTimer frameTimer) {
+        mFrameTimer = frameTimer;
+    }
+
+    @Override
+    public void onLayoutChildren(RecyclerView.Recycler recycler, RecyclerView.State state) {
+        if (mFrameTimer == null) {
+            super.onLayoutChildren(recycler, state);
+            return;
+        }
+        long start = System.nanoTime();
+        super.onLayoutChildren(recycler, state);
+        mFrameTimer.addLayout(System.nanoTime() - start);
+    }
+
+    @Override
+    public int scrollVerticallyBy(int dy, RecyclerView.Recycler recycler, RecyclerView.State state) {
+        if (mFrameTimer == null) {
+            return super.scrollVerticallyBy(dy, recycler, state);
+        }
+        long start = System.nanoTime();
+        int scrolled = super.scrollVerticallyBy(dy, recycler, state);
+        mFrameTimer.addLayout(System.nanoTime() - start);
+        return scrolled;
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.CursorWrapper;
+import android.net.Uri;
+import android.support.v4.content.CursorLoader;
+
+/**
+ * Loads the forecast list, and on the same background thread formats its rows into
+ * {@link ForecastItem}s and works out how they differ from the list delivered before, so that
+ * {@link ForecastAdapter} only has to rebind what changed, and only has to assign fields when it
+ * does.
+ */
+class ForecastLoader extends CursorLoader {
+
+    /**
+     * A loaded cursor with its diff against the previous delivery.
+     */
+    static class DiffedCursor extends CursorWrapper {
+        private final ForecastDiff mDiff;
+
+        DiffedCursor(Cursor cursor, ForecastDiff diff) {
+            super(cursor);
+            mDiff = diff;
+        }
+
+        ForecastDiff getDiff() {
+            return mDiff;
+        }
+    }
+
+    // Written on the main thread as results are delivered, read by the next load
+    private volatile ForecastDiff.Rows mDeliveredRows = ForecastDiff.Rows.EMPTY;
+
+    ForecastLoader(Context context, Uri uri, String[] projection, String sortOrder) {
+        super(context, uri, projection, null, null, sortOrder);
+    }
+
+    @Override
+    public Cursor loadInBackground() {
+        Cursor cursor = super.loadInBackground();
+        if (cursor == null) {
+            return null;
+        }
+        ForecastDiff.Rows rows = ForecastDiff.Rows.from(getContext(), cursor, true);
+        return new DiffedCursor(cursor, ForecastDiff.compute(mDeliveredRows, rows));
+    }
+
+    @Override
+    public void deliverResult(Cursor cursor) {
+        if (cursor instanceof DiffedCursor && !isReset()) {
+            mDeliveredRows = ((DiffedCursor) cursor).getDiff().getTo();
+        }
+        super.deliverResult(cursor);
+    }
+}
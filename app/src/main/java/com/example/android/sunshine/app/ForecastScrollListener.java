@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.support.design.widget.AppBarLayout;
+import android.support.v7.widget.RecyclerView;
+import android.util.Log;
+import android.view.View;
+
+/**
+ * Everything the forecast list does as it scrolls, in the one listener: moves the parallax bar,
+ * raises the app bar once the list leaves its top, and times the scroll's frames.
+ */
+class ForecastScrollListener extends RecyclerView.OnScrollListener {
+    private static final String LOG_TAG = ForecastScrollListener.class.getSimpleName();
+
+    private final View mParallaxView;
+    private final AppBarLayout mAppBarView;
+    private final FrameTimer mFrameTimer;
+    // Whether the app bar is raised above the list; it starts level with it
+    private boolean mAppBarRaised;
+
+    /**
+     * @param parallaxView moved by half of each scroll, or null if there is none.
+     * @param appBarView raised once the list leaves its top, or null if there is none.
+     * @param frameTimer times each scroll, from the list starting to move until it settles,
+     *                   and has it logged; or null not to time scrolls.
+     */
+    ForecastScrollListener(View parallaxView, AppBarLayout appBarView, FrameTimer frameTimer) {
+        mParallaxView = parallaxView;
+        mAppBarView = appBarView;
+        mFrameTimer = frameTimer;
+    }
+
+    @Override
+    public void onScrollStateChanged(RecyclerView recyclerView, int newState) {
+        if (mFrameTimer == null) {
+            return;
+        }
+        if (newState != RecyclerView.SCROLL_STATE_IDLE) {
+            mFrameTimer.start();
+        } else if (mFrameTimer.isRunning()) {
+            mFrameTimer.stop();
+            Log.d(LOG_TAG, "Scroll: " + mFrameTimer);
+            mFrameTimer.reset();
+        }
+    }
+
+    @Override
+    public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+        if (null != mParallaxView) {
+            int max = mParallaxView.getHeight();
+            if (dy > 0) {
+                mParallaxView.setTranslationY(Math.max(-max, mParallaxView.getTranslationY() - dy / 2));
+            } else {
+                mParallaxView.setTranslationY(Math.min(0, mParallaxView.getTranslationY() - dy / 2));
+            }
+        }
+        if (null != mAppBarView) {
+            boolean raised = !isAtTop(recyclerView);
+            // Changing the elevation redraws the app bar's shadow, so only do it when it flips
+            if (raised != mAppBarRaised) {
+                mAppBarRaised = raised;
+                mAppBarView.setElevation(raised ? mAppBarView.getTargetElevation() : 0);
+            }
+        }
+    }
+
+    /*
+        Whether the list is scrolled all the way up.  The same as a scroll offset of 0, but
+        only looks at the top child instead of asking the layout manager to work the offset out.
+     */
+    private static boolean isAtTop(RecyclerView recyclerView) {
+        View first = recyclerView.getChildAt(0);
+        if (first == null) {
+            return true;
+        }
+        return recyclerView.getChildAdapterPosition(first) == 0 &&
+                recyclerView.getLayoutManager().getDecoratedTop(first) >= recyclerView.getPaddingTop();
+    }
+}
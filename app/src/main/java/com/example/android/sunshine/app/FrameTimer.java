@@ -0,0 +1,175 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.view.Choreographer;
+
+import java.util.Arrays;
+
+/**
+ * Times frames with {@link Choreographer} while running, along with the binds and layouts the
+ * forecast list does in them.
+ * <p>
+ * Each frame's time is the gap between its vsync and the previous frame's, so a frame that
+ * takes too long shows up as a long gap, and the vsyncs it covered as dropped frames.  Only
+ * the most recent frames are kept, in arrays allocated up front, so timing a scroll doesn't
+ * add garbage to the frames it measures.  Everything is read and written on the main thread.
+ */
+class FrameTimer implements Choreographer.FrameCallback {
+
+    // Ten seconds at 60fps
+    private static final int MAX_FRAMES = 600;
+
+    private final long mFrameIntervalNanos;
+    private final long[] mFrameNanos = new long[MAX_FRAMES];
+    private final long[] mSortedNanos = new long[MAX_FRAMES];
+    private int mFrames;
+    private int mDroppedFrames;
+    private long mLastFrameTimeNanos;
+    private boolean mRunning;
+
+    private int mBinds;
+    private long mBindNanos;
+    private int mLayouts;
+    private long mLayoutNanos;
+    private long mMaxLayoutNanos;
+
+    /**
+     * @param refreshRate of the display the frames are shown on, in frames per second.
+     */
+    FrameTimer(float refreshRate) {
+        mFrameIntervalNanos = (long) (1000000000 / refreshRate);
+    }
+
+    void start() {
+        if (!mRunning) {
+            mRunning = true;
+            mLastFrameTimeNanos = 0;
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+    }
+
+    void stop() {
+        if (mRunning) {
+            mRunning = false;
+            Choreographer.getInstance().removeFrameCallback(this);
+        }
+    }
+
+    boolean isRunning() {
+        return mRunning;
+    }
+
+    void reset() {
+        mFrames = 0;
+        mDroppedFrames = 0;
+        mLastFrameTimeNanos = 0;
+        mBinds = 0;
+        mBindNanos = 0;
+        mLayouts = 0;
+        mLayoutNanos = 0;
+        mMaxLayoutNanos = 0;
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        if (!mRunning) {
+            return;
+        }
+        if (mLastFrameTimeNanos != 0) {
+            long nanos = frameTimeNanos - mLastFrameTimeNanos;
+            mFrameNanos[mFrames % MAX_FRAMES] = nanos;
+            mFrames++;
+            // A frame that ran over by half an interval or more missed its vsync
+            long missed = (nanos + mFrameIntervalNanos / 2) / mFrameIntervalNanos - 1;
+            if (missed > 0) {
+                mDroppedFrames += missed;
+            }
+        }
+        mLastFrameTimeNanos = frameTimeNanos;
+        Choreographer.getInstance().postFrameCallback(this);
+    }
+
+    /**
+     * Adds the time a row took to bind, if frames are being timed.
+     */
+    void addBind(long nanos) {
+        if (mRunning) {
+            mBinds++;
+            mBindNanos += nanos;
+        }
+    }
+
+    /**
+     * Adds the time a layout pass took, if frames are being timed.
+     */
+    void addLayout(long nanos) {
+        if (mRunning) {
+            mLayouts++;
+            mLayoutNanos += nanos;
+            mMaxLayoutNanos = Math.max(mMaxLayoutNanos, nanos);
+        }
+    }
+
+    /**
+     * @return the frames timed since the last reset, even those no longer kept.
+     */
+    int getFrameCount() {
+        return mFrames;
+    }
+
+    int getDroppedFrames() {
+        return mDroppedFrames;
+    }
+
+    long getFrameIntervalNanos() {
+        return mFrameIntervalNanos;
+    }
+
+    /**
+     * @return the time percent of the kept frames took at most, or 0 if none were timed.
+     */
+    long getFramePercentileNanos(int percent) {
+        int count = Math.min(mFrames, MAX_FRAMES);
+        if (count == 0) {
+            return 0;
+        }
+        System.arraycopy(mFrameNanos, 0, mSortedNanos, 0, count);
+        Arrays.sort(mSortedNanos, 0, count);
+        int index = (int) Math.ceil(count * percent / 100.0) - 1;
+        return mSortedNanos[Math.max(0, Math.min(count - 1, index))];
+    }
+
+    int getBinds() {
+        return mBinds;
+    }
+
+    int getLayouts() {
+        return mLayouts;
+    }
+
+    @Override
+    public String toString() {
+        return mFrames + " frames, " + mDroppedFrames + " dropped, p50 " +
+                getFramePercentileNanos(50) / 1000 + "us, p95 " +
+                getFramePercentileNanos(95) / 1000 + "us, max " +
+                getFramePercentileNanos(100) / 1000 + "us; " +
+                mBinds + " binds" + (mBinds > 0 ? " at " + mBindNanos / mBinds / 1000 + "us" : "") +
+                ", " + mLayouts + " layouts" +
+                (mLayouts > 0 ? " at " + mLayoutNanos / mLayouts / 1000 + "us, max " +
+                        mMaxLayoutNanos / 1000 + "us" : "");
+    }
+}
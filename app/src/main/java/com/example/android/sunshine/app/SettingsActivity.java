@@ -25,6 +25,7 @@ import android.preference.Preference;
 import android.preference.PreferenceActivity;
 import android.preference.PreferenceManager;
 
+import com.example.android.sunshine.app.art.ArtPackInstallService;
 import com.example.android.sunshine.app.data.WeatherContract;
 import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
 
@@ -137,15 +138,20 @@ public class SettingsActivity extends PreferenceActivity
             Utility.resetLocationStatus(this);
             SunshineSyncAdapter.syncImmediately(this);
         } else if ( key.equals(getString(R.string.pref_units_key)) ) {
-            // units have changed. update lists of weather entries accordingly
-            getContentResolver().notifyChange(WeatherContract.WeatherEntry.CONTENT_URI, null);
+            // units have changed. update lists of weather entries accordingly.  Only the
+            // preferred location is on screen, so only its observers need to re-query.
+            getContentResolver().notifyChange(WeatherContract.WeatherEntry.buildWeatherLocation(
+                    Utility.getPreferredLocation(this)), null);
         } else if ( key.equals(getString(R.string.pref_location_status_key)) ) {
             // our location status has changed.  Update the summary accordingly
             Preference locationPreference = findPreference(getString(R.string.pref_location_key));
             bindPreferenceSummaryToValue(locationPreference);
         } else if ( key.equals(getString(R.string.pref_art_pack_key)) ) {
-            // art pack have changed. update lists of weather entries accordingly
-            getContentResolver().notifyChange(WeatherContract.WeatherEntry.CONTENT_URI, null);
+            // art pack have changed. update lists of weather entries accordingly, which load
+            // the new pack's art from the network until it is installed
+            getContentResolver().notifyChange(WeatherContract.WeatherEntry.buildWeatherLocation(
+                    Utility.getPreferredLocation(this)), null);
+            startService(new Intent(this, ArtPackInstallService.class));
         }
     }
 
@@ -0,0 +1,320 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.art;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.preference.PreferenceManager;
+import android.util.Log;
+import android.util.LruCache;
+
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.Utility;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps a remote art pack on the device, so that the forecast list, the detail view, the
+ * widgets and the notification all show its art without going to the network.
+ * <p>
+ * A pack only has one image per artwork name, a handful in all.  {@link #install} downloads
+ * each of them once, scales it to every size the app shows art at, and stores the results
+ * in the app's files.  {@link #getArt} decodes them from there, and keeps the decoded bitmaps
+ * in memory so that every surface in the process shares them.  Until the preferred pack is
+ * installed it returns null, and callers fall back to loading the pack's URL.
+ */
+public class ArtPack {
+    public static final String LOG_TAG = ArtPack.class.getSimpleName();
+
+    // The sizes art is shown at
+    public static final int SIZE_LIST = 0;
+    public static final int SIZE_TODAY = 1;
+    public static final int SIZE_NOTIFICATION = 2;
+
+    // Every name Utility.getArtNameForWeatherCondition gives
+    static final String[] ART_NAMES = {
+            "clear", "clouds", "fog", "light_clouds", "light_rain", "rain", "snow", "storm"
+    };
+
+    private static final String PACKS_DIRECTORY = "art_packs";
+    // Enough for every artwork at every size on an xxxhdpi screen
+    private static final int BITMAP_CACHE_BYTES = 8 * 1024 * 1024;
+    private static final int TIMEOUT_MILLIS = 15000;
+
+    private static ArtPack sInstance;
+
+    private final Context mContext;
+    private final File mPacksDirectory;
+    private final int[] mSizes;
+    private final LruCache<String, Bitmap> mBitmaps = new LruCache<String, Bitmap>(BITMAP_CACHE_BYTES) {
+        @Override
+        protected int sizeOf(String key, Bitmap value) {
+            return value.getByteCount();
+        }
+    };
+
+    // For this process's lifetime
+    private final AtomicInteger mNetworkFetches = new AtomicInteger();
+    private final AtomicInteger mDecodes = new AtomicInteger();
+    private final AtomicLong mDecodeNanos = new AtomicLong();
+    private final AtomicInteger mMemoryHits = new AtomicInteger();
+
+    ArtPack(Context context, File packsDirectory) {
+        mContext = context.getApplicationContext();
+        mPacksDirectory = packsDirectory;
+        Resources resources = mContext.getResources();
+        mSizes = new int[]{
+                resources.getDimensionPixelSize(R.dimen.list_icon),
+                resources.getDimensionPixelSize(R.dimen.today_icon),
+                Math.max(
+                        resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_width),
+                        resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_height))
+        };
+    }
+
+    public static synchronized ArtPack getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new ArtPack(context, new File(context.getFilesDir(), PACKS_DIRECTORY));
+        }
+        return sInstance;
+    }
+
+    /**
+     * @return the preferred pack's URL format, or null if it is the app's own graphics.
+     */
+    String getPreferredPack() {
+        if (Utility.usingLocalGraphics(mContext)) {
+            return null;
+        }
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+        return prefs.getString(mContext.getString(R.string.pref_art_pack_key), null);
+    }
+
+    private File getPackDirectory(String urlFormat) {
+        return new File(mPacksDirectory, Integer.toHexString(urlFormat.hashCode()));
+    }
+
+    private File getArtFile(File packDirectory, String artName, int size) {
+        return new File(packDirectory, artName + "_" + mSizes[size] + ".png");
+    }
+
+    /**
+     * @return whether the pack is stored at the sizes this device shows art at.
+     */
+    public boolean isInstalled(String urlFormat) {
+        // The last file written, so it is only there if all the others are
+        return getArtFile(getPackDirectory(urlFormat), ART_NAMES[ART_NAMES.length - 1],
+                SIZE_NOTIFICATION).exists();
+    }
+
+    /**
+     * Installs the preferred pack if it isn't installed yet.  Blocks while downloading.
+     *
+     * @return whether the preferred pack is now installed, which is false for the app's own
+     * graphics since they don't need it.
+     */
+    public boolean installPreferred() {
+        String urlFormat = getPreferredPack();
+        return urlFormat != null && install(urlFormat);
+    }
+
+    /**
+     * Downloads every artwork of the pack at urlFormat and stores it at each size, replacing
+     * any other pack.  Nothing is kept unless every artwork arrives.  Blocks while downloading.
+     *
+     * @return whether the pack is installed.
+     */
+    public synchronized boolean install(String urlFormat) {
+        if (isInstalled(urlFormat)) {
+            return true;
+        }
+        File packDirectory = getPackDirectory(urlFormat);
+        File staging = new File(mPacksDirectory, packDirectory.getName() + ".tmp");
+        deleteRecursively(staging);
+        if (!staging.mkdirs()) {
+            Log.e(LOG_TAG, "Couldn't create " + staging);
+            return false;
+        }
+        long start = System.nanoTime();
+        try {
+            for (String artName : ART_NAMES) {
+                String url = String.format(Locale.US, urlFormat, artName);
+                byte[] image = download(url);
+                Bitmap original = BitmapFactory.decodeByteArray(image, 0, image.length);
+                if (original == null) {
+                    throw new IOException("Not an image: " + url);
+                }
+                for (int size = 0; size < mSizes.length; size++) {
+                    Bitmap scaled = scaleToFit(original, mSizes[size]);
+                    write(scaled, getArtFile(staging, artName, size));
+                    if (scaled != original) {
+                        scaled.recycle();
+                    }
+                }
+                original.recycle();
+            }
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Couldn't install the art pack " + urlFormat, e);
+            deleteRecursively(staging);
+            return false;
+        }
+
+        // Only one pack is kept; the previous one goes as this one takes its place
+        File[] previous = mPacksDirectory.listFiles();
+        if (previous != null) {
+            for (File file : previous) {
+                if (!file.equals(staging)) {
+                    deleteRecursively(file);
+                }
+            }
+        }
+        if (!staging.renameTo(packDirectory)) {
+            Log.e(LOG_TAG, "Couldn't move the art pack into " + packDirectory);
+            deleteRecursively(staging);
+            return false;
+        }
+        mBitmaps.evictAll();
+        Log.d(LOG_TAG, "Installed " + urlFormat + " in " +
+                (System.nanoTime() - start) / 1000000 + "ms; " + getStats());
+        return true;
+    }
+
+    /**
+     * @return the preferred pack's art for the weather condition at one of the SIZE_ sizes, or
+     * null if the preferred pack is the app's own graphics or isn't installed yet.  May decode
+     * the art, so isn't for the main thread.
+     */
+    public Bitmap getArt(int weatherId, int size) {
+        return getArt(weatherId, size, true);
+    }
+
+    /**
+     * Like {@link #getArt}, but only returns art already decoded, so it is quick enough for
+     * the main thread.
+     */
+    public Bitmap getDecodedArt(int weatherId, int size) {
+        return getArt(weatherId, size, false);
+    }
+
+    private Bitmap getArt(int weatherId, int size, boolean decode) {
+        String urlFormat = getPreferredPack();
+        String artName = Utility.getArtNameForWeatherCondition(weatherId);
+        if (urlFormat == null || artName == null) {
+            return null;
+        }
+        File file = getArtFile(getPackDirectory(urlFormat), artName, size);
+        String key = file.getPath();
+        Bitmap bitmap = mBitmaps.get(key);
+        if (bitmap != null) {
+            mMemoryHits.incrementAndGet();
+            return bitmap;
+        }
+        if (!decode || !file.exists()) {
+            return null;
+        }
+        long start = System.nanoTime();
+        bitmap = BitmapFactory.decodeFile(key);
+        mDecodeNanos.addAndGet(System.nanoTime() - start);
+        mDecodes.incrementAndGet();
+        if (bitmap != null) {
+            mBitmaps.put(key, bitmap);
+        }
+        return bitmap;
+    }
+
+    /**
+     * @return the network fetches, decodes and decode time of this process so far.
+     */
+    public String getStats() {
+        int decodes = mDecodes.get();
+        return mNetworkFetches.get() + " network fetches, " + decodes + " decodes taking " +
+                mDecodeNanos.get() / 1000 + "us" +
+                (decodes > 0 ? " (" + mDecodeNanos.get() / decodes / 1000 + "us each)" : "") +
+                ", " + mMemoryHits.get() + " served from memory";
+    }
+
+    int getNetworkFetches() {
+        return mNetworkFetches.get();
+    }
+
+    int getDecodes() {
+        return mDecodes.get();
+    }
+
+    private byte[] download(String url) throws IOException {
+        mNetworkFetches.incrementAndGet();
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setConnectTimeout(TIMEOUT_MILLIS);
+        connection.setReadTimeout(TIMEOUT_MILLIS);
+        try {
+            if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+                throw new IOException(connection.getResponseCode() + " for " + url);
+            }
+            InputStream in = connection.getInputStream();
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            in.close();
+            return out.toByteArray();
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private static Bitmap scaleToFit(Bitmap bitmap, int size) {
+        float scale = Math.min((float) size / bitmap.getWidth(), (float) size / bitmap.getHeight());
+        int width = Math.max(1, Math.round(bitmap.getWidth() * scale));
+        int height = Math.max(1, Math.round(bitmap.getHeight() * scale));
+        return Bitmap.createScaledBitmap(bitmap, width, height, true);
+    }
+
+    private static void write(Bitmap bitmap, File file) throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        try {
+            if (!bitmap.compress(Bitmap.CompressFormat.PNG, 100, out)) {
+                throw new IOException("Couldn't write " + file);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+}
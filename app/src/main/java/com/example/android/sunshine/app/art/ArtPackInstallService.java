@@ -0,0 +1,45 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.art;
+
+import android.app.IntentService;
+import android.content.Intent;
+
+import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
+
+/**
+ * IntentService which installs the preferred art pack, then has the list, the detail view and
+ * the widgets show it.  Until it is done they load the pack's art from the network.
+ */
+public class ArtPackInstallService extends IntentService {
+    public ArtPackInstallService() {
+        super("ArtPackInstallService");
+    }
+
+    @Override
+    protected void onHandleIntent(Intent intent) {
+        if (!ArtPack.getInstance(this).installPreferred()) {
+            return;
+        }
+        getContentResolver().notifyChange(WeatherContract.WeatherEntry.buildWeatherLocation(
+                Utility.getPreferredLocation(this)), null);
+        // Setting the package ensures that only components in our app will receive the broadcast
+        sendBroadcast(new Intent(SunshineSyncAdapter.ACTION_DATA_UPDATED)
+                .setPackage(getPackageName()));
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.File;
+
+/**
+ * Housekeeping for weather.db: refreshes the query planner's statistics, returns free pages
+ * left behind by REPLACE churn to the file system and checks the database's integrity.
+ * <p>
+ * Incremental vacuum needs auto_vacuum=INCREMENTAL, which an existing database only picks up
+ * through one full VACUUM, so the first run converts the database and later runs are cheap.
+ * None of the steps may run inside a transaction; the provider makes sure no write batch is
+ * open while they run.
+ */
+class DatabaseMaintenance {
+
+    private static final String LOG_TAG = DatabaseMaintenance.class.getSimpleName();
+
+    private static final int AUTO_VACUUM_INCREMENTAL = 2;
+
+    private DatabaseMaintenance() {
+    }
+
+    /**
+     * Runs every maintenance step and returns the file size, page counts, integrity and
+     * elapsed time as a bundle of the WeatherContract.EXTRA_MAINTENANCE_* extras.
+     */
+    static Bundle run(SQLiteDatabase db, File databaseFile) {
+        long start = SystemClock.elapsedRealtime();
+        Bundle report = new Bundle();
+        report.putLong(WeatherContract.EXTRA_MAINTENANCE_SIZE_BEFORE, databaseFile.length());
+        report.putLong(WeatherContract.EXTRA_MAINTENANCE_FREE_PAGES_BEFORE,
+                pragmaLong(db, "freelist_count"));
+
+        if (supportsOptimize(db)) {
+            pragma(db, "optimize");
+        } else {
+            db.execSQL("ANALYZE");
+        }
+
+        if (pragmaLong(db, "auto_vacuum") != AUTO_VACUUM_INCREMENTAL) {
+            pragma(db, "auto_vacuum = INCREMENTAL");
+            db.execSQL("VACUUM");
+        } else {
+            pragma(db, "incremental_vacuum");
+        }
+
+        boolean integrityOk = db.isDatabaseIntegrityOk();
+
+        report.putLong(WeatherContract.EXTRA_MAINTENANCE_SIZE_AFTER, databaseFile.length());
+        report.putLong(WeatherContract.EXTRA_MAINTENANCE_FREE_PAGES_AFTER,
+                pragmaLong(db, "freelist_count"));
+        report.putBoolean(WeatherContract.EXTRA_MAINTENANCE_INTEGRITY_OK, integrityOk);
+        report.putLong(WeatherContract.EXTRA_MAINTENANCE_ELAPSED_MILLIS,
+                SystemClock.elapsedRealtime() - start);
+
+        if (!integrityOk) {
+            Log.e(LOG_TAG, "Integrity check failed for " + databaseFile);
+        }
+        return report;
+    }
+
+    static String describe(Bundle report) {
+        return "size " + report.getLong(WeatherContract.EXTRA_MAINTENANCE_SIZE_BEFORE) +
+                " -> " + report.getLong(WeatherContract.EXTRA_MAINTENANCE_SIZE_AFTER) +
+                " bytes, free pages " +
+                report.getLong(WeatherContract.EXTRA_MAINTENANCE_FREE_PAGES_BEFORE) +
+                " -> " + report.getLong(WeatherContract.EXTRA_MAINTENANCE_FREE_PAGES_AFTER) +
+                ", integrity " +
+                (report.getBoolean(WeatherContract.EXTRA_MAINTENANCE_INTEGRITY_OK) ? "ok" : "FAILED") +
+                ", " + report.getLong(WeatherContract.EXTRA_MAINTENANCE_ELAPSED_MILLIS) + "ms";
+    }
+
+    // PRAGMA optimize arrived in SQLite 3.18
+    private static boolean supportsOptimize(SQLiteDatabase db) {
+        Cursor cursor = db.rawQuery("SELECT sqlite_version()", null);
+        try {
+            if (!cursor.moveToFirst()) {
+                return false;
+            }
+            String[] parts = cursor.getString(0).split("\\.");
+            int major = Integer.parseInt(parts[0]);
+            int minor = parts.length > 1 ? Integer.parseInt(parts[1]) : 0;
+            return major > 3 || (major == 3 && minor >= 18);
+        } catch (NumberFormatException e) {
+            return false;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    // Some pragmas return rows, which execSQL refuses, so step through them as a query
+    private static void pragma(SQLiteDatabase db, String pragma) {
+        Cursor cursor = db.rawQuery("PRAGMA " + pragma, null);
+        try {
+            while (cursor.moveToNext()) {
+                // Nothing to read
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static long pragmaLong(SQLiteDatabase db, String pragma) {
+        Cursor cursor = db.rawQuery("PRAGMA " + pragma, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : 0;
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.os.Bundle;
+
+/**
+ * The forecast for one location from a start date onwards, as parallel primitive arrays.
+ * <p>
+ * Widgets and the Muzei source only need a handful of values per day and read them once, so
+ * rather than a cursor and its CursorWindow they fetch this snapshot from the provider in a
+ * single {@link ContentResolver#call} and index the arrays directly.  The bundle carries a
+ * version so that a reader never misinterprets a snapshot with a different layout.
+ */
+public class ForecastSnapshot {
+
+    // Bump whenever the keys or array types below change
+    public static final int VERSION = 2;
+
+    static final String KEY_VERSION = "version";
+    static final String KEY_IDS = "ids";
+    static final String KEY_DATES = "dates";
+    static final String KEY_WEATHER_IDS = "weather_ids";
+    static final String KEY_SHORT_DESCS = "short_descs";
+    static final String KEY_MAX_TEMPS = "max_temps";
+    static final String KEY_MIN_TEMPS = "min_temps";
+    static final String KEY_FETCHED_AT = "fetched_at";
+
+    // The columns the provider reads to build a snapshot
+    static final String[] COLUMNS = {
+            WeatherContract.WeatherEntry.TABLE_NAME + "." + WeatherContract.WeatherEntry._ID,
+            WeatherContract.WeatherEntry.COLUMN_DATE,
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherContract.LocationEntry.COLUMN_FETCHED_AT
+    };
+    // these indices must match the projection
+    private static final int INDEX_ID = 0;
+    private static final int INDEX_DATE = 1;
+    private static final int INDEX_WEATHER_ID = 2;
+    private static final int INDEX_SHORT_DESC = 3;
+    private static final int INDEX_MAX_TEMP = 4;
+    private static final int INDEX_MIN_TEMP = 5;
+    private static final int INDEX_FETCHED_AT = 6;
+
+    private final long[] mIds;
+    private final long[] mDates;
+    private final int[] mWeatherIds;
+    private final String[] mShortDescs;
+    private final double[] mMaxTemps;
+    private final double[] mMinTemps;
+    private final long mFetchedAt;
+
+    ForecastSnapshot(long[] ids, long[] dates, int[] weatherIds, String[] shortDescs,
+                     double[] maxTemps, double[] minTemps, long fetchedAt) {
+        mIds = ids;
+        mDates = dates;
+        mWeatherIds = weatherIds;
+        mShortDescs = shortDescs;
+        mMaxTemps = maxTemps;
+        mMinTemps = minTemps;
+        mFetchedAt = fetchedAt;
+    }
+
+    /**
+     * Fetches the forecast for the location from the given date onwards in one provider call.
+     *
+     * @return the snapshot, or null if the provider returned none or one of another version.
+     */
+    public static ForecastSnapshot query(ContentResolver resolver, String locationSetting,
+                                         long startDate) {
+        return query(resolver, locationSetting, startDate, -1);
+    }
+
+    /**
+     * As {@link #query(ContentResolver, String, long)}, also requesting a background refresh
+     * if the location was fetched more than maxAge milliseconds ago.
+     */
+    public static ForecastSnapshot query(ContentResolver resolver, String locationSetting,
+                                         long startDate, long maxAge) {
+        Bundle extras = new Bundle();
+        extras.putLong(WeatherContract.EXTRA_DATE, startDate);
+        extras.putLong(WeatherContract.EXTRA_MAX_AGE, maxAge);
+        Bundle result = resolver.call(WeatherContract.BASE_CONTENT_URI,
+                WeatherContract.METHOD_GET_FORECAST_SNAPSHOT, locationSetting, extras);
+        return fromBundle(result);
+    }
+
+    /**
+     * @return the snapshot in the bundle, or null if it is missing or of another version.
+     */
+    public static ForecastSnapshot fromBundle(Bundle bundle) {
+        if (bundle == null || bundle.getInt(KEY_VERSION) != VERSION) {
+            return null;
+        }
+        return new ForecastSnapshot(
+                bundle.getLongArray(KEY_IDS),
+                bundle.getLongArray(KEY_DATES),
+                bundle.getIntArray(KEY_WEATHER_IDS),
+                bundle.getStringArray(KEY_SHORT_DESCS),
+                bundle.getDoubleArray(KEY_MAX_TEMPS),
+                bundle.getDoubleArray(KEY_MIN_TEMPS),
+                bundle.getLong(KEY_FETCHED_AT));
+    }
+
+    /**
+     * Reads every row of a cursor over {@link #COLUMNS}.  Does not close the cursor.
+     */
+    static ForecastSnapshot fromCursor(Cursor cursor) {
+        int count = cursor.getCount();
+        long[] ids = new long[count];
+        long[] dates = new long[count];
+        int[] weatherIds = new int[count];
+        String[] shortDescs = new String[count];
+        double[] maxTemps = new double[count];
+        double[] minTemps = new double[count];
+        // Every row comes from the same location
+        long fetchedAt = cursor.moveToFirst() && !cursor.isNull(INDEX_FETCHED_AT)
+                ? cursor.getLong(INDEX_FETCHED_AT) : 0;
+        cursor.moveToPosition(-1);
+        for (int i = 0; i < count && cursor.moveToNext(); i++) {
+            ids[i] = cursor.getLong(INDEX_ID);
+            dates[i] = cursor.getLong(INDEX_DATE);
+            weatherIds[i] = cursor.getInt(INDEX_WEATHER_ID);
+            shortDescs[i] = cursor.getString(INDEX_SHORT_DESC);
+            maxTemps[i] = cursor.getDouble(INDEX_MAX_TEMP);
+            minTemps[i] = cursor.getDouble(INDEX_MIN_TEMP);
+        }
+        return new ForecastSnapshot(ids, dates, weatherIds, shortDescs, maxTemps, minTemps,
+                fetchedAt);
+    }
+
+    Bundle toBundle() {
+        Bundle bundle = new Bundle();
+        bundle.putInt(KEY_VERSION, VERSION);
+        bundle.putLongArray(KEY_IDS, mIds);
+        bundle.putLongArray(KEY_DATES, mDates);
+        bundle.putIntArray(KEY_WEATHER_IDS, mWeatherIds);
+        bundle.putStringArray(KEY_SHORT_DESCS, mShortDescs);
+        bundle.putDoubleArray(KEY_MAX_TEMPS, mMaxTemps);
+        bundle.putDoubleArray(KEY_MIN_TEMPS, mMinTemps);
+        bundle.putLong(KEY_FETCHED_AT, mFetchedAt);
+        return bundle;
+    }
+
+    public int getCount() {
+        return mIds.length;
+    }
+
+    public long getId(int position) {
+        return mIds[position];
+    }
+
+    public long getDate(int position) {
+        return mDates[position];
+    }
+
+    public int getWeatherId(int position) {
+        return mWeatherIds[position];
+    }
+
+    public String getShortDesc(int position) {
+        return mShortDescs[position];
+    }
+
+    public double getMaxTemp(int position) {
+        return mMaxTemps[position];
+    }
+
+    public double getMinTemp(int position) {
+        return mMinTemps[position];
+    }
+
+    /**
+     * @return when the forecast was fetched, or 0 if that is not known.
+     */
+    public long getFetchedAt() {
+        return mFetchedAt;
+    }
+}
@@ -0,0 +1,252 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * In-memory, read-through cache of forecast query results, keyed by location and date.
+ * <p>
+ * After a sync, the forecast list, both widgets, Muzei and the notification all ask for the
+ * same "today and forward" rows for the preferred location.  The first query materializes the
+ * rows into a snapshot; later queries are answered from memory until a write touches that
+ * location.  The cache is bounded by an approximate byte budget with LRU eviction.
+ */
+class ForecastSnapshotCache {
+
+    // Rough per-object overheads used when estimating the size of a snapshot
+    private static final int ROW_OVERHEAD_BYTES = 16;
+    private static final int CELL_BYTES = 8;
+    private static final int STRING_OVERHEAD_BYTES = 40;
+
+    private final long mMaxBytes;
+
+    // Access-ordered, so iteration starts at the least recently used snapshot
+    private final LinkedHashMap<Key, Snapshot> mSnapshots =
+            new LinkedHashMap<Key, Snapshot>(16, 0.75f, true);
+
+    private long mBytesHeld;
+    private long mHits;
+    private long mMisses;
+    private long mEvictions;
+
+    // Bumped on every invalidation.  A snapshot built from a read that started before an
+    // invalidation may already be stale, so it is not stored.
+    private long mGeneration;
+
+    ForecastSnapshotCache(long maxBytes) {
+        mMaxBytes = maxBytes;
+    }
+
+    static final class Key {
+        final String locationSetting;
+        final int route;
+        final long date;
+        final String[] projection;
+        final String sortOrder;
+
+        Key(String locationSetting, int route, long date, String[] projection, String sortOrder) {
+            this.locationSetting = locationSetting;
+            this.route = route;
+            this.date = date;
+            this.projection = projection == null ? null : projection.clone();
+            this.sortOrder = sortOrder;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key other = (Key) o;
+            return route == other.route
+                    && date == other.date
+                    && locationSetting.equals(other.locationSetting)
+                    && Arrays.equals(projection, other.projection)
+                    && (sortOrder == null ? other.sortOrder == null : sortOrder.equals(other.sortOrder));
+        }
+
+        @Override
+        public int hashCode() {
+            int result = locationSetting.hashCode();
+            result = 31 * result + route;
+            result = 31 * result + (int) (date ^ (date >>> 32));
+            result = 31 * result + Arrays.hashCode(projection);
+            result = 31 * result + (sortOrder == null ? 0 : sortOrder.hashCode());
+            return result;
+        }
+    }
+
+    private static final class Snapshot {
+        final String[] columns;
+        final Object[][] rows;
+        final long bytes;
+
+        Snapshot(String[] columns, Object[][] rows, long bytes) {
+            this.columns = columns;
+            this.rows = rows;
+            this.bytes = bytes;
+        }
+    }
+
+    /**
+     * @return the generation to pass to {@link #put} for a read that starts now.
+     */
+    synchronized long getGeneration() {
+        return mGeneration;
+    }
+
+    /**
+     * @return a new cursor over the cached rows, or null if the key is not cached.
+     */
+    synchronized Cursor get(Key key) {
+        Snapshot snapshot = mSnapshots.get(key);
+        if (snapshot == null) {
+            mMisses++;
+            return null;
+        }
+        mHits++;
+        MatrixCursor cursor = new MatrixCursor(snapshot.columns, snapshot.rows.length);
+        for (Object[] row : snapshot.rows) {
+            cursor.addRow(row);
+        }
+        return cursor;
+    }
+
+    /**
+     * Copies the rows of the given cursor into the cache and closes it.
+     *
+     * @return a cursor over the copied rows, positioned before the first row.
+     */
+    Cursor put(Key key, Cursor source, long generation) {
+        String[] columns = source.getColumnNames();
+        Object[][] rows = new Object[source.getCount()][];
+        long bytes = ROW_OVERHEAD_BYTES;
+        try {
+            int row = 0;
+            while (source.moveToNext()) {
+                Object[] values = new Object[columns.length];
+                for (int i = 0; i < columns.length; i++) {
+                    switch (source.getType(i)) {
+                        case Cursor.FIELD_TYPE_INTEGER:
+                            values[i] = source.getLong(i);
+                            bytes += CELL_BYTES;
+                            break;
+                        case Cursor.FIELD_TYPE_FLOAT:
+                            values[i] = source.getDouble(i);
+                            bytes += CELL_BYTES;
+                            break;
+                        case Cursor.FIELD_TYPE_STRING:
+                            String string = source.getString(i);
+                            values[i] = string;
+                            bytes += STRING_OVERHEAD_BYTES + 2 * string.length();
+                            break;
+                        case Cursor.FIELD_TYPE_BLOB:
+                            byte[] blob = source.getBlob(i);
+                            values[i] = blob;
+                            bytes += CELL_BYTES + blob.length;
+                            break;
+                        default:
+                            values[i] = null;
+                    }
+                }
+                rows[row++] = values;
+                bytes += ROW_OVERHEAD_BYTES;
+            }
+        } finally {
+            source.close();
+        }
+
+        Snapshot snapshot = new Snapshot(columns, rows, bytes);
+        synchronized (this) {
+            if (generation == mGeneration && bytes <= mMaxBytes) {
+                Snapshot previous = mSnapshots.put(key, snapshot);
+                if (previous != null) {
+                    mBytesHeld -= previous.bytes;
+                }
+                mBytesHeld += bytes;
+                trimToSize();
+            }
+        }
+
+        MatrixCursor cursor = new MatrixCursor(columns, rows.length);
+        for (Object[] row : rows) {
+            cursor.addRow(row);
+        }
+        return cursor;
+    }
+
+    /**
+     * Drops every snapshot for the given location.
+     */
+    synchronized void invalidate(String locationSetting) {
+        mGeneration++;
+        Iterator<Map.Entry<Key, Snapshot>> it = mSnapshots.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Key, Snapshot> entry = it.next();
+            if (entry.getKey().locationSetting.equals(locationSetting)) {
+                mBytesHeld -= entry.getValue().bytes;
+                it.remove();
+            }
+        }
+    }
+
+    synchronized void invalidateAll() {
+        mGeneration++;
+        mSnapshots.clear();
+        mBytesHeld = 0;
+    }
+
+    private void trimToSize() {
+        Iterator<Map.Entry<Key, Snapshot>> it = mSnapshots.entrySet().iterator();
+        while (mBytesHeld > mMaxBytes && it.hasNext()) {
+            mBytesHeld -= it.next().getValue().bytes;
+            it.remove();
+            mEvictions++;
+        }
+    }
+
+    synchronized long getHitCount() {
+        return mHits;
+    }
+
+    synchronized long getMissCount() {
+        return mMisses;
+    }
+
+    synchronized long getBytesHeld() {
+        return mBytesHeld;
+    }
+
+    synchronized float getHitRate() {
+        long lookups = mHits + mMisses;
+        return lookups == 0 ? 0f : (float) mHits / lookups;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "ForecastSnapshotCache{entries=" + mSnapshots.size()
+                + ", bytes=" + mBytesHeld + "/" + mMaxBytes
+                + ", hits=" + mHits
+                + ", misses=" + mMisses
+                + ", evictions=" + mEvictions + "}";
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * A read-only copy of the preferred location's forecast in a small binary file, so that a cold
+ * start can show the forecast before the database has even been opened.
+ * <p>
+ * The provider rewrites the file after every committed change to that location.  Readers
+ * memory-map it and get a {@link ForecastSnapshot}, or null if the file is missing, for
+ * another location or in another format, in which case they wait for the database as before.
+ */
+public class ForecastSnapshotFile {
+
+    private static final String LOG_TAG = ForecastSnapshotFile.class.getSimpleName();
+
+    private static final String FILE_NAME = "forecast.snapshot";
+
+    // "SUNS", then the format version; bump it whenever the layout below changes
+    private static final int MAGIC = 0x53554E53;
+    private static final int FORMAT_VERSION = 1;
+
+    // A row with an empty description
+    private static final int MIN_ROW_BYTES = 8 + 8 + 4 + 8 + 8 + 2;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private ForecastSnapshotFile() {
+    }
+
+    static File getFile(Context context) {
+        // Derived from the database, so there's no point backing it up
+        return new File(context.getNoBackupFilesDir(), FILE_NAME);
+    }
+
+    /**
+     * Replaces the file with the given snapshot.  The new file is written aside and renamed
+     * over the old one, so readers never see a partly written file.
+     */
+    static void write(Context context, String locationSetting, ForecastSnapshot snapshot)
+            throws IOException {
+        byte[] location = locationSetting.getBytes(UTF_8);
+        byte[][] descriptions = new byte[snapshot.getCount()][];
+        int size = 4 + 4 + 2 + location.length + 8 + 4;
+        for (int i = 0; i < descriptions.length; i++) {
+            String description = snapshot.getShortDesc(i);
+            descriptions[i] = description == null ? new byte[0] : description.getBytes(UTF_8);
+            size += MIN_ROW_BYTES + descriptions[i].length;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.putInt(MAGIC);
+        buffer.putInt(FORMAT_VERSION);
+        buffer.putShort((short) location.length);
+        buffer.put(location);
+        buffer.putLong(snapshot.getFetchedAt());
+        buffer.putInt(snapshot.getCount());
+        for (int i = 0; i < descriptions.length; i++) {
+            buffer.putLong(snapshot.getId(i));
+            buffer.putLong(snapshot.getDate(i));
+            buffer.putInt(snapshot.getWeatherId(i));
+            buffer.putDouble(snapshot.getMaxTemp(i));
+            buffer.putDouble(snapshot.getMinTemp(i));
+            buffer.putShort((short) descriptions[i].length);
+            buffer.put(descriptions[i]);
+        }
+
+        File file = getFile(context);
+        File temp = new File(file.getPath() + ".tmp");
+        FileOutputStream out = new FileOutputStream(temp);
+        try {
+            out.write(buffer.array());
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+        if (!temp.renameTo(file)) {
+            throw new IOException("Could not rename " + temp + " to " + file);
+        }
+    }
+
+    /**
+     * @return the forecast for the location from the day of startDate onwards, or null if the
+     * file does not hold a usable one.
+     */
+    public static ForecastSnapshot read(Context context, String locationSetting, long startDate) {
+        startDate = WeatherContract.normalizeDate(startDate);
+        File file = getFile(context);
+        if (!file.exists()) {
+            return null;
+        }
+        try {
+            RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+            try {
+                FileChannel channel = randomAccessFile.getChannel();
+                MappedByteBuffer buffer =
+                        channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                return parse(buffer, locationSetting, startDate);
+            } finally {
+                randomAccessFile.close();
+            }
+        } catch (IOException | BufferUnderflowException | IllegalArgumentException e) {
+            Log.w(LOG_TAG, "Ignoring unreadable forecast snapshot file", e);
+            return null;
+        }
+    }
+
+    static void delete(Context context) {
+        getFile(context).delete();
+    }
+
+    private static ForecastSnapshot parse(ByteBuffer buffer, String locationSetting,
+                                          long startDate) {
+        if (buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION) {
+            return null;
+        }
+        byte[] location = new byte[buffer.getShort() & 0xFFFF];
+        buffer.get(location);
+        if (!locationSetting.equals(new String(location, UTF_8))) {
+            return null;
+        }
+        long fetchedAt = buffer.getLong();
+        int count = buffer.getInt();
+        if (count < 0 || count > buffer.remaining() / MIN_ROW_BYTES) {
+            return null;
+        }
+
+        long[] ids = new long[count];
+        long[] dates = new long[count];
+        int[] weatherIds = new int[count];
+        String[] shortDescs = new String[count];
+        double[] maxTemps = new double[count];
+        double[] minTemps = new double[count];
+        // Rows are in date order; the ones before startDate have gone by since the file was
+        // written, so are dropped
+        int kept = 0;
+        for (int i = 0; i < count; i++) {
+            long id = buffer.getLong();
+            long date = buffer.getLong();
+            int weatherId = buffer.getInt();
+            double maxTemp = buffer.getDouble();
+            double minTemp = buffer.getDouble();
+            byte[] description = new byte[buffer.getShort() & 0xFFFF];
+            buffer.get(description);
+            if (date < startDate) {
+                continue;
+            }
+            ids[kept] = id;
+            dates[kept] = date;
+            weatherIds[kept] = weatherId;
+            maxTemps[kept] = maxTemp;
+            minTemps[kept] = minTemp;
+            shortDescs[kept] = new String(description, UTF_8);
+            kept++;
+        }
+        if (kept < count) {
+            ids = Arrays.copyOf(ids, kept);
+            dates = Arrays.copyOf(dates, kept);
+            weatherIds = Arrays.copyOf(weatherIds, kept);
+            shortDescs = Arrays.copyOf(shortDescs, kept);
+            maxTemps = Arrays.copyOf(maxTemps, kept);
+            minTemps = Arrays.copyOf(minTemps, kept);
+        }
+        return new ForecastSnapshot(ids, dates, weatherIds, shortDescs, maxTemps, minTemps,
+                fetchedAt);
+    }
+}
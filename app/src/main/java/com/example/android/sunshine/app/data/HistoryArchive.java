@@ -0,0 +1,369 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.android.sunshine.app.data.WeatherContract.HistoryEntry;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.TimeZone;
+
+/**
+ * Archives past forecast days and compacts the archive into tiers.
+ * <p>
+ * Recent days stay at full resolution in the history table.  Older days are folded into
+ * weekly summaries, older weeks into monthly summaries, and the oldest months are dropped, so
+ * each location holds a bounded number of rows and a trend over a year reads a few dozen of
+ * them.  A hard row cap bounds the archive as a whole regardless of how many locations it
+ * covers.  Compaction runs as a series of small transactions so it never holds the database
+ * for long.
+ */
+class HistoryArchive {
+
+    static final long DAY_IN_MILLIS = JulianDay.DAY_IN_MILLIS;
+
+    // Tier boundaries, as ages in days
+    static final int DAILY_RETENTION_DAYS = 35;
+    static final int WEEKLY_RETENTION_DAYS = 182;
+    static final int MONTHLY_RETENTION_DAYS = 5 * 365;
+
+    // Hard cap on the number of rows across both history tables
+    static final int MAX_ROWS = 10000;
+
+    // Amount of work done in each compaction transaction
+    static final int BATCH_DAYS = 28;
+    static final int BATCH_ROWS = 500;
+
+    private HistoryArchive() {
+    }
+
+    /**
+     * Copies weather rows dated before the given date into the history table and deletes them
+     * from the weather table.  The caller is expected to hold a transaction.
+     *
+     * @return the number of rows archived.
+     */
+    static int archive(SQLiteDatabase db, long beforeDate) {
+        String[] args = new String[]{Long.toString(beforeDate)};
+        db.execSQL("INSERT OR REPLACE INTO " + HistoryEntry.TABLE_NAME + " (" +
+                HistoryEntry.COLUMN_LOCATION_SETTING + ", " +
+                HistoryEntry.COLUMN_DATE + ", " +
+                HistoryEntry.COLUMN_WEATHER_ID + ", " +
+                HistoryEntry.COLUMN_MIN_TEMP + ", " +
+                HistoryEntry.COLUMN_MAX_TEMP + ", " +
+                HistoryEntry.COLUMN_HUMIDITY + ", " +
+                HistoryEntry.COLUMN_PRESSURE + ", " +
+                HistoryEntry.COLUMN_WIND_SPEED + ") SELECT " +
+                LocationEntry.TABLE_NAME + "." + LocationEntry.COLUMN_LOCATION_SETTING + ", " +
+                WeatherEntry.COLUMN_DATE + ", " +
+                WeatherEntry.COLUMN_WEATHER_ID + ", " +
+                WeatherEntry.COLUMN_MIN_TEMP + ", " +
+                WeatherEntry.COLUMN_MAX_TEMP + ", " +
+                WeatherEntry.COLUMN_HUMIDITY + ", " +
+                WeatherEntry.COLUMN_PRESSURE + ", " +
+                WeatherEntry.COLUMN_WIND_SPEED + " FROM " +
+                WeatherEntry.TABLE_NAME + " INNER JOIN " + LocationEntry.TABLE_NAME + " ON " +
+                WeatherEntry.TABLE_NAME + "." + WeatherEntry.COLUMN_LOC_KEY + " = " +
+                LocationEntry.TABLE_NAME + "." + LocationEntry._ID + " WHERE " +
+                WeatherEntry.COLUMN_DATE + " < ?", args);
+        // Dates are stored as they are, so this can go straight to the stored rows
+        return db.delete(WeatherEntry.DATA_TABLE_NAME, WeatherEntry.COLUMN_DATE + " < ?", args);
+    }
+
+    /**
+     * Compacts the archive relative to the given day: days older than the daily retention
+     * become weekly summaries, weeks older than the weekly retention become monthly summaries,
+     * expired months are dropped, and the row cap is enforced.  Each step runs in batches,
+     * each batch in its own transaction.
+     * <p>
+     * Stored dates are local midnights, so weeks and months are those of the local calendar.
+     */
+    static void compact(SQLiteDatabase db, long today) {
+        TimeZone zone = TimeZone.getDefault();
+        long dailyCutoff = today - DAILY_RETENTION_DAYS * DAY_IN_MILLIS;
+        Long oldest;
+        while ((oldest = oldestBefore(db, HistoryEntry.TABLE_NAME,
+                HistoryEntry.COLUMN_DATE, null, dailyCutoff)) != null) {
+            long batchEnd = Math.min(oldest + BATCH_DAYS * DAY_IN_MILLIS, dailyCutoff);
+            db.beginTransaction();
+            try {
+                foldDaysIntoWeeks(db, zone, oldest, batchEnd);
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        }
+
+        long weeklyCutoff = today - WEEKLY_RETENTION_DAYS * DAY_IN_MILLIS;
+        while ((oldest = oldestBefore(db, HistoryEntry.SUMMARY_TABLE_NAME,
+                HistoryEntry.COLUMN_PERIOD_START, HistoryEntry.PERIOD_WEEK, weeklyCutoff)) != null) {
+            long batchEnd = Math.min(oldest + BATCH_DAYS * DAY_IN_MILLIS, weeklyCutoff);
+            db.beginTransaction();
+            try {
+                foldWeeksIntoMonths(db, zone, oldest, batchEnd);
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        }
+
+        long monthlyCutoff = today - MONTHLY_RETENTION_DAYS * DAY_IN_MILLIS;
+        db.delete(HistoryEntry.SUMMARY_TABLE_NAME,
+                HistoryEntry.COLUMN_PERIOD_START + " < ?",
+                new String[]{Long.toString(monthlyCutoff)});
+
+        enforceRowCap(db);
+    }
+
+    /**
+     * @return the total number of rows held across both history tables.
+     */
+    static long getRowCount(SQLiteDatabase db) {
+        Cursor cursor = db.rawQuery("SELECT (SELECT COUNT(*) FROM " + HistoryEntry.TABLE_NAME +
+                ") + (SELECT COUNT(*) FROM " + HistoryEntry.SUMMARY_TABLE_NAME + ")", null);
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : 0;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Returns one row per archived day, week or month of the given location whose start falls
+     * in [startDate, endDate], with min, max and mean values and the number of days each row
+     * summarizes.
+     */
+    static Cursor queryTrend(SQLiteDatabase db, String locationSetting, long startDate,
+                             long endDate, String[] projection, String sortOrder) {
+        String columns = projection == null ? "*" : joinColumns(projection);
+        if (sortOrder == null) {
+            sortOrder = HistoryEntry.COLUMN_PERIOD_START + " ASC";
+        }
+        String sql = "SELECT " + columns + " FROM (" +
+                "SELECT " + HistoryEntry.PERIOD_DAY + " AS " + HistoryEntry.COLUMN_PERIOD + ", " +
+                HistoryEntry.COLUMN_DATE + " AS " + HistoryEntry.COLUMN_PERIOD_START + ", " +
+                HistoryEntry.COLUMN_MIN_TEMP + ", " +
+                HistoryEntry.COLUMN_MAX_TEMP + ", " +
+                HistoryEntry.COLUMN_MIN_TEMP + " AS " + HistoryEntry.COLUMN_MEAN_MIN_TEMP + ", " +
+                HistoryEntry.COLUMN_MAX_TEMP + " AS " + HistoryEntry.COLUMN_MEAN_MAX_TEMP + ", " +
+                HistoryEntry.COLUMN_HUMIDITY + " AS " + HistoryEntry.COLUMN_MEAN_HUMIDITY + ", " +
+                "1 AS " + HistoryEntry.COLUMN_SAMPLE_COUNT +
+                " FROM " + HistoryEntry.TABLE_NAME +
+                " WHERE " + HistoryEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
+                HistoryEntry.COLUMN_DATE + " BETWEEN ? AND ?" +
+                " UNION ALL " +
+                "SELECT " + HistoryEntry.COLUMN_PERIOD + ", " +
+                HistoryEntry.COLUMN_PERIOD_START + ", " +
+                HistoryEntry.COLUMN_MIN_TEMP + ", " +
+                HistoryEntry.COLUMN_MAX_TEMP + ", " +
+                HistoryEntry.COLUMN_SUM_MIN_TEMP + " / " + HistoryEntry.COLUMN_SAMPLE_COUNT +
+                " AS " + HistoryEntry.COLUMN_MEAN_MIN_TEMP + ", " +
+                HistoryEntry.COLUMN_SUM_MAX_TEMP + " / " + HistoryEntry.COLUMN_SAMPLE_COUNT +
+                " AS " + HistoryEntry.COLUMN_MEAN_MAX_TEMP + ", " +
+                HistoryEntry.COLUMN_SUM_HUMIDITY + " / " + HistoryEntry.COLUMN_SAMPLE_COUNT +
+                " AS " + HistoryEntry.COLUMN_MEAN_HUMIDITY + ", " +
+                HistoryEntry.COLUMN_SAMPLE_COUNT +
+                " FROM " + HistoryEntry.SUMMARY_TABLE_NAME +
+                " WHERE " + HistoryEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
+                HistoryEntry.COLUMN_PERIOD_START + " BETWEEN ? AND ?" +
+                ") ORDER BY " + sortOrder;
+        String start = Long.toString(startDate);
+        String end = Long.toString(endDate);
+        return db.rawQuery(sql, new String[]{locationSetting, start, end,
+                locationSetting, start, end});
+    }
+
+    /*
+        Folds the days before beforeDate, none of which are before oldest, into weeks.
+     */
+    private static void foldDaysIntoWeeks(SQLiteDatabase db, TimeZone zone, long oldest,
+                                          long beforeDate) {
+        String[] args = new String[]{Long.toString(beforeDate)};
+        String weekStart = periodStartOf(HistoryEntry.COLUMN_DATE, HistoryEntry.PERIOD_WEEK,
+                zone, oldest, beforeDate);
+        mergeIntoSummary(db, HistoryEntry.PERIOD_WEEK,
+                "SELECT " + HistoryEntry.COLUMN_LOCATION_SETTING + ", " +
+                        weekStart + " AS " + HistoryEntry.COLUMN_PERIOD_START + ", " +
+                        "MIN(" + HistoryEntry.COLUMN_MIN_TEMP + ") AS " + HistoryEntry.COLUMN_MIN_TEMP + ", " +
+                        "MAX(" + HistoryEntry.COLUMN_MAX_TEMP + ") AS " + HistoryEntry.COLUMN_MAX_TEMP + ", " +
+                        "SUM(" + HistoryEntry.COLUMN_MIN_TEMP + ") AS " + HistoryEntry.COLUMN_SUM_MIN_TEMP + ", " +
+                        "SUM(" + HistoryEntry.COLUMN_MAX_TEMP + ") AS " + HistoryEntry.COLUMN_SUM_MAX_TEMP + ", " +
+                        "SUM(" + HistoryEntry.COLUMN_HUMIDITY + ") AS " + HistoryEntry.COLUMN_SUM_HUMIDITY + ", " +
+                        "COUNT(*) AS " + HistoryEntry.COLUMN_SAMPLE_COUNT +
+                        " FROM " + HistoryEntry.TABLE_NAME +
+                        " WHERE " + HistoryEntry.COLUMN_DATE + " < ?" +
+                        " GROUP BY " + HistoryEntry.COLUMN_LOCATION_SETTING + ", " + weekStart,
+                args);
+        db.delete(HistoryEntry.TABLE_NAME, HistoryEntry.COLUMN_DATE + " < ?", args);
+    }
+
+    /*
+        Folds the weeks starting before beforeDate, none of which start before oldest, into
+        months.
+     */
+    private static void foldWeeksIntoMonths(SQLiteDatabase db, TimeZone zone, long oldest,
+                                            long beforeDate) {
+        // A week that straddles two months is counted in the month it starts in
+        String[] args = new String[]{Integer.toString(HistoryEntry.PERIOD_WEEK),
+                Long.toString(beforeDate)};
+        String weekSelection = HistoryEntry.COLUMN_PERIOD + " = ? AND " +
+                HistoryEntry.COLUMN_PERIOD_START + " < ?";
+        String monthStart = periodStartOf(HistoryEntry.COLUMN_PERIOD_START,
+                HistoryEntry.PERIOD_MONTH, zone, oldest, beforeDate);
+        mergeIntoSummary(db, HistoryEntry.PERIOD_MONTH,
+                "SELECT " + HistoryEntry.COLUMN_LOCATION_SETTING + ", " +
+                        monthStart + " AS " + HistoryEntry.COLUMN_PERIOD_START + ", " +
+                        "MIN(" + HistoryEntry.COLUMN_MIN_TEMP + ") AS " + HistoryEntry.COLUMN_MIN_TEMP + ", " +
+                        "MAX(" + HistoryEntry.COLUMN_MAX_TEMP + ") AS " + HistoryEntry.COLUMN_MAX_TEMP + ", " +
+                        "SUM(" + HistoryEntry.COLUMN_SUM_MIN_TEMP + ") AS " + HistoryEntry.COLUMN_SUM_MIN_TEMP + ", " +
+                        "SUM(" + HistoryEntry.COLUMN_SUM_MAX_TEMP + ") AS " + HistoryEntry.COLUMN_SUM_MAX_TEMP + ", " +
+                        "SUM(" + HistoryEntry.COLUMN_SUM_HUMIDITY + ") AS " + HistoryEntry.COLUMN_SUM_HUMIDITY + ", " +
+                        "SUM(" + HistoryEntry.COLUMN_SAMPLE_COUNT + ") AS " + HistoryEntry.COLUMN_SAMPLE_COUNT +
+                        " FROM " + HistoryEntry.SUMMARY_TABLE_NAME +
+                        " WHERE " + weekSelection +
+                        // By the expression: the name would mean the weeks' own period_start
+                        " GROUP BY " + HistoryEntry.COLUMN_LOCATION_SETTING + ", " + monthStart,
+                args);
+        db.delete(HistoryEntry.SUMMARY_TABLE_NAME, weekSelection, args);
+    }
+
+    /**
+     * @return an SQL expression giving the start of the local week or month containing the
+     * date in dateColumn, for dates in [from, to).  SQLite only knows UTC and the system's
+     * zone, so the starts of the periods the range covers are worked out with
+     * {@link JulianDay} and listed, newest first.
+     */
+    private static String periodStartOf(String dateColumn, int period, TimeZone zone,
+                                        long from, long to) {
+        int first = startOfPeriod(period, JulianDay.fromMillis(from, zone));
+        StringBuilder sql = new StringBuilder("CASE");
+        for (int start = startOfPeriod(period, JulianDay.fromMillis(to - 1, zone));
+             start > first; start = startOfPeriod(period, start - 1)) {
+            long startMillis = JulianDay.toMillis(start, zone);
+            sql.append(" WHEN ").append(dateColumn).append(" >= ").append(startMillis)
+                    .append(" THEN ").append(startMillis);
+        }
+        return sql.append(" ELSE ").append(JulianDay.toMillis(first, zone)).append(" END")
+                .toString();
+    }
+
+    private static int startOfPeriod(int period, int julianDay) {
+        return period == HistoryEntry.PERIOD_MONTH
+                ? JulianDay.monthStart(julianDay) : JulianDay.weekStart(julianDay);
+    }
+
+    /**
+     * Merges grouped rows produced by the given select into the summary rows of the given
+     * period, combining them with any summary already stored for the same period start.
+     * Because minimums, maximums, sums and counts all combine exactly, a period can be
+     * compacted across several batches.
+     */
+    private static void mergeIntoSummary(SQLiteDatabase db, int period, String groupedSelect,
+                                         String[] args) {
+        db.execSQL("INSERT OR REPLACE INTO " + HistoryEntry.SUMMARY_TABLE_NAME + " (" +
+                HistoryEntry.COLUMN_LOCATION_SETTING + ", " +
+                HistoryEntry.COLUMN_PERIOD + ", " +
+                HistoryEntry.COLUMN_PERIOD_START + ", " +
+                HistoryEntry.COLUMN_MIN_TEMP + ", " +
+                HistoryEntry.COLUMN_MAX_TEMP + ", " +
+                HistoryEntry.COLUMN_SUM_MIN_TEMP + ", " +
+                HistoryEntry.COLUMN_SUM_MAX_TEMP + ", " +
+                HistoryEntry.COLUMN_SUM_HUMIDITY + ", " +
+                HistoryEntry.COLUMN_SAMPLE_COUNT + ") SELECT " +
+                "g." + HistoryEntry.COLUMN_LOCATION_SETTING + ", " +
+                period + ", " +
+                "g." + HistoryEntry.COLUMN_PERIOD_START + ", " +
+                "MIN(g." + HistoryEntry.COLUMN_MIN_TEMP + ", COALESCE(s." +
+                HistoryEntry.COLUMN_MIN_TEMP + ", g." + HistoryEntry.COLUMN_MIN_TEMP + ")), " +
+                "MAX(g." + HistoryEntry.COLUMN_MAX_TEMP + ", COALESCE(s." +
+                HistoryEntry.COLUMN_MAX_TEMP + ", g." + HistoryEntry.COLUMN_MAX_TEMP + ")), " +
+                "g." + HistoryEntry.COLUMN_SUM_MIN_TEMP + " + COALESCE(s." +
+                HistoryEntry.COLUMN_SUM_MIN_TEMP + ", 0), " +
+                "g." + HistoryEntry.COLUMN_SUM_MAX_TEMP + " + COALESCE(s." +
+                HistoryEntry.COLUMN_SUM_MAX_TEMP + ", 0), " +
+                "g." + HistoryEntry.COLUMN_SUM_HUMIDITY + " + COALESCE(s." +
+                HistoryEntry.COLUMN_SUM_HUMIDITY + ", 0), " +
+                "g." + HistoryEntry.COLUMN_SAMPLE_COUNT + " + COALESCE(s." +
+                HistoryEntry.COLUMN_SAMPLE_COUNT + ", 0)" +
+                " FROM (" + groupedSelect + ") g LEFT JOIN " +
+                HistoryEntry.SUMMARY_TABLE_NAME + " s ON " +
+                "s." + HistoryEntry.COLUMN_LOCATION_SETTING + " = g." +
+                HistoryEntry.COLUMN_LOCATION_SETTING + " AND " +
+                "s." + HistoryEntry.COLUMN_PERIOD + " = " + period + " AND " +
+                "s." + HistoryEntry.COLUMN_PERIOD_START + " = g." + HistoryEntry.COLUMN_PERIOD_START,
+                args);
+    }
+
+    /**
+     * Deletes the oldest rows, summaries first, until the archive is within MAX_ROWS.
+     */
+    private static void enforceRowCap(SQLiteDatabase db) {
+        long excess;
+        while ((excess = getRowCount(db) - MAX_ROWS) > 0) {
+            String limit = Long.toString(Math.min(excess, BATCH_ROWS));
+            int deleted = db.delete(HistoryEntry.SUMMARY_TABLE_NAME,
+                    HistoryEntry._ID + " IN (SELECT " + HistoryEntry._ID + " FROM " +
+                            HistoryEntry.SUMMARY_TABLE_NAME + " ORDER BY " +
+                            HistoryEntry.COLUMN_PERIOD_START + " ASC LIMIT ?)",
+                    new String[]{limit});
+            if (deleted == 0) {
+                deleted = db.delete(HistoryEntry.TABLE_NAME,
+                        HistoryEntry._ID + " IN (SELECT " + HistoryEntry._ID + " FROM " +
+                                HistoryEntry.TABLE_NAME + " ORDER BY " +
+                                HistoryEntry.COLUMN_DATE + " ASC LIMIT ?)",
+                        new String[]{limit});
+            }
+            if (deleted == 0) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return the oldest value of the date column below the cutoff, or null if there is none.
+     */
+    private static Long oldestBefore(SQLiteDatabase db, String table, String dateColumn,
+                                     Integer period, long cutoff) {
+        String selection = dateColumn + " < ?";
+        String[] args = new String[]{Long.toString(cutoff)};
+        if (period != null) {
+            selection = HistoryEntry.COLUMN_PERIOD + " = ? AND " + selection;
+            args = new String[]{period.toString(), Long.toString(cutoff)};
+        }
+        Cursor cursor = db.query(table, new String[]{"MIN(" + dateColumn + ")"},
+                selection, args, null, null, null);
+        try {
+            if (cursor.moveToFirst() && !cursor.isNull(0)) {
+                return cursor.getLong(0);
+            }
+            return null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static String joinColumns(String[] columns) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < columns.length; i++) {
+            if (i > 0) sb.append(", ");
+            sb.append(columns[i]);
+        }
+        return sb.toString();
+    }
+}
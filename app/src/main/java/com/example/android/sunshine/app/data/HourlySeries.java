@@ -0,0 +1,226 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import java.util.Arrays;
+
+/**
+ * The hourly forecast samples of one location and day, and their compact encoding.
+ * <p>
+ * Each day is stored as a single blob rather than one row per sample.  Samples are sorted by
+ * time, and each field is written as the zig-zag varint of its difference from the previous
+ * sample, after scaling decimals to integers.  Neighbouring samples differ by little, so most
+ * fields take a single byte and a day of eight samples fits in well under a hundred bytes.
+ */
+class HourlySeries {
+
+    // Bump whenever the encoding changes; blobs of another version are ignored
+    static final int ENCODING_VERSION = 1;
+
+    // Decimal fields are stored to two places
+    private static final double SCALE = 100;
+
+    private static final int MINUTE_IN_MILLIS = 60 * 1000;
+
+    final long dayStart;
+    private int mCount;
+    private long[] mTimes;
+    private double[] mTemps;
+    private double[] mHumidities;
+    private double[] mPressures;
+    private double[] mWindSpeeds;
+    private int[] mWeatherIds;
+
+    HourlySeries(long dayStart) {
+        this(dayStart, 8);
+    }
+
+    private HourlySeries(long dayStart, int capacity) {
+        this.dayStart = dayStart;
+        mTimes = new long[capacity];
+        mTemps = new double[capacity];
+        mHumidities = new double[capacity];
+        mPressures = new double[capacity];
+        mWindSpeeds = new double[capacity];
+        mWeatherIds = new int[capacity];
+    }
+
+    int size() {
+        return mCount;
+    }
+
+    long getTime(int i) {
+        return mTimes[i];
+    }
+
+    double getTemp(int i) {
+        return mTemps[i];
+    }
+
+    double getHumidity(int i) {
+        return mHumidities[i];
+    }
+
+    double getPressure(int i) {
+        return mPressures[i];
+    }
+
+    double getWindSpeed(int i) {
+        return mWindSpeeds[i];
+    }
+
+    int getWeatherId(int i) {
+        return mWeatherIds[i];
+    }
+
+    /**
+     * Adds a sample, keeping the series sorted by time.  A sample at a time already in the
+     * series replaces it.
+     */
+    void put(long time, double temp, double humidity, double pressure, double windSpeed,
+             int weatherId) {
+        // Times are stored to the minute
+        time -= (time - dayStart) % MINUTE_IN_MILLIS;
+        int index = Arrays.binarySearch(mTimes, 0, mCount, time);
+        if (index < 0) {
+            index = -index - 1;
+            if (mCount == mTimes.length) {
+                grow();
+            }
+            shift(index);
+            mCount++;
+        }
+        mTimes[index] = time;
+        mTemps[index] = temp;
+        mHumidities[index] = humidity;
+        mPressures[index] = pressure;
+        mWindSpeeds[index] = windSpeed;
+        mWeatherIds[index] = weatherId;
+    }
+
+    byte[] encode() {
+        // At most ten bytes per varint, six fields per sample
+        byte[] buffer = new byte[2 + 10 + mCount * 6 * 10];
+        int[] pos = {0};
+        writeVarint(buffer, pos, ENCODING_VERSION);
+        writeVarint(buffer, pos, mCount);
+        long previousMinute = 0;
+        long previousTemp = 0, previousHumidity = 0, previousPressure = 0, previousWind = 0;
+        long previousWeatherId = 0;
+        for (int i = 0; i < mCount; i++) {
+            long minute = (mTimes[i] - dayStart) / MINUTE_IN_MILLIS;
+            long temp = Math.round(mTemps[i] * SCALE);
+            long humidity = Math.round(mHumidities[i] * SCALE);
+            long pressure = Math.round(mPressures[i] * SCALE);
+            long wind = Math.round(mWindSpeeds[i] * SCALE);
+            writeSigned(buffer, pos, minute - previousMinute);
+            writeSigned(buffer, pos, temp - previousTemp);
+            writeSigned(buffer, pos, humidity - previousHumidity);
+            writeSigned(buffer, pos, pressure - previousPressure);
+            writeSigned(buffer, pos, wind - previousWind);
+            writeSigned(buffer, pos, mWeatherIds[i] - previousWeatherId);
+            previousMinute = minute;
+            previousTemp = temp;
+            previousHumidity = humidity;
+            previousPressure = pressure;
+            previousWind = wind;
+            previousWeatherId = mWeatherIds[i];
+        }
+        return Arrays.copyOf(buffer, pos[0]);
+    }
+
+    /**
+     * @return the series encoded in the blob, or an empty series if the blob is missing or of
+     * another encoding version.
+     */
+    static HourlySeries decode(long dayStart, byte[] blob) {
+        if (blob == null || blob.length == 0) {
+            return new HourlySeries(dayStart);
+        }
+        int[] pos = {0};
+        if (readVarint(blob, pos) != ENCODING_VERSION) {
+            return new HourlySeries(dayStart);
+        }
+        int count = (int) readVarint(blob, pos);
+        HourlySeries series = new HourlySeries(dayStart, Math.max(count, 1));
+        long minute = 0, temp = 0, humidity = 0, pressure = 0, wind = 0, weatherId = 0;
+        for (int i = 0; i < count; i++) {
+            minute += readSigned(blob, pos);
+            temp += readSigned(blob, pos);
+            humidity += readSigned(blob, pos);
+            pressure += readSigned(blob, pos);
+            wind += readSigned(blob, pos);
+            weatherId += readSigned(blob, pos);
+            series.mTimes[i] = dayStart + minute * MINUTE_IN_MILLIS;
+            series.mTemps[i] = temp / SCALE;
+            series.mHumidities[i] = humidity / SCALE;
+            series.mPressures[i] = pressure / SCALE;
+            series.mWindSpeeds[i] = wind / SCALE;
+            series.mWeatherIds[i] = (int) weatherId;
+        }
+        series.mCount = count;
+        return series;
+    }
+
+    private void grow() {
+        int capacity = mTimes.length * 2;
+        mTimes = Arrays.copyOf(mTimes, capacity);
+        mTemps = Arrays.copyOf(mTemps, capacity);
+        mHumidities = Arrays.copyOf(mHumidities, capacity);
+        mPressures = Arrays.copyOf(mPressures, capacity);
+        mWindSpeeds = Arrays.copyOf(mWindSpeeds, capacity);
+        mWeatherIds = Arrays.copyOf(mWeatherIds, capacity);
+    }
+
+    private void shift(int index) {
+        int length = mCount - index;
+        System.arraycopy(mTimes, index, mTimes, index + 1, length);
+        System.arraycopy(mTemps, index, mTemps, index + 1, length);
+        System.arraycopy(mHumidities, index, mHumidities, index + 1, length);
+        System.arraycopy(mPressures, index, mPressures, index + 1, length);
+        System.arraycopy(mWindSpeeds, index, mWindSpeeds, index + 1, length);
+        System.arraycopy(mWeatherIds, index, mWeatherIds, index + 1, length);
+    }
+
+    private static void writeSigned(byte[] buffer, int[] pos, long value) {
+        writeVarint(buffer, pos, (value << 1) ^ (value >> 63));
+    }
+
+    private static long readSigned(byte[] buffer, int[] pos) {
+        long value = readVarint(buffer, pos);
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static void writeVarint(byte[] buffer, int[] pos, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer[pos[0]++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[pos[0]++] = (byte) value;
+    }
+
+    private static long readVarint(byte[] buffer, int[] pos) {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = buffer[pos[0]++];
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import java.util.TimeZone;
+
+/**
+ * Converts between millis and Julian days with plain arithmetic, in place of
+ * {@link android.text.format.Time}.
+ * <p>
+ * A Julian day here is the local calendar day containing an instant, numbered the same way as
+ * {@link android.text.format.Time#getJulianDay(long, long)}, and the millis of a Julian day are
+ * those of its local midnight, as returned by {@link android.text.format.Time#setJulianDay(int)}.
+ * Unlike Time, the UTC offset is looked up for the instant being converted rather than for the
+ * current moment, so days on either side of a daylight saving change are numbered correctly.
+ * <p>
+ * None of the methods allocate.  The default time zone is cached and re-read at most once
+ * every {@link #ZONE_RECHECK_MILLIS}.
+ */
+public final class JulianDay {
+
+    public static final long DAY_IN_MILLIS = 1000L * 60 * 60 * 24;
+
+    // The Julian day of January 1st, 1970
+    public static final int EPOCH_JULIAN_DAY = 2440588;
+
+    static final long ZONE_RECHECK_MILLIS = 60 * 1000;
+
+    private static volatile TimeZone sZone;
+    private static volatile long sZoneCheckedAt;
+
+    private JulianDay() {
+    }
+
+    /**
+     * @return the Julian day of the local calendar day containing the given instant.
+     */
+    public static int fromMillis(long millis) {
+        return fromMillis(millis, getZone());
+    }
+
+    public static int fromMillis(long millis, TimeZone zone) {
+        return (int) floorDiv(millis + zone.getOffset(millis), DAY_IN_MILLIS) + EPOCH_JULIAN_DAY;
+    }
+
+    /**
+     * @return the instant of local midnight at the start of the given Julian day.
+     */
+    public static long toMillis(int julianDay) {
+        return toMillis(julianDay, getZone());
+    }
+
+    public static long toMillis(int julianDay, TimeZone zone) {
+        long utcMidnight = (julianDay - EPOCH_JULIAN_DAY) * DAY_IN_MILLIS;
+        // The offset at midnight may differ from the offset at UTC midnight, so look it up
+        // again at the first estimate.
+        int guessOffset = zone.getOffset(utcMidnight);
+        int offset = zone.getOffset(utcMidnight - guessOffset);
+        long millis = utcMidnight - offset;
+        if (offset != guessOffset && zone.getOffset(millis) != offset) {
+            // Midnight falls in a daylight saving gap, so the day starts when the gap ends
+            millis = utcMidnight - guessOffset;
+        }
+        return millis;
+    }
+
+    /**
+     * @return the start of the local calendar day containing the given instant.
+     */
+    public static long normalize(long millis) {
+        TimeZone zone = getZone();
+        return toMillis(fromMillis(millis, zone), zone);
+    }
+
+    /**
+     * @return the Julian day of the Monday starting the week that contains the given day.
+     */
+    public static int weekStart(int julianDay) {
+        // Julian day 0 is a Monday
+        return julianDay - (int) floorMod(julianDay, 7);
+    }
+
+    /**
+     * @return the Julian day of the first of the month that contains the given day.
+     */
+    public static int monthStart(int julianDay) {
+        // The day of the month, from the Gregorian date of a Julian day number as worked out
+        // by Fliegel and Van Flandern
+        int l = julianDay + 68569;
+        int n = 4 * l / 146097;
+        l = l - (146097 * n + 3) / 4;
+        int i = 4000 * (l + 1) / 1461001;
+        l = l - 1461 * i / 4 + 31;
+        int j = 80 * l / 2447;
+        int dayOfMonth = l - 2447 * j / 80;
+        return julianDay - (dayOfMonth - 1);
+    }
+
+    /**
+     * @return the Julian day of the current local date.
+     */
+    public static int today() {
+        return fromMillis(System.currentTimeMillis());
+    }
+
+    private static TimeZone getZone() {
+        long now = System.currentTimeMillis();
+        TimeZone zone = sZone;
+        if (zone == null || now - sZoneCheckedAt >= ZONE_RECHECK_MILLIS || now < sZoneCheckedAt) {
+            // getDefault returns a copy, so only ask for it now and then
+            zone = TimeZone.getDefault();
+            sZone = zone;
+            sZoneCheckedAt = now;
+        }
+        return zone;
+    }
+
+    private static long floorMod(long x, long y) {
+        return x - floorDiv(x, y) * y;
+    }
+
+    private static long floorDiv(long x, long y) {
+        long q = x / y;
+        if ((x % y != 0) && ((x ^ y) < 0)) {
+            q--;
+        }
+        return q;
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.text.TextUtils;
+
+import com.example.android.sunshine.app.data.WeatherContract.HourlyEntry;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps the number of cached locations bounded by deleting the least recently read ones.
+ * <p>
+ * Every location the user ever entered would otherwise stay forever, along with its forecast
+ * and hourly rows.  Locations are ranked by when their weather was last read; pinned locations
+ * and the preferred location are never deleted, but still count towards the cap.  A location's
+ * weather and hourly rows are deleted with it, a few locations per transaction.  History is
+ * kept, since it is keyed by location setting and can't be downloaded again.
+ */
+class LocationEviction {
+
+    // Number of locations deleted in each transaction, about 500 weather rows
+    static final int BATCH_LOCATIONS = 25;
+
+    private LocationEviction() {
+    }
+
+    /**
+     * Writes the given last access times, keyed by location setting, in one transaction.
+     */
+    static void recordAccesses(SQLiteDatabase db, Map<String, Long> accesses) {
+        if (accesses.isEmpty()) {
+            return;
+        }
+        ContentValues values = new ContentValues();
+        String[] args = new String[1];
+        db.beginTransaction();
+        try {
+            for (Map.Entry<String, Long> access : accesses.entrySet()) {
+                values.put(LocationEntry.COLUMN_LAST_ACCESSED, access.getValue());
+                args[0] = access.getKey();
+                db.update(LocationEntry.TABLE_NAME, values,
+                        LocationEntry.COLUMN_LOCATION_SETTING + " = ?", args);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * @return the locations to delete to bring the count down to maxLocations, least
+     * recently read first, as location settings keyed by row ID.  Never read counts as oldest.
+     */
+    static LinkedHashMap<Long, String> selectEvictable(SQLiteDatabase db, int maxLocations,
+                                                       String keepLocationSetting) {
+        LinkedHashMap<Long, String> evictable = new LinkedHashMap<>();
+        long excess = DatabaseUtils.queryNumEntries(db, LocationEntry.TABLE_NAME) - maxLocations;
+        if (excess <= 0) {
+            return evictable;
+        }
+        Cursor cursor = db.query(LocationEntry.TABLE_NAME,
+                new String[]{LocationEntry._ID, LocationEntry.COLUMN_LOCATION_SETTING},
+                LocationEntry.COLUMN_PINNED + " = 0 AND " +
+                        LocationEntry.COLUMN_LOCATION_SETTING + " != ?",
+                new String[]{keepLocationSetting}, null, null,
+                "COALESCE(" + LocationEntry.COLUMN_LAST_ACCESSED + ", 0) ASC, " +
+                        LocationEntry._ID + " ASC",
+                Long.toString(excess));
+        try {
+            while (cursor.moveToNext()) {
+                evictable.put(cursor.getLong(0), cursor.getString(1));
+            }
+        } finally {
+            cursor.close();
+        }
+        return evictable;
+    }
+
+    /**
+     * Deletes the locations with the given row IDs, and their weather and hourly rows.  The
+     * caller is expected to hold a transaction.
+     *
+     * @return the number of locations deleted.
+     */
+    static int delete(SQLiteDatabase db, Long[] locationIds) {
+        String[] args = new String[locationIds.length];
+        for (int i = 0; i < locationIds.length; i++) {
+            args[i] = Long.toString(locationIds[i]);
+        }
+        String[] placeholders = new String[locationIds.length];
+        Arrays.fill(placeholders, "?");
+        String in = " IN (" + TextUtils.join(", ", placeholders) + ")";
+        db.delete(WeatherEntry.DATA_TABLE_NAME, WeatherEntry.COLUMN_LOC_KEY + in, args);
+        db.delete(HourlyEntry.TABLE_NAME, HourlyEntry.COLUMN_LOC_KEY + in, args);
+        return db.delete(LocationEntry.TABLE_NAME, LocationEntry._ID + in, args);
+    }
+}
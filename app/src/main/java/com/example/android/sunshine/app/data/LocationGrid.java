@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+
+import java.util.List;
+
+/**
+ * Fixed latitude/longitude grid used to index the location table by position.
+ * <p>
+ * Each location stores the number of the grid cell it falls in, numbered row by row from the
+ * south pole and west from the antimeridian, so that the cells of one row that lie within a
+ * search radius form a single range of cell numbers.  A proximity search then reads a few
+ * index ranges instead of every location, and only the candidates in those cells have their
+ * exact distance computed.  Ranges that run on into each other are read as one, and past
+ * {@link #MAX_RANGES} the search reads every cell from its first to its last, so a search of
+ * any radius stays within SQLite's limit on arguments.
+ */
+class LocationGrid {
+
+    // About 28km north to south
+    static final double CELL_DEGREES = 0.25;
+    static final int LAT_CELLS = (int) (180 / CELL_DEGREES);
+    static final int LONG_CELLS = (int) (360 / CELL_DEGREES);
+
+    static final double EARTH_RADIUS_KM = 6371.0;
+    static final double KM_PER_DEGREE = Math.PI * EARTH_RADIUS_KM / 180;
+
+    // Two arguments each, well inside SQLite's limit of 999 for a statement
+    static final int MAX_RANGES = 400;
+
+    private LocationGrid() {
+    }
+
+    static int latIndex(double lat) {
+        int index = (int) Math.floor((lat + 90) / CELL_DEGREES);
+        return Math.max(0, Math.min(LAT_CELLS - 1, index));
+    }
+
+    static int longIndex(double lon) {
+        int index = (int) Math.floor((lon + 180) / CELL_DEGREES) % LONG_CELLS;
+        return index < 0 ? index + LONG_CELLS : index;
+    }
+
+    static long cellOf(double lat, double lon) {
+        return (long) latIndex(lat) * LONG_CELLS + longIndex(lon);
+    }
+
+    /**
+     * Sets the grid cell column from the coordinates in the values, if both are present.
+     */
+    static void putGridCell(ContentValues values) {
+        Double lat = values.getAsDouble(LocationEntry.COLUMN_COORD_LAT);
+        Double lon = values.getAsDouble(LocationEntry.COLUMN_COORD_LONG);
+        if (lat != null && lon != null) {
+            values.put(LocationEntry.COLUMN_GRID_CELL, cellOf(lat, lon));
+        }
+    }
+
+    /**
+     * Builds a selection matching every cell that could hold a location within the radius of
+     * the given point, adding its arguments to selectionArgs.
+     */
+    static String buildSelection(double lat, double lon, double radiusKm,
+                                 List<String> selectionArgs) {
+        double latSpan = radiusKm / KM_PER_DEGREE;
+        double minLat = lat - latSpan;
+        double maxLat = lat + latSpan;
+
+        // Degrees of longitude shrink towards the poles, so size the span for the point of
+        // the search area nearest a pole
+        double widestLat = Math.min(90, Math.max(Math.abs(minLat), Math.abs(maxLat)));
+        double cosLat = Math.cos(Math.toRadians(widestLat));
+        boolean wholeRows = cosLat < 1e-6 || radiusKm / (KM_PER_DEGREE * cosLat) >= 180;
+        double longSpan = wholeRows ? 180 : radiusKm / (KM_PER_DEGREE * cosLat);
+        int firstLong = longIndex(lon - longSpan);
+        int lastLong = longIndex(lon + longSpan);
+
+        int firstRow = latIndex(minLat);
+        int lastRow = latIndex(maxLat);
+        long firstRowStart = (long) firstRow * LONG_CELLS;
+        long lastRowStart = (long) lastRow * LONG_CELLS;
+        boolean crossesAntimeridian = !wholeRows && firstLong > lastLong;
+        // Crossing the antimeridian, each row's eastern cells run on into the next row's
+        // western ones, so the rows make one more range than there are rows
+        int ranges = lastRow - firstRow + 1 + (crossesAntimeridian ? 1 : 0);
+
+        StringBuilder selection = new StringBuilder();
+        if (wholeRows) {
+            appendRange(selection, selectionArgs, firstRowStart, lastRowStart + LONG_CELLS - 1);
+        } else if (ranges > MAX_RANGES) {
+            // Too many arguments for one statement, so read the cells between the rows as
+            // well; the exact distances still leave out everything outside the radius
+            appendRange(selection, selectionArgs,
+                    firstRowStart + (crossesAntimeridian ? 0 : firstLong),
+                    lastRowStart + (crossesAntimeridian ? LONG_CELLS - 1 : lastLong));
+        } else if (!crossesAntimeridian) {
+            for (long rowStart = firstRowStart; rowStart <= lastRowStart; rowStart += LONG_CELLS) {
+                appendRange(selection, selectionArgs, rowStart + firstLong, rowStart + lastLong);
+            }
+        } else {
+            appendRange(selection, selectionArgs, firstRowStart, firstRowStart + lastLong);
+            for (long rowStart = firstRowStart; rowStart < lastRowStart; rowStart += LONG_CELLS) {
+                appendRange(selection, selectionArgs, rowStart + firstLong,
+                        rowStart + LONG_CELLS + lastLong);
+            }
+            appendRange(selection, selectionArgs, lastRowStart + firstLong,
+                    lastRowStart + LONG_CELLS - 1);
+        }
+        return selection.toString();
+    }
+
+    private static void appendRange(StringBuilder selection, List<String> selectionArgs,
+                                    long first, long last) {
+        if (selection.length() > 0) {
+            selection.append(" OR ");
+        }
+        selection.append(LocationEntry.COLUMN_GRID_CELL).append(" BETWEEN ? AND ?");
+        selectionArgs.add(Long.toString(first));
+        selectionArgs.add(Long.toString(last));
+    }
+
+    /**
+     * @return the great-circle distance between two points, in km.
+     */
+    static double distanceKm(double lat1, double lon1, double lat2, double lon2) {
+        double dLat = Math.toRadians(lat2 - lat1);
+        double dLon = Math.toRadians(lon2 - lon1);
+        double a = Math.sin(dLat / 2) * Math.sin(dLat / 2) +
+                Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2)) *
+                        Math.sin(dLon / 2) * Math.sin(dLon / 2);
+        return 2 * EARTH_RADIUS_KM * Math.asin(Math.min(1, Math.sqrt(a)));
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Two-way, in-memory map between location settings and location row IDs.
+ * <p>
+ * A location's row ID almost never changes once it has been inserted, so the provider keeps
+ * this map instead of querying the location table on every sync.  Any update or delete on the
+ * location table clears it.
+ */
+class LocationIdCache {
+
+    private final Map<String, Long> mIdsBySetting = new HashMap<String, Long>();
+    private final Map<Long, String> mSettingsById = new HashMap<Long, String>();
+
+    // Bumped on every clear, so a mapping read from the database before a location write is
+    // not stored after it.
+    private long mGeneration;
+
+    synchronized long getGeneration() {
+        return mGeneration;
+    }
+
+    /**
+     * @return the row ID for the location setting, or null if it is not cached.
+     */
+    synchronized Long getId(String locationSetting) {
+        return mIdsBySetting.get(locationSetting);
+    }
+
+    /**
+     * @return the location setting for the row ID, or null if it is not cached.
+     */
+    synchronized String getLocationSetting(long locationId) {
+        return mSettingsById.get(locationId);
+    }
+
+    synchronized void put(String locationSetting, long locationId, long generation) {
+        if (generation != mGeneration) {
+            return;
+        }
+        mIdsBySetting.put(locationSetting, locationId);
+        mSettingsById.put(locationId, locationSetting);
+    }
+
+    synchronized void clear() {
+        mGeneration++;
+        mIdsBySetting.clear();
+        mSettingsById.clear();
+    }
+}
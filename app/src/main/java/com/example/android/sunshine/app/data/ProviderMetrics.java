@@ -0,0 +1,200 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+
+import com.example.android.sunshine.app.data.WeatherContract.MetricsEntry;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Call counts, latency histograms, row counts and callers of each provider operation, broken
+ * down by route.
+ * <p>
+ * When disabled, {@link #start()} returns 0 and the provider skips recording altogether, so
+ * the only cost is a volatile read per call.
+ */
+class ProviderMetrics {
+
+    static final int OP_QUERY = 0;
+    static final int OP_INSERT = 1;
+    static final int OP_BULK_INSERT = 2;
+    static final int OP_UPDATE = 3;
+    static final int OP_DELETE = 4;
+
+    private static final String[] OP_NAMES = {"query", "insert", "bulkInsert", "update", "delete"};
+
+    // Bucket i counts calls that took less than 2^i microseconds, the last bucket the rest
+    static final int HISTOGRAM_BUCKETS = 21;
+
+    private volatile boolean mEnabled;
+
+    // Keyed by operation and route, sorted so that dumps are stable
+    private final Map<Integer, Stats> mStats = new TreeMap<>();
+
+    ProviderMetrics(boolean enabled) {
+        mEnabled = enabled;
+    }
+
+    private static final class Stats {
+        final int operation;
+        final int route;
+        long calls;
+        long totalNanos;
+        long maxNanos;
+        long rows;
+        final long[] histogram = new long[HISTOGRAM_BUCKETS];
+        final Map<String, Long> callers = new HashMap<>();
+
+        Stats(int operation, int route) {
+            this.operation = operation;
+            this.route = route;
+        }
+
+        // The upper bound, in microseconds, of the bucket holding the given percentile
+        long percentileMicros(double percentile) {
+            long target = (long) Math.ceil(calls * percentile);
+            long seen = 0;
+            for (int i = 0; i < HISTOGRAM_BUCKETS; i++) {
+                seen += histogram[i];
+                if (seen >= target) {
+                    return 1L << i;
+                }
+            }
+            return 1L << HISTOGRAM_BUCKETS;
+        }
+    }
+
+    boolean isEnabled() {
+        return mEnabled;
+    }
+
+    void setEnabled(boolean enabled) {
+        mEnabled = enabled;
+    }
+
+    /**
+     * @return the start time to pass to {@link #record}, or 0 if metrics are disabled.
+     */
+    long start() {
+        return mEnabled ? System.nanoTime() : 0;
+    }
+
+    void record(int operation, int route, long startNanos, long rows, String caller) {
+        long nanos = System.nanoTime() - startNanos;
+        long micros = nanos / 1000;
+        int bucket = 0;
+        while (bucket < HISTOGRAM_BUCKETS - 1 && micros >= (1L << bucket)) {
+            bucket++;
+        }
+        if (caller == null) {
+            caller = "unknown";
+        }
+
+        Integer key = operation * 10000 + route;
+        synchronized (mStats) {
+            Stats stats = mStats.get(key);
+            if (stats == null) {
+                stats = new Stats(operation, route);
+                mStats.put(key, stats);
+            }
+            stats.calls++;
+            stats.totalNanos += nanos;
+            stats.maxNanos = Math.max(stats.maxNanos, nanos);
+            stats.rows += Math.max(rows, 0);
+            stats.histogram[bucket]++;
+            Long callerCalls = stats.callers.get(caller);
+            stats.callers.put(caller, callerCalls == null ? 1 : callerCalls + 1);
+        }
+    }
+
+    void reset() {
+        synchronized (mStats) {
+            mStats.clear();
+        }
+    }
+
+    /**
+     * @return one row per operation and route, with the columns of {@link MetricsEntry}.
+     */
+    Cursor toCursor() {
+        MatrixCursor cursor = new MatrixCursor(new String[]{
+                MetricsEntry.COLUMN_OPERATION,
+                MetricsEntry.COLUMN_ROUTE,
+                MetricsEntry.COLUMN_CALLS,
+                MetricsEntry.COLUMN_MEAN_MICROS,
+                MetricsEntry.COLUMN_P50_MICROS,
+                MetricsEntry.COLUMN_P95_MICROS,
+                MetricsEntry.COLUMN_MAX_MICROS,
+                MetricsEntry.COLUMN_ROWS,
+                MetricsEntry.COLUMN_CALLERS
+        });
+        for (Stats stats : snapshot()) {
+            cursor.addRow(new Object[]{
+                    OP_NAMES[stats.operation],
+                    WeatherProvider.getRouteName(stats.route),
+                    stats.calls,
+                    stats.totalNanos / 1000 / stats.calls,
+                    stats.percentileMicros(0.5),
+                    stats.percentileMicros(0.95),
+                    stats.maxNanos / 1000,
+                    stats.rows,
+                    stats.callers.toString()
+            });
+        }
+        return cursor;
+    }
+
+    void dump(PrintWriter writer) {
+        writer.println("Provider metrics (" + (mEnabled ? "enabled" : "disabled") + "):");
+        for (Stats stats : snapshot()) {
+            writer.println("  " + OP_NAMES[stats.operation] + " " +
+                    WeatherProvider.getRouteName(stats.route) +
+                    ": calls=" + stats.calls +
+                    " mean=" + stats.totalNanos / 1000 / stats.calls + "us" +
+                    " p50<" + stats.percentileMicros(0.5) + "us" +
+                    " p95<" + stats.percentileMicros(0.95) + "us" +
+                    " max=" + stats.maxNanos / 1000 + "us" +
+                    " rows=" + stats.rows +
+                    " callers=" + stats.callers);
+        }
+    }
+
+    // Copies the stats so they can be formatted without holding the lock
+    private List<Stats> snapshot() {
+        List<Stats> copies = new ArrayList<>();
+        synchronized (mStats) {
+            for (Stats stats : mStats.values()) {
+                Stats copy = new Stats(stats.operation, stats.route);
+                copy.calls = stats.calls;
+                copy.totalNanos = stats.totalNanos;
+                copy.maxNanos = stats.maxNanos;
+                copy.rows = stats.rows;
+                System.arraycopy(stats.histogram, 0, copy.histogram, 0, HISTOGRAM_BUCKETS);
+                copy.callers.putAll(stats.callers);
+                copies.add(copy);
+            }
+        }
+        return copies;
+    }
+}
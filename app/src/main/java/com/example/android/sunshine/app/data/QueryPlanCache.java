@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Finished SQL for each route, projection, selection, sort order and limit the provider has
+ * served.
+ * <p>
+ * Assembling a query through SQLiteQueryBuilder builds a new string on every call.  Reusing
+ * the exact same string also lets SQLite's per-connection statement cache find the prepared
+ * statement, so a hit skips both the assembly and the re-preparation.  Selection arguments
+ * are bound rather than part of the SQL, so one entry serves every location and date.
+ */
+class QueryPlanCache {
+
+    private final int mMaxEntries;
+
+    // Access-ordered, so the eldest entry is the least recently used
+    private final LinkedHashMap<Key, String> mPlans;
+
+    private long mHits;
+    private long mMisses;
+    private long mBuildNanos;
+
+    QueryPlanCache(final int maxEntries) {
+        mMaxEntries = maxEntries;
+        mPlans = new LinkedHashMap<Key, String>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, String> eldest) {
+                return size() > mMaxEntries;
+            }
+        };
+    }
+
+    static final class Key {
+        final int route;
+        final String[] projection;
+        final String selection;
+        final String sortOrder;
+        final String limit;
+
+        Key(int route, String[] projection, String selection, String sortOrder, String limit) {
+            this.route = route;
+            this.projection = projection == null ? null : projection.clone();
+            this.selection = selection;
+            this.sortOrder = sortOrder;
+            this.limit = limit;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key other = (Key) o;
+            return route == other.route
+                    && Arrays.equals(projection, other.projection)
+                    && (selection == null ? other.selection == null : selection.equals(other.selection))
+                    && (sortOrder == null ? other.sortOrder == null : sortOrder.equals(other.sortOrder))
+                    && (limit == null ? other.limit == null : limit.equals(other.limit));
+        }
+
+        @Override
+        public int hashCode() {
+            int result = route;
+            result = 31 * result + Arrays.hashCode(projection);
+            result = 31 * result + (selection == null ? 0 : selection.hashCode());
+            result = 31 * result + (sortOrder == null ? 0 : sortOrder.hashCode());
+            result = 31 * result + (limit == null ? 0 : limit.hashCode());
+            return result;
+        }
+    }
+
+    /**
+     * @return the cached SQL for the key, or null if it has to be built.
+     */
+    synchronized String get(Key key) {
+        String sql = mPlans.get(key);
+        if (sql == null) {
+            mMisses++;
+        } else {
+            mHits++;
+        }
+        return sql;
+    }
+
+    /**
+     * Stores freshly built SQL, along with the time it took to build, which is what every
+     * later hit for the key saves.
+     */
+    synchronized void put(Key key, String sql, long buildNanos) {
+        mPlans.put(key, sql);
+        mBuildNanos += buildNanos;
+    }
+
+    synchronized long getHitCount() {
+        return mHits;
+    }
+
+    synchronized long getMissCount() {
+        return mMisses;
+    }
+
+    synchronized float getHitRate() {
+        long lookups = mHits + mMisses;
+        return lookups == 0 ? 0f : (float) mHits / lookups;
+    }
+
+    /**
+     * @return the mean time spent assembling SQL on a miss, i.e. the saving per hit.
+     */
+    synchronized long getMeanBuildNanos() {
+        return mMisses == 0 ? 0 : mBuildNanos / mMisses;
+    }
+
+    @Override
+    public synchronized String toString() {
+        long meanBuildNanos = getMeanBuildNanos();
+        return "QueryPlanCache{entries=" + mPlans.size() + "/" + mMaxEntries
+                + ", hits=" + mHits
+                + ", misses=" + mMisses
+                + ", hitRate=" + Math.round(getHitRate() * 100) + "%"
+                + ", buildPerMiss=" + meanBuildNanos / 1000 + "us"
+                + ", saved~" + mHits * meanBuildNanos / 1000 + "us}";
+    }
+}
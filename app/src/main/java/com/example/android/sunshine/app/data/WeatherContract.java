@@ -19,7 +19,6 @@ import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.net.Uri;
 import android.provider.BaseColumns;
-import android.text.format.Time;
 
 /**
  * Defines table and column names for the weather database.
@@ -43,15 +42,110 @@ public class WeatherContract {
     // At least, let's hope not.  Don't be that dev, reader.  Don't be that dev.
     public static final String PATH_WEATHER = "weather";
     public static final String PATH_LOCATION = "location";
+    public static final String PATH_HISTORY = "history";
+    public static final String PATH_RANGE = "range";
+    public static final String PATH_STATS = "stats";
+    public static final String PATH_NEAREST = "nearest";
+    public static final String PATH_METRICS = "metrics";
+    public static final String PATH_HOURLY = "hourly";
+    // A top level path, so it can't be taken for a location setting under weather/
+    public static final String PATH_TODAY = "today";
+
+    // Provider methods, invoked through ContentResolver.call() on BASE_CONTENT_URI.
+    // Moves weather rows dated before EXTRA_DATE into the history archive, then compacts it.
+    public static final String METHOD_ARCHIVE_HISTORY = "archive_history";
+    // Returns the forecast for the location passed as the argument, from EXTRA_DATE onwards,
+    // as a ForecastSnapshot bundle.
+    public static final String METHOD_GET_FORECAST_SNAPSHOT = "get_forecast_snapshot";
+
+    // Turns the provider's metrics on or off, as given by EXTRA_ENABLED.  Turning them on
+    // again starts from zero.
+    public static final String METHOD_SET_METRICS_ENABLED = "set_metrics_enabled";
+
+    // Analyzes, vacuums and checks the database, unless a write batch is open.  Returns the
+    // EXTRA_MAINTENANCE_* values, or EXTRA_MAINTENANCE_SKIPPED if it did not run.
+    public static final String METHOD_RUN_MAINTENANCE = "run_maintenance";
+
+    // Deletes the least recently used locations, with their weather, until at most
+    // EXTRA_MAX_LOCATIONS are left.  Pinned locations and the preferred location are never
+    // deleted.  Returns the number of locations deleted as EXTRA_ROW_COUNT.
+    public static final String METHOD_EVICT_LOCATIONS = "evict_locations";
+
+    public static final String EXTRA_DATE = "date";
+    public static final String EXTRA_MAX_AGE = "max_age";
+    public static final String EXTRA_ENABLED = "enabled";
+    public static final String EXTRA_MAINTENANCE_SKIPPED = "skipped";
+    public static final String EXTRA_MAINTENANCE_SIZE_BEFORE = "size_before";
+    public static final String EXTRA_MAINTENANCE_SIZE_AFTER = "size_after";
+    public static final String EXTRA_MAINTENANCE_FREE_PAGES_BEFORE = "free_pages_before";
+    public static final String EXTRA_MAINTENANCE_FREE_PAGES_AFTER = "free_pages_after";
+    public static final String EXTRA_MAINTENANCE_INTEGRITY_OK = "integrity_ok";
+    public static final String EXTRA_MAINTENANCE_ELAPSED_MILLIS = "elapsed_millis";
+    public static final String EXTRA_ROW_COUNT = "row_count";
+    public static final String EXTRA_MAX_LOCATIONS = "max_locations";
+
+    // Keyset pagination, accepted by weather, weather/[location] and location.  A paged query
+    // returns at most PARAM_LIMIT rows in key order, ignoring any sort order given, starting
+    // after the key in PARAM_AFTER.  The key is the date for weather/[location] and the _id
+    // otherwise; pass the key of the last row of one page as PARAM_AFTER to get the next.
+    public static final String PARAM_LIMIT = "limit";
+    public static final String PARAM_AFTER = "after";
+
+    public static Uri buildPageUri(Uri uri, long after, int limit) {
+        return uri.buildUpon()
+                .appendQueryParameter(PARAM_AFTER, Long.toString(after))
+                .appendQueryParameter(PARAM_LIMIT, Integer.toString(limit))
+                .build();
+    }
+
+    public static boolean isPagedUri(Uri uri) {
+        return uri.getQueryParameter(PARAM_LIMIT) != null
+                || uri.getQueryParameter(PARAM_AFTER) != null;
+    }
+
+    // 0 when the page size is not limited
+    public static int getLimitFromUri(Uri uri) {
+        String limitString = uri.getQueryParameter(PARAM_LIMIT);
+        if (null != limitString && limitString.length() > 0)
+            return Integer.parseInt(limitString);
+        else
+            return 0;
+    }
+
+    // 0, i.e. before every key, when there is no previous page
+    public static long getAfterFromUri(Uri uri) {
+        String afterString = uri.getQueryParameter(PARAM_AFTER);
+        if (null != afterString && afterString.length() > 0)
+            return Long.parseLong(afterString);
+        else
+            return 0;
+    }
+
+    // Freshness, accepted by weather/[location] and weather/[location]/[date], and as
+    // EXTRA_MAX_AGE by METHOD_GET_FORECAST_SNAPSHOT.  Cached rows are always returned straight
+    // away; if the location was fetched more than maxAge milliseconds ago, a background sync
+    // is requested too, and observers are notified when its rows land.
+    public static final String PARAM_MAX_AGE = "maxAge";
+
+    public static Uri buildMaxAgeUri(Uri uri, long maxAge) {
+        return uri.buildUpon()
+                .appendQueryParameter(PARAM_MAX_AGE, Long.toString(maxAge)).build();
+    }
+
+    // -1 when any age will do
+    public static long getMaxAgeFromUri(Uri uri) {
+        String maxAgeString = uri.getQueryParameter(PARAM_MAX_AGE);
+        if (null != maxAgeString && maxAgeString.length() > 0)
+            return Long.parseLong(maxAgeString);
+        else
+            return -1;
+    }
 
     // To make it easy to query for the exact date, we normalize all dates that go into
     // the database to the start of the the Julian day at UTC.
     public static long normalizeDate(long startDate) {
-        // normalize the start date to the beginning of the (UTC) day
-        Time time = new Time();
-        time.set(startDate);
-        int julianDay = Time.getJulianDay(startDate, time.gmtoff);
-        return time.setJulianDay(julianDay);
+        // normalize the start date to the beginning of the day
+        return JulianDay.normalize(startDate);
     }
 
     /* Inner class that defines the table contents of the location table */
@@ -81,9 +175,68 @@ public class WeatherContract {
         public static final String COLUMN_COORD_LAT = "coord_lat";
         public static final String COLUMN_COORD_LONG = "coord_long";
 
+        // Number of the grid cell containing the coordinates, used to search by proximity.
+        // Maintained by the provider.
+        public static final String COLUMN_GRID_CELL = "grid_cell";
+
+        // Computed column returned by location/nearest, the distance in km from the point
+        public static final String COLUMN_DISTANCE_KM = "distance_km";
+
+        // When the location's forecast was last fetched, in milliseconds since the epoch.
+        // Null until the first sync for the location completes.
+        public static final String COLUMN_FETCHED_AT = "fetched_at";
+
+        // When the location's weather was last read, in milliseconds since the epoch.  Reads
+        // are recorded in memory and written out in batches, so this can lag behind.
+        // Maintained by the provider.
+        public static final String COLUMN_LAST_ACCESSED = "last_accessed";
+
+        // 1 for a location the user has saved, which is never evicted, otherwise 0
+        public static final String COLUMN_PINNED = "pinned";
+
+        public static final String PARAM_LATITUDE = "lat";
+        public static final String PARAM_LONGITUDE = "lon";
+        public static final String PARAM_RADIUS_KM = "radius_km";
+
         public static Uri buildLocationUri(long id) {
             return ContentUris.withAppendedId(CONTENT_URI, id);
         }
+
+        /*
+            The cached location nearest to the point, if there is one within the radius.
+         */
+        public static Uri buildNearestLocationUri(double lat, double lon, double radiusKm) {
+            return CONTENT_URI.buildUpon().appendPath(PATH_NEAREST)
+                    .appendQueryParameter(PARAM_LATITUDE, Double.toString(lat))
+                    .appendQueryParameter(PARAM_LONGITUDE, Double.toString(lon))
+                    .appendQueryParameter(PARAM_RADIUS_KM, Double.toString(radiusKm))
+                    .build();
+        }
+
+        /*
+            A page of at most limit locations, in _id order, after the location with afterId.
+            Pass 0 for the first page.
+         */
+        public static Uri buildLocationPage(long afterId, int limit) {
+            return buildPageUri(CONTENT_URI, afterId, limit);
+        }
+
+        public static double getLatitudeFromUri(Uri uri) {
+            return Double.parseDouble(uri.getQueryParameter(PARAM_LATITUDE));
+        }
+
+        public static double getLongitudeFromUri(Uri uri) {
+            return Double.parseDouble(uri.getQueryParameter(PARAM_LONGITUDE));
+        }
+
+        // 0 when the uri has no radius
+        public static double getRadiusKmFromUri(Uri uri) {
+            String radiusString = uri.getQueryParameter(PARAM_RADIUS_KM);
+            if (null != radiusString && radiusString.length() > 0)
+                return Double.parseDouble(radiusString);
+            else
+                return 0;
+        }
     }
 
     /* Inner class that defines the table contents of the weather table */
@@ -97,8 +250,16 @@ public class WeatherContract {
         public static final String CONTENT_ITEM_TYPE =
                 ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_WEATHER;
 
+        // A view decoding the two tables below into the columns that follow.  Read from it;
+        // write through the provider, which encodes the values.
         public static final String TABLE_NAME = "weather";
 
+        // Where the rows are stored, with measurements as scaled integers and no description
+        public static final String DATA_TABLE_NAME = "weather_data";
+
+        // The description of each weather_id, stored once rather than in every row
+        public static final String CONDITION_TABLE_NAME = "condition";
+
         // Column with the foreign key into the location table.
         public static final String COLUMN_LOC_KEY = "location_id";
         // Date, stored as long in milliseconds since the epoch
@@ -126,6 +287,17 @@ public class WeatherContract {
         // Degrees are meteorological degrees (e.g, 0 is north, 180 is south).  Stored as floats.
         public static final String COLUMN_DEGREES = "degrees";
 
+        // Columns of the single row returned by weather/[location]/range/[start]/[end]/stats.
+        // The range is inclusive of both dates.
+        public static final String COLUMN_RANGE_MIN_TEMP = "range_min";
+        public static final String COLUMN_RANGE_MAX_TEMP = "range_max";
+        public static final String COLUMN_RANGE_MEAN_MIN_TEMP = "range_mean_min";
+        public static final String COLUMN_RANGE_MEAN_MAX_TEMP = "range_mean_max";
+        public static final String COLUMN_RANGE_MIN_HUMIDITY = "range_min_humidity";
+        public static final String COLUMN_RANGE_MAX_HUMIDITY = "range_max_humidity";
+        public static final String COLUMN_RANGE_MEAN_HUMIDITY = "range_mean_humidity";
+        public static final String COLUMN_RANGE_DAY_COUNT = "range_day_count";
+
         public static Uri buildWeatherUri(long id) {
             return ContentUris.withAppendedId(CONTENT_URI, id);
         }
@@ -149,10 +321,48 @@ public class WeatherContract {
                     .appendPath(Long.toString(normalizeDate(date))).build();
         }
 
+        /*
+            A page of at most limit days of forecast, in date order, after afterDate.  Pass 0
+            for the first page.
+         */
+        public static Uri buildWeatherLocationPage(
+                String locationSetting, long afterDate, int limit) {
+            return buildPageUri(buildWeatherLocation(locationSetting), afterDate, limit);
+        }
+
+        /*
+            One day's row for every location that has one: today's, or the day given by date.
+         */
+        public static Uri buildWeatherToday() {
+            return BASE_CONTENT_URI.buildUpon().appendPath(PATH_TODAY).build();
+        }
+
+        public static Uri buildWeatherTodayWithDate(long date) {
+            return BASE_CONTENT_URI.buildUpon().appendPath(PATH_TODAY)
+                    .appendQueryParameter(COLUMN_DATE, Long.toString(normalizeDate(date))).build();
+        }
+
+        public static Uri buildWeatherLocationRangeStats(
+                String locationSetting, long startDate, long endDate) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting)
+                    .appendPath(PATH_RANGE)
+                    .appendPath(Long.toString(normalizeDate(startDate)))
+                    .appendPath(Long.toString(normalizeDate(endDate)))
+                    .appendPath(PATH_STATS).build();
+        }
+
         public static String getLocationSettingFromUri(Uri uri) {
             return uri.getPathSegments().get(1);
         }
 
+        public static long getRangeStartDateFromUri(Uri uri) {
+            return Long.parseLong(uri.getPathSegments().get(3));
+        }
+
+        public static long getRangeEndDateFromUri(Uri uri) {
+            return Long.parseLong(uri.getPathSegments().get(4));
+        }
+
         public static long getDateFromUri(Uri uri) {
             return Long.parseLong(uri.getPathSegments().get(2));
         }
@@ -164,5 +374,194 @@ public class WeatherContract {
             else
                 return 0;
         }
+
+        public static long getTodayDateFromUri(Uri uri) {
+            String dateString = uri.getQueryParameter(COLUMN_DATE);
+            if (null != dateString && dateString.length() > 0)
+                return Long.parseLong(dateString);
+            else
+                return JulianDay.toMillis(JulianDay.today());
+        }
+    }
+
+    /*
+        Inner class that defines the history archive.  Past days are kept at full resolution in
+        the history table for a few weeks, then folded into weekly and later monthly summaries
+        in the history_summary table.  Querying history/[location] returns both, one row per
+        day, week or month, so a trend over a whole year stays a few dozen rows.
+     */
+    public static final class HistoryEntry implements BaseColumns {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_HISTORY).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_HISTORY;
+
+        // Table of archived days
+        public static final String TABLE_NAME = "history";
+
+        // Table of weekly and monthly summaries of older days
+        public static final String SUMMARY_TABLE_NAME = "history_summary";
+
+        // History is keyed by the location setting rather than the location row, so that it
+        // outlives the location table, which is only a cache and is dropped on upgrade.
+        public static final String COLUMN_LOCATION_SETTING = "location_setting";
+
+        // Columns shared with the weather table, as it was on the archived day
+        public static final String COLUMN_DATE = "date";
+        public static final String COLUMN_WEATHER_ID = "weather_id";
+        public static final String COLUMN_MIN_TEMP = "min";
+        public static final String COLUMN_MAX_TEMP = "max";
+        public static final String COLUMN_HUMIDITY = "humidity";
+        public static final String COLUMN_PRESSURE = "pressure";
+        public static final String COLUMN_WIND_SPEED = "wind";
+
+        // Summary columns.  Sums are stored rather than means so that summaries can be merged.
+        public static final String COLUMN_PERIOD = "period";
+        public static final String COLUMN_PERIOD_START = "period_start";
+        public static final String COLUMN_SUM_MIN_TEMP = "sum_min";
+        public static final String COLUMN_SUM_MAX_TEMP = "sum_max";
+        public static final String COLUMN_SUM_HUMIDITY = "sum_humidity";
+        public static final String COLUMN_SAMPLE_COUNT = "sample_count";
+
+        // Computed columns returned by history/[location] queries
+        public static final String COLUMN_MEAN_MIN_TEMP = "mean_min";
+        public static final String COLUMN_MEAN_MAX_TEMP = "mean_max";
+        public static final String COLUMN_MEAN_HUMIDITY = "mean_humidity";
+
+        // Values of COLUMN_PERIOD, in days
+        public static final int PERIOD_DAY = 1;
+        public static final int PERIOD_WEEK = 7;
+        public static final int PERIOD_MONTH = 30;
+
+        public static final String PARAM_START_DATE = "start";
+        public static final String PARAM_END_DATE = "end";
+
+        public static Uri buildHistoryLocation(String locationSetting) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting).build();
+        }
+
+        public static Uri buildHistoryLocationWithDateRange(
+                String locationSetting, long startDate, long endDate) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting)
+                    .appendQueryParameter(PARAM_START_DATE, Long.toString(normalizeDate(startDate)))
+                    .appendQueryParameter(PARAM_END_DATE, Long.toString(normalizeDate(endDate)))
+                    .build();
+        }
+
+        public static String getLocationSettingFromUri(Uri uri) {
+            return uri.getPathSegments().get(1);
+        }
+
+        public static long getStartDateFromUri(Uri uri) {
+            String dateString = uri.getQueryParameter(PARAM_START_DATE);
+            if (null != dateString && dateString.length() > 0)
+                return Long.parseLong(dateString);
+            else
+                return 0;
+        }
+
+        public static long getEndDateFromUri(Uri uri) {
+            String dateString = uri.getQueryParameter(PARAM_END_DATE);
+            if (null != dateString && dateString.length() > 0)
+                return Long.parseLong(dateString);
+            else
+                return Long.MAX_VALUE;
+        }
+    }
+
+    /*
+        Debug view of the provider's own metrics: one row per operation and route, with call
+        counts, latencies in microseconds, rows returned or affected and the calling packages.
+        Metrics are collected in debug builds, or when enabled with METHOD_SET_METRICS_ENABLED.
+     */
+    public static final class MetricsEntry {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_METRICS).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_METRICS;
+
+        public static final String COLUMN_OPERATION = "operation";
+        public static final String COLUMN_ROUTE = "route";
+        public static final String COLUMN_CALLS = "calls";
+        public static final String COLUMN_MEAN_MICROS = "mean_us";
+        // Percentiles are the upper bounds of power-of-two histogram buckets
+        public static final String COLUMN_P50_MICROS = "p50_us";
+        public static final String COLUMN_P95_MICROS = "p95_us";
+        public static final String COLUMN_MAX_MICROS = "max_us";
+        public static final String COLUMN_ROWS = "rows";
+        public static final String COLUMN_CALLERS = "callers";
+    }
+
+    /*
+        Inner class that defines the hourly (3-hour) forecast.  Each row holds all the samples
+        of one location and day, delta-encoded into a blob, so inserts go through the provider,
+        which merges samples into the right row.  Inserted and returned values use the sample
+        columns below; hourly/[location] decodes only the days overlapping the requested window.
+     */
+    public static final class HourlyEntry implements BaseColumns {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_HOURLY).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_HOURLY;
+
+        public static final String TABLE_NAME = "hourly";
+
+        // Stored columns: the location, the start of the day and the encoded samples
+        public static final String COLUMN_LOC_KEY = "location_id";
+        public static final String COLUMN_DATE = "date";
+        public static final String COLUMN_SAMPLE_COUNT = "sample_count";
+        public static final String COLUMN_SAMPLES = "samples";
+
+        // Sample columns, stored to two decimal places and to the minute
+        public static final String COLUMN_TIME = "time";
+        public static final String COLUMN_TEMP = "temp";
+        public static final String COLUMN_HUMIDITY = "humidity";
+        public static final String COLUMN_PRESSURE = "pressure";
+        public static final String COLUMN_WIND_SPEED = "wind";
+        public static final String COLUMN_WEATHER_ID = "weather_id";
+
+        public static final String PARAM_START_TIME = "start";
+        public static final String PARAM_END_TIME = "end";
+
+        public static Uri buildHourlyLocation(String locationSetting) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting).build();
+        }
+
+        /*
+            Samples of the location with startTime <= time < endTime.
+         */
+        public static Uri buildHourlyLocationWithWindow(
+                String locationSetting, long startTime, long endTime) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting)
+                    .appendQueryParameter(PARAM_START_TIME, Long.toString(startTime))
+                    .appendQueryParameter(PARAM_END_TIME, Long.toString(endTime))
+                    .build();
+        }
+
+        public static String getLocationSettingFromUri(Uri uri) {
+            return uri.getPathSegments().get(1);
+        }
+
+        public static long getStartTimeFromUri(Uri uri) {
+            String timeString = uri.getQueryParameter(PARAM_START_TIME);
+            if (null != timeString && timeString.length() > 0)
+                return Long.parseLong(timeString);
+            else
+                return 0;
+        }
+
+        public static long getEndTimeFromUri(Uri uri) {
+            String timeString = uri.getQueryParameter(PARAM_END_TIME);
+            if (null != timeString && timeString.length() > 0)
+                return Long.parseLong(timeString);
+            else
+                return Long.MAX_VALUE;
+        }
     }
 }
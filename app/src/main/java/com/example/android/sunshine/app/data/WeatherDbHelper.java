@@ -15,10 +15,14 @@
  */
 package com.example.android.sunshine.app.data;
 
+import android.content.ContentValues;
 import android.content.Context;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 
+import com.example.android.sunshine.app.data.WeatherContract.HistoryEntry;
+import com.example.android.sunshine.app.data.WeatherContract.HourlyEntry;
 import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
 import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
 
@@ -28,7 +32,7 @@ import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
 public class WeatherDbHelper extends SQLiteOpenHelper {
 
     // If you change the database schema, you must increment the database version.
-    private static final int DATABASE_VERSION = 2;
+    private static final int DATABASE_VERSION = 8;
 
     static final String DATABASE_NAME = "weather.db";
 
@@ -45,10 +49,60 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
                 LocationEntry.COLUMN_LOCATION_SETTING + " TEXT UNIQUE NOT NULL, " +
                 LocationEntry.COLUMN_CITY_NAME + " TEXT NOT NULL, " +
                 LocationEntry.COLUMN_COORD_LAT + " REAL NOT NULL, " +
-                LocationEntry.COLUMN_COORD_LONG + " REAL NOT NULL " +
+                LocationEntry.COLUMN_COORD_LONG + " REAL NOT NULL, " +
+                LocationEntry.COLUMN_GRID_CELL + " INTEGER, " +
+                LocationEntry.COLUMN_FETCHED_AT + " INTEGER, " +
+                LocationEntry.COLUMN_LAST_ACCESSED + " INTEGER, " +
+                LocationEntry.COLUMN_PINNED + " INTEGER NOT NULL DEFAULT 0 " +
                 " );";
 
-        final String SQL_CREATE_WEATHER_TABLE = "CREATE TABLE " + WeatherEntry.TABLE_NAME + " (" +
+        sqLiteDatabase.execSQL(SQL_CREATE_LOCATION_TABLE);
+        createLocationGridIndex(sqLiteDatabase);
+        createWeatherTables(sqLiteDatabase);
+        createWeatherView(sqLiteDatabase);
+        createHourlyTable(sqLiteDatabase);
+        createHistoryTables(sqLiteDatabase);
+    }
+
+    private void createLocationGridIndex(SQLiteDatabase sqLiteDatabase) {
+        // Proximity searches read ranges of grid cells
+        final String SQL_CREATE_LOCATION_GRID_INDEX = "CREATE INDEX " +
+                LocationEntry.TABLE_NAME + "_grid_cell ON " + LocationEntry.TABLE_NAME +
+                " (" + LocationEntry.COLUMN_GRID_CELL + ");";
+
+        sqLiteDatabase.execSQL(SQL_CREATE_LOCATION_GRID_INDEX);
+    }
+
+    private void createHourlyTable(SQLiteDatabase sqLiteDatabase) {
+        // One row per location and day, holding that day's encoded hourly samples
+        final String SQL_CREATE_HOURLY_TABLE = "CREATE TABLE " + HourlyEntry.TABLE_NAME + " (" +
+                HourlyEntry._ID + " INTEGER PRIMARY KEY," +
+                HourlyEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+                HourlyEntry.COLUMN_DATE + " INTEGER NOT NULL, " +
+                HourlyEntry.COLUMN_SAMPLE_COUNT + " INTEGER NOT NULL, " +
+                HourlyEntry.COLUMN_SAMPLES + " BLOB NOT NULL, " +
+
+                " FOREIGN KEY (" + HourlyEntry.COLUMN_LOC_KEY + ") REFERENCES " +
+                LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), " +
+
+                " UNIQUE (" + HourlyEntry.COLUMN_LOC_KEY + ", " +
+                HourlyEntry.COLUMN_DATE + ") ON CONFLICT REPLACE);";
+
+        sqLiteDatabase.execSQL(SQL_CREATE_HOURLY_TABLE);
+    }
+
+    /*
+        Weather is stored compactly in the data and condition tables (see WeatherTable), and
+        read through a view that decodes it back into the columns of the contract.
+     */
+    private void createWeatherTables(SQLiteDatabase sqLiteDatabase) {
+        final String SQL_CREATE_CONDITION_TABLE = "CREATE TABLE " +
+                WeatherEntry.CONDITION_TABLE_NAME + " (" +
+                WeatherEntry.COLUMN_WEATHER_ID + " INTEGER PRIMARY KEY, " +
+                WeatherEntry.COLUMN_SHORT_DESC + " TEXT NOT NULL);";
+
+        final String SQL_CREATE_WEATHER_DATA_TABLE = "CREATE TABLE " +
+                WeatherEntry.DATA_TABLE_NAME + " (" +
                 // Why AutoIncrement here, and not above?
                 // Unique keys will be auto-generated in either case.  But for weather
                 // forecasting, it's reasonable to assume the user will want information
@@ -59,16 +113,16 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
                 // the ID of the location entry associated with this weather data
                 WeatherEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
                 WeatherEntry.COLUMN_DATE + " INTEGER NOT NULL, " +
-                WeatherEntry.COLUMN_SHORT_DESC + " TEXT NOT NULL, " +
                 WeatherEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL," +
 
-                WeatherEntry.COLUMN_MIN_TEMP + " REAL NOT NULL, " +
-                WeatherEntry.COLUMN_MAX_TEMP + " REAL NOT NULL, " +
+                // Fixed-point, as scaled by WeatherTable
+                WeatherEntry.COLUMN_MIN_TEMP + " INTEGER NOT NULL, " +
+                WeatherEntry.COLUMN_MAX_TEMP + " INTEGER NOT NULL, " +
 
-                WeatherEntry.COLUMN_HUMIDITY + " REAL NOT NULL, " +
-                WeatherEntry.COLUMN_PRESSURE + " REAL NOT NULL, " +
-                WeatherEntry.COLUMN_WIND_SPEED + " REAL NOT NULL, " +
-                WeatherEntry.COLUMN_DEGREES + " REAL NOT NULL, " +
+                WeatherEntry.COLUMN_HUMIDITY + " INTEGER NOT NULL, " +
+                WeatherEntry.COLUMN_PRESSURE + " INTEGER NOT NULL, " +
+                WeatherEntry.COLUMN_WIND_SPEED + " INTEGER NOT NULL, " +
+                WeatherEntry.COLUMN_DEGREES + " INTEGER NOT NULL, " +
 
                 // Set up the location column as a foreign key to location table.
                 " FOREIGN KEY (" + WeatherEntry.COLUMN_LOC_KEY + ") REFERENCES " +
@@ -79,12 +133,161 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
                 " UNIQUE (" + WeatherEntry.COLUMN_DATE + ", " +
                 WeatherEntry.COLUMN_LOC_KEY + ") ON CONFLICT REPLACE);";
 
-        sqLiteDatabase.execSQL(SQL_CREATE_LOCATION_TABLE);
-        sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_CONDITION_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_DATA_TABLE);
+    }
+
+    private void createWeatherView(SQLiteDatabase sqLiteDatabase) {
+        final String data = WeatherEntry.DATA_TABLE_NAME;
+        final String condition = WeatherEntry.CONDITION_TABLE_NAME;
+        StringBuilder sql = new StringBuilder("CREATE VIEW " + WeatherEntry.TABLE_NAME +
+                " AS SELECT " +
+                data + "." + WeatherEntry._ID + " AS " + WeatherEntry._ID + ", " +
+                data + "." + WeatherEntry.COLUMN_LOC_KEY + " AS " + WeatherEntry.COLUMN_LOC_KEY + ", " +
+                data + "." + WeatherEntry.COLUMN_DATE + " AS " + WeatherEntry.COLUMN_DATE + ", " +
+                condition + "." + WeatherEntry.COLUMN_SHORT_DESC + " AS " +
+                WeatherEntry.COLUMN_SHORT_DESC + ", " +
+                data + "." + WeatherEntry.COLUMN_WEATHER_ID + " AS " +
+                WeatherEntry.COLUMN_WEATHER_ID);
+        for (int i = 0; i < WeatherTable.SCALED_COLUMNS.length; i++) {
+            sql.append(", ").append(WeatherTable.decode(data, i))
+                    .append(" AS ").append(WeatherTable.SCALED_COLUMNS[i]);
+        }
+        sql.append(" FROM ").append(data).append(" LEFT JOIN ").append(condition)
+                .append(" ON ").append(data).append(".").append(WeatherEntry.COLUMN_WEATHER_ID)
+                .append(" = ").append(condition).append(".").append(WeatherEntry.COLUMN_WEATHER_ID)
+                .append(";");
+        sqLiteDatabase.execSQL(sql.toString());
+    }
+
+    /*
+        Brings a version 2 database, the last one released, up to date while keeping its
+        locations and forecasts.  The locations gain the columns added since, with their grid
+        cells worked out from their coordinates; the rest are left unset, so each location
+        counts as never fetched nor read and is refreshed as usual.
+     */
+    private void migrateFromVersion2(SQLiteDatabase sqLiteDatabase) {
+        final String location = LocationEntry.TABLE_NAME;
+        sqLiteDatabase.execSQL("ALTER TABLE " + location + " ADD COLUMN " +
+                LocationEntry.COLUMN_GRID_CELL + " INTEGER");
+        sqLiteDatabase.execSQL("ALTER TABLE " + location + " ADD COLUMN " +
+                LocationEntry.COLUMN_FETCHED_AT + " INTEGER");
+        sqLiteDatabase.execSQL("ALTER TABLE " + location + " ADD COLUMN " +
+                LocationEntry.COLUMN_LAST_ACCESSED + " INTEGER");
+        sqLiteDatabase.execSQL("ALTER TABLE " + location + " ADD COLUMN " +
+                LocationEntry.COLUMN_PINNED + " INTEGER NOT NULL DEFAULT 0");
+
+        Cursor cursor = sqLiteDatabase.query(location, new String[]{LocationEntry._ID,
+                LocationEntry.COLUMN_COORD_LAT, LocationEntry.COLUMN_COORD_LONG},
+                null, null, null, null, null);
+        try {
+            ContentValues values = new ContentValues();
+            while (cursor.moveToNext()) {
+                values.put(LocationEntry.COLUMN_GRID_CELL,
+                        LocationGrid.cellOf(cursor.getDouble(1), cursor.getDouble(2)));
+                sqLiteDatabase.update(location, values, LocationEntry._ID + " = ?",
+                        new String[]{Long.toString(cursor.getLong(0))});
+            }
+        } finally {
+            cursor.close();
+        }
+        createLocationGridIndex(sqLiteDatabase);
+
+        migrateToCompactWeather(sqLiteDatabase);
+        createHourlyTable(sqLiteDatabase);
+        createHistoryTables(sqLiteDatabase);
+    }
+
+    /*
+        Moves the rows of the version 2 weather table, which held REALs and a description per
+        row, into the compact tables, then puts the view in its place.
+     */
+    private void migrateToCompactWeather(SQLiteDatabase sqLiteDatabase) {
+        final String legacy = WeatherEntry.TABLE_NAME;
+        sqLiteDatabase.execSQL("ALTER TABLE " + legacy + " RENAME TO " + legacy + "_legacy");
+        createWeatherTables(sqLiteDatabase);
+
+        // Where one weather_id had several descriptions, the latest row's wins
+        sqLiteDatabase.execSQL("INSERT OR REPLACE INTO " + WeatherEntry.CONDITION_TABLE_NAME +
+                " (" + WeatherEntry.COLUMN_WEATHER_ID + ", " + WeatherEntry.COLUMN_SHORT_DESC +
+                ") SELECT " + WeatherEntry.COLUMN_WEATHER_ID + ", " +
+                WeatherEntry.COLUMN_SHORT_DESC + " FROM " + legacy + "_legacy ORDER BY " +
+                WeatherEntry._ID);
+
+        StringBuilder columns = new StringBuilder(WeatherEntry._ID + ", " +
+                WeatherEntry.COLUMN_LOC_KEY + ", " + WeatherEntry.COLUMN_DATE + ", " +
+                WeatherEntry.COLUMN_WEATHER_ID);
+        StringBuilder values = new StringBuilder(columns);
+        for (int i = 0; i < WeatherTable.SCALED_COLUMNS.length; i++) {
+            columns.append(", ").append(WeatherTable.SCALED_COLUMNS[i]);
+            values.append(", ").append(WeatherTable.encode(legacy + "_legacy", i));
+        }
+        sqLiteDatabase.execSQL("INSERT INTO " + WeatherEntry.DATA_TABLE_NAME + " (" + columns +
+                ") SELECT " + values + " FROM " + legacy + "_legacy");
+
+        sqLiteDatabase.execSQL("DROP TABLE " + legacy + "_legacy");
+        createWeatherView(sqLiteDatabase);
+    }
+
+    /*
+        Unlike the forecast, history can't be downloaded again, so these tables are created only
+        if missing and are kept when the cache tables are dropped on upgrade.
+     */
+    private void createHistoryTables(SQLiteDatabase sqLiteDatabase) {
+        final String SQL_CREATE_HISTORY_TABLE = "CREATE TABLE IF NOT EXISTS " +
+                HistoryEntry.TABLE_NAME + " (" +
+                HistoryEntry._ID + " INTEGER PRIMARY KEY," +
+                HistoryEntry.COLUMN_LOCATION_SETTING + " TEXT NOT NULL, " +
+                HistoryEntry.COLUMN_DATE + " INTEGER NOT NULL, " +
+                HistoryEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL, " +
+                HistoryEntry.COLUMN_MIN_TEMP + " REAL NOT NULL, " +
+                HistoryEntry.COLUMN_MAX_TEMP + " REAL NOT NULL, " +
+                HistoryEntry.COLUMN_HUMIDITY + " REAL NOT NULL, " +
+                HistoryEntry.COLUMN_PRESSURE + " REAL NOT NULL, " +
+                HistoryEntry.COLUMN_WIND_SPEED + " REAL NOT NULL, " +
+
+                // One archived day per location; the index it creates also serves range scans
+                " UNIQUE (" + HistoryEntry.COLUMN_LOCATION_SETTING + ", " +
+                HistoryEntry.COLUMN_DATE + ") ON CONFLICT REPLACE);";
+
+        final String SQL_CREATE_HISTORY_SUMMARY_TABLE = "CREATE TABLE IF NOT EXISTS " +
+                HistoryEntry.SUMMARY_TABLE_NAME + " (" +
+                HistoryEntry._ID + " INTEGER PRIMARY KEY," +
+                HistoryEntry.COLUMN_LOCATION_SETTING + " TEXT NOT NULL, " +
+                HistoryEntry.COLUMN_PERIOD + " INTEGER NOT NULL, " +
+                HistoryEntry.COLUMN_PERIOD_START + " INTEGER NOT NULL, " +
+                HistoryEntry.COLUMN_MIN_TEMP + " REAL NOT NULL, " +
+                HistoryEntry.COLUMN_MAX_TEMP + " REAL NOT NULL, " +
+                HistoryEntry.COLUMN_SUM_MIN_TEMP + " REAL NOT NULL, " +
+                HistoryEntry.COLUMN_SUM_MAX_TEMP + " REAL NOT NULL, " +
+                HistoryEntry.COLUMN_SUM_HUMIDITY + " REAL NOT NULL, " +
+                HistoryEntry.COLUMN_SAMPLE_COUNT + " INTEGER NOT NULL, " +
+
+                " UNIQUE (" + HistoryEntry.COLUMN_LOCATION_SETTING + ", " +
+                HistoryEntry.COLUMN_PERIOD + ", " +
+                HistoryEntry.COLUMN_PERIOD_START + ") ON CONFLICT REPLACE);";
+
+        // Trend queries select by location and a range of period starts, across both periods
+        final String SQL_CREATE_HISTORY_SUMMARY_INDEX = "CREATE INDEX IF NOT EXISTS " +
+                HistoryEntry.SUMMARY_TABLE_NAME + "_location_start ON " +
+                HistoryEntry.SUMMARY_TABLE_NAME + " (" +
+                HistoryEntry.COLUMN_LOCATION_SETTING + ", " +
+                HistoryEntry.COLUMN_PERIOD_START + ");";
+
+        sqLiteDatabase.execSQL(SQL_CREATE_HISTORY_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_HISTORY_SUMMARY_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_HISTORY_SUMMARY_INDEX);
     }
 
     @Override
     public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
+        // Users upgrade from the released version 2, whose rows can be carried over.  The
+        // versions in between were never released, so they are simply rebuilt.
+        if (oldVersion == 2) {
+            migrateFromVersion2(sqLiteDatabase);
+            return;
+        }
+
         // This database is only a cache for online data, so its upgrade policy is
         // to simply to discard the data and start over
         // Note that this only fires if you change the version number for your database.
@@ -92,7 +295,11 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
         // If you want to update the schema without wiping data, commenting out the next 2 lines
         // should be your top priority before modifying this method.
         sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LocationEntry.TABLE_NAME);
+        // Until version 8 weather was a table rather than a view
         sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherEntry.TABLE_NAME);
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherEntry.DATA_TABLE_NAME);
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherEntry.CONDITION_TABLE_NAME);
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + HourlyEntry.TABLE_NAME);
         onCreate(sqLiteDatabase);
     }
 }
@@ -16,24 +16,128 @@
 package com.example.android.sunshine.app.data;
 
 import android.annotation.TargetApi;
+import android.content.ComponentCallbacks2;
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.MatrixCursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
 import android.database.sqlite.SQLiteQueryBuilder;
 import android.net.Uri;
+import android.os.Bundle;
+import android.provider.BaseColumns;
+import android.text.TextUtils;
+import android.util.Log;
+
+import com.example.android.sunshine.app.BuildConfig;
+import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
+
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 public class WeatherProvider extends ContentProvider {
 
+    private static final String LOG_TAG = WeatherProvider.class.getSimpleName();
+
     // The URI Matcher used by this content provider.
     private static final UriMatcher sUriMatcher = buildUriMatcher();
     private WeatherDbHelper mOpenHelper;
 
+    // While a batch (bulkInsert or applyBatch) is open on a thread, the URIs it would have
+    // notified are collected here and sent once each when the outermost batch closes.
+    private final ThreadLocal<Set<Uri>> mPendingNotifications = new ThreadLocal<>();
+
+    // Locations that have been notified but not yet re-read.  The next query for one of them
+    // is counted as a re-query caused by a notification.
+    private final Set<String> mNotifiedLocations =
+            Collections.synchronizedSet(new HashSet<String>());
+
+    private final AtomicLong mNotificationsSent = new AtomicLong();
+    private final AtomicLong mRequeriesCaused = new AtomicLong();
+
+    // Forecast reads for a location are served from memory until a write touches it
+    private static final long SNAPSHOT_CACHE_MAX_BYTES = 256 * 1024;
+    private final ForecastSnapshotCache mSnapshotCache =
+            new ForecastSnapshotCache(SNAPSHOT_CACHE_MAX_BYTES);
+
+    // location_setting <-> _id, so resolving a known location needs no SQL at all
+    private final LocationIdCache mLocationIdCache = new LocationIdCache();
+
+    // The cold-start snapshot file is rewritten, and location reads are written out, off the
+    // caller's thread
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 5;
+    private final ExecutorService mBackgroundExecutor = Executors.newSingleThreadExecutor();
+    private final AtomicBoolean mSnapshotFileQueued = new AtomicBoolean();
+
+    // When each location's weather was last read, not yet written to the location table.
+    // Writing on every read would turn reads into writes, so these wait for the next eviction
+    // or for the app to go into the background.
+    private final ConcurrentHashMap<String, Long> mPendingAccesses = new ConcurrentHashMap<>();
+
+    // Stale reads request at most one background refresh per interval
+    private static final long REFRESH_THROTTLE_MILLIS = 60 * 1000;
+    private final AtomicLong mLastRefreshRequest = new AtomicLong();
+
+    // Finished SQL per route, projection, selection and sort order
+    private static final int QUERY_PLAN_CACHE_MAX_ENTRIES = 64;
+    private final QueryPlanCache mQueryPlanCache =
+            new QueryPlanCache(QUERY_PLAN_CACHE_MAX_ENTRIES);
+
     static final int WEATHER = 100;
     static final int WEATHER_WITH_LOCATION = 101;
     static final int WEATHER_WITH_LOCATION_AND_DATE = 102;
+    static final int WEATHER_RANGE_STATS = 103;
+    static final int WEATHER_TODAY = 104;
     static final int LOCATION = 300;
+    static final int LOCATION_NEAREST = 301;
+    static final int HISTORY_WITH_LOCATION = 400;
+    static final int METRICS = 500;
+    static final int HOURLY = 600;
+    static final int HOURLY_WITH_LOCATION = 601;
+
+    // Columns returned by hourly/[location] when no projection is given
+    private static final String[] HOURLY_COLUMNS = {
+            WeatherContract.HourlyEntry.COLUMN_TIME,
+            WeatherContract.HourlyEntry.COLUMN_TEMP,
+            WeatherContract.HourlyEntry.COLUMN_HUMIDITY,
+            WeatherContract.HourlyEntry.COLUMN_PRESSURE,
+            WeatherContract.HourlyEntry.COLUMN_WIND_SPEED,
+            WeatherContract.HourlyEntry.COLUMN_WEATHER_ID
+    };
+
+    // Write batches hold the read side, so any number of them can run at once, while
+    // maintenance needs the write side and so never runs inside or alongside a batch.
+    private final ReentrantReadWriteLock mMaintenanceLock = new ReentrantReadWriteLock();
+    private volatile String mLastMaintenanceReport;
+
+    // Per-route call counts and latencies, collected by default in debug builds only
+    private final ProviderMetrics mMetrics = new ProviderMetrics(BuildConfig.DEBUG);
 
     private static final SQLiteQueryBuilder sWeatherByLocationSettingQueryBuilder;
 
@@ -51,6 +155,38 @@ public class WeatherProvider extends ContentProvider {
                         "." + WeatherContract.LocationEntry._ID);
     }
 
+    private static final SQLiteQueryBuilder sWeatherRangeStatsQueryBuilder;
+
+    static{
+        // Same join, but the columns are aggregates computed over the whole range
+        sWeatherRangeStatsQueryBuilder = new SQLiteQueryBuilder();
+        sWeatherRangeStatsQueryBuilder.setTables(
+                sWeatherByLocationSettingQueryBuilder.getTables());
+
+        HashMap<String, String> columns = new HashMap<>();
+        putAggregate(columns, WeatherContract.WeatherEntry.COLUMN_RANGE_MIN_TEMP,
+                "MIN(" + WeatherContract.WeatherEntry.COLUMN_MIN_TEMP + ")");
+        putAggregate(columns, WeatherContract.WeatherEntry.COLUMN_RANGE_MAX_TEMP,
+                "MAX(" + WeatherContract.WeatherEntry.COLUMN_MAX_TEMP + ")");
+        putAggregate(columns, WeatherContract.WeatherEntry.COLUMN_RANGE_MEAN_MIN_TEMP,
+                "AVG(" + WeatherContract.WeatherEntry.COLUMN_MIN_TEMP + ")");
+        putAggregate(columns, WeatherContract.WeatherEntry.COLUMN_RANGE_MEAN_MAX_TEMP,
+                "AVG(" + WeatherContract.WeatherEntry.COLUMN_MAX_TEMP + ")");
+        putAggregate(columns, WeatherContract.WeatherEntry.COLUMN_RANGE_MIN_HUMIDITY,
+                "MIN(" + WeatherContract.WeatherEntry.COLUMN_HUMIDITY + ")");
+        putAggregate(columns, WeatherContract.WeatherEntry.COLUMN_RANGE_MAX_HUMIDITY,
+                "MAX(" + WeatherContract.WeatherEntry.COLUMN_HUMIDITY + ")");
+        putAggregate(columns, WeatherContract.WeatherEntry.COLUMN_RANGE_MEAN_HUMIDITY,
+                "AVG(" + WeatherContract.WeatherEntry.COLUMN_HUMIDITY + ")");
+        putAggregate(columns, WeatherContract.WeatherEntry.COLUMN_RANGE_DAY_COUNT,
+                "COUNT(*)");
+        sWeatherRangeStatsQueryBuilder.setProjectionMap(columns);
+    }
+
+    private static void putAggregate(Map<String, String> columns, String name, String expression) {
+        columns.put(name, expression + " AS " + name);
+    }
+
     //location.location_setting = ?
     private static final String sLocationSettingSelection =
             WeatherContract.LocationEntry.TABLE_NAME+
@@ -68,6 +204,21 @@ public class WeatherProvider extends ContentProvider {
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
                     WeatherContract.WeatherEntry.COLUMN_DATE + " = ? ";
 
+    //location.location_setting = ? AND date BETWEEN ? AND ?
+    private static final String sLocationSettingWithDateRangeSelection =
+            WeatherContract.LocationEntry.TABLE_NAME +
+                    "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
+                    WeatherContract.WeatherEntry.COLUMN_DATE + " BETWEEN ? AND ? ";
+
+    //weather.date = ?
+    private static final String sDaySelection =
+            WeatherContract.WeatherEntry.TABLE_NAME +
+                    "." + WeatherContract.WeatherEntry.COLUMN_DATE + " = ? ";
+
+    //location._id = ?
+    private static final String sLocationIdSelection =
+            WeatherContract.LocationEntry._ID + " = ? ";
+
     private Cursor getWeatherByLocationSetting(Uri uri, String[] projection, String sortOrder) {
         String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
         long startDate = WeatherContract.WeatherEntry.getStartDateFromUri(uri);
@@ -83,13 +234,24 @@ public class WeatherProvider extends ContentProvider {
             selection = sLocationSettingWithStartDateSelection;
         }
 
-        return sWeatherByLocationSettingQueryBuilder.query(mOpenHelper.getReadableDatabase(),
+        String limit = null;
+        if (WeatherContract.isPagedUri(uri)) {
+            String dateColumn = WeatherContract.WeatherEntry.TABLE_NAME + "." +
+                    WeatherContract.WeatherEntry.COLUMN_DATE;
+            selection = appendKeyset(selection, dateColumn);
+            selectionArgs = appendArg(selectionArgs,
+                    Long.toString(WeatherContract.getAfterFromUri(uri)));
+            sortOrder = dateColumn + " ASC";
+            limit = getLimit(uri);
+        }
+
+        return queryWithPlan(WEATHER_WITH_LOCATION,
+                sWeatherByLocationSettingQueryBuilder, null,
                 projection,
                 selection,
                 selectionArgs,
-                null,
-                null,
-                sortOrder
+                sortOrder,
+                limit
         );
     }
 
@@ -98,14 +260,360 @@ public class WeatherProvider extends ContentProvider {
         String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
         long date = WeatherContract.WeatherEntry.getDateFromUri(uri);
 
-        return sWeatherByLocationSettingQueryBuilder.query(mOpenHelper.getReadableDatabase(),
+        return queryWithPlan(WEATHER_WITH_LOCATION_AND_DATE,
+                sWeatherByLocationSettingQueryBuilder, null,
                 projection,
                 sLocationSettingAndDaySelection,
                 new String[]{locationSetting, Long.toString(date)},
+                sortOrder,
+                null
+        );
+    }
+
+    private Cursor getWeatherRangeStats(Uri uri, String[] projection) {
+        String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
+        long startDate = WeatherContract.WeatherEntry.getRangeStartDateFromUri(uri);
+        long endDate = WeatherContract.WeatherEntry.getRangeEndDateFromUri(uri);
+
+        // With no GROUP BY this always returns exactly one row, even for an empty range
+        return queryWithPlan(WEATHER_RANGE_STATS,
+                sWeatherRangeStatsQueryBuilder, null,
+                projection,
+                sLocationSettingWithDateRangeSelection,
+                new String[]{locationSetting, Long.toString(startDate), Long.toString(endDate)},
+                null,
+                null
+        );
+    }
+
+    /**
+     * One day's row for every location, in a single join.  The weather table's unique
+     * (date, location_id) index finds the day's rows, and each joins its location by _id.
+     */
+    private Cursor getWeatherToday(Uri uri, String[] projection, String sortOrder) {
+        long date = WeatherContract.WeatherEntry.getTodayDateFromUri(uri);
+        return queryWithPlan(WEATHER_TODAY,
+                sWeatherByLocationSettingQueryBuilder, null,
+                projection,
+                sDaySelection,
+                new String[]{Long.toString(date)},
+                sortOrder,
+                null
+        );
+    }
+
+    /**
+     * Runs a query using SQL from the plan cache, building and caching it on a miss.  Pass
+     * either a query builder for joined routes or the name of a single table.
+     */
+    private Cursor queryWithPlan(int route, SQLiteQueryBuilder builder, String table,
+                                 String[] projection, String selection, String[] selectionArgs,
+                                 String sortOrder, String limit) {
+        QueryPlanCache.Key key =
+                new QueryPlanCache.Key(route, projection, selection, sortOrder, limit);
+        String sql = mQueryPlanCache.get(key);
+        if (sql == null) {
+            long start = System.nanoTime();
+            sql = builder != null
+                    ? builder.buildQuery(projection, selection, null, null, sortOrder, limit)
+                    : SQLiteQueryBuilder.buildQueryString(false, table, projection, selection,
+                            null, null, sortOrder, limit);
+            mQueryPlanCache.put(key, sql, System.nanoTime() - start);
+        }
+        return mOpenHelper.getReadableDatabase().rawQuery(sql, selectionArgs);
+    }
+
+    /**
+     * Runs a query on a single table, as a page in _id order if the URI asks for one.
+     */
+    private Cursor queryTable(int route, String table, Uri uri, String[] projection,
+                              String selection, String[] selectionArgs, String sortOrder) {
+        String limit = null;
+        if (WeatherContract.isPagedUri(uri)) {
+            selection = appendKeyset(selection, BaseColumns._ID);
+            selectionArgs = appendArg(selectionArgs,
+                    Long.toString(WeatherContract.getAfterFromUri(uri)));
+            sortOrder = BaseColumns._ID + " ASC";
+            limit = getLimit(uri);
+        }
+        return queryWithPlan(route, null, table, projection, selection, selectionArgs,
+                sortOrder, limit);
+    }
+
+    // key > ?, ANDed onto the rest of the selection
+    private static String appendKeyset(String selection, String keyColumn) {
+        String keyset = keyColumn + " > ? ";
+        return TextUtils.isEmpty(selection) ? keyset : "(" + selection + ") AND " + keyset;
+    }
+
+    private static String[] appendArg(String[] args, String arg) {
+        if (args == null) {
+            return new String[]{arg};
+        }
+        String[] appended = Arrays.copyOf(args, args.length + 1);
+        appended[args.length] = arg;
+        return appended;
+    }
+
+    // The LIMIT clause of a page, or null for an unlimited one
+    private static String getLimit(Uri uri) {
+        int limit = WeatherContract.getLimitFromUri(uri);
+        if (limit < 0) {
+            throw new IllegalArgumentException("Negative page limit: " + uri);
+        }
+        return limit == 0 ? null : Integer.toString(limit);
+    }
+
+    // The search radius of a nearest location query, which has to be given and positive
+    private static double getRadiusKm(Uri uri) {
+        double radiusKm = WeatherContract.LocationEntry.getRadiusKmFromUri(uri);
+        // Also rejects NaN
+        if (!(radiusKm > 0)) {
+            throw new IllegalArgumentException("Missing or non-positive search radius: " + uri);
+        }
+        return radiusKm;
+    }
+
+    /**
+     * Finds the cached location nearest to the point in the URI, searching only the grid cells
+     * that overlap the radius.
+     *
+     * @return a cursor with the requested location columns and the distance, holding the
+     * nearest location within the radius, or no rows.
+     */
+    private Cursor getNearestLocation(Uri uri, String[] projection) {
+        double lat = WeatherContract.LocationEntry.getLatitudeFromUri(uri);
+        double lon = WeatherContract.LocationEntry.getLongitudeFromUri(uri);
+        double radiusKm = getRadiusKm(uri);
+
+        // Read the coordinates after the requested columns, to compute the distance
+        String[] columns = null;
+        if (projection != null) {
+            columns = new String[projection.length + 2];
+            System.arraycopy(projection, 0, columns, 0, projection.length);
+            columns[projection.length] = WeatherContract.LocationEntry.COLUMN_COORD_LAT;
+            columns[projection.length + 1] = WeatherContract.LocationEntry.COLUMN_COORD_LONG;
+        }
+        List<String> selectionArgs = new ArrayList<>();
+        String selection = LocationGrid.buildSelection(lat, lon, radiusKm, selectionArgs);
+        Cursor candidates = mOpenHelper.getReadableDatabase().query(
+                WeatherContract.LocationEntry.TABLE_NAME,
+                columns,
+                selection,
+                selectionArgs.toArray(new String[selectionArgs.size()]),
                 null,
                 null,
-                sortOrder
+                null
         );
+        try {
+            int outputCount = projection != null
+                    ? projection.length : candidates.getColumnCount();
+            int latIndex = projection != null ? projection.length
+                    : candidates.getColumnIndex(WeatherContract.LocationEntry.COLUMN_COORD_LAT);
+            int longIndex = projection != null ? projection.length + 1
+                    : candidates.getColumnIndex(WeatherContract.LocationEntry.COLUMN_COORD_LONG);
+
+            int nearest = -1;
+            double nearestKm = radiusKm;
+            while (candidates.moveToNext()) {
+                double km = LocationGrid.distanceKm(lat, lon,
+                        candidates.getDouble(latIndex), candidates.getDouble(longIndex));
+                if (km <= nearestKm) {
+                    nearest = candidates.getPosition();
+                    nearestKm = km;
+                }
+            }
+
+            String[] names = new String[outputCount + 1];
+            System.arraycopy(candidates.getColumnNames(), 0, names, 0, outputCount);
+            names[outputCount] = WeatherContract.LocationEntry.COLUMN_DISTANCE_KM;
+            MatrixCursor result = new MatrixCursor(names, 1);
+            if (nearest != -1 && candidates.moveToPosition(nearest)) {
+                Object[] row = new Object[outputCount + 1];
+                for (int i = 0; i < outputCount; i++) {
+                    switch (candidates.getType(i)) {
+                        case Cursor.FIELD_TYPE_INTEGER:
+                            row[i] = candidates.getLong(i);
+                            break;
+                        case Cursor.FIELD_TYPE_FLOAT:
+                            row[i] = candidates.getDouble(i);
+                            break;
+                        case Cursor.FIELD_TYPE_STRING:
+                            row[i] = candidates.getString(i);
+                            break;
+                        case Cursor.FIELD_TYPE_BLOB:
+                            row[i] = candidates.getBlob(i);
+                            break;
+                        default:
+                            row[i] = null;
+                    }
+                }
+                row[outputCount] = nearestKm;
+                result.addRow(row);
+            }
+            return result;
+        } finally {
+            candidates.close();
+        }
+    }
+
+    /**
+     * Decodes the hourly samples of a location in the window given by the URI.  Only the days
+     * that overlap the window are read and decoded.
+     */
+    private Cursor getHourlyByLocationSetting(Uri uri, String[] projection) {
+        String locationSetting = WeatherContract.HourlyEntry.getLocationSettingFromUri(uri);
+        long startTime = WeatherContract.HourlyEntry.getStartTimeFromUri(uri);
+        long endTime = WeatherContract.HourlyEntry.getEndTimeFromUri(uri);
+        // A day's row holds samples from the start of that day, so the window starts with
+        // the day containing its start time
+        long firstDay = startTime > 0 ? JulianDay.normalize(startTime) : 0;
+
+        String[] columns = projection != null ? projection : HOURLY_COLUMNS;
+        MatrixCursor result = new MatrixCursor(columns);
+        Object[] row = new Object[columns.length];
+        Cursor days = mOpenHelper.getReadableDatabase().rawQuery("SELECT " +
+                "h." + WeatherContract.HourlyEntry.COLUMN_DATE + ", " +
+                "h." + WeatherContract.HourlyEntry.COLUMN_SAMPLES + " FROM " +
+                WeatherContract.HourlyEntry.TABLE_NAME + " h INNER JOIN " +
+                WeatherContract.LocationEntry.TABLE_NAME + " l ON h." +
+                WeatherContract.HourlyEntry.COLUMN_LOC_KEY + " = l." +
+                WeatherContract.LocationEntry._ID + " WHERE l." +
+                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND h." +
+                WeatherContract.HourlyEntry.COLUMN_DATE + " >= ? AND h." +
+                WeatherContract.HourlyEntry.COLUMN_DATE + " < ? ORDER BY h." +
+                WeatherContract.HourlyEntry.COLUMN_DATE,
+                new String[]{locationSetting, Long.toString(firstDay), Long.toString(endTime)});
+        try {
+            while (days.moveToNext()) {
+                HourlySeries series = HourlySeries.decode(days.getLong(0), days.getBlob(1));
+                for (int i = 0; i < series.size(); i++) {
+                    long time = series.getTime(i);
+                    if (time < startTime || time >= endTime) {
+                        continue;
+                    }
+                    for (int c = 0; c < columns.length; c++) {
+                        row[c] = getHourlyValue(series, i, columns[c]);
+                    }
+                    result.addRow(row);
+                }
+            }
+        } finally {
+            days.close();
+        }
+        return result;
+    }
+
+    private static Object getHourlyValue(HourlySeries series, int i, String column) {
+        switch (column) {
+            case WeatherContract.HourlyEntry.COLUMN_TIME:
+                return series.getTime(i);
+            case WeatherContract.HourlyEntry.COLUMN_TEMP:
+                return series.getTemp(i);
+            case WeatherContract.HourlyEntry.COLUMN_HUMIDITY:
+                return series.getHumidity(i);
+            case WeatherContract.HourlyEntry.COLUMN_PRESSURE:
+                return series.getPressure(i);
+            case WeatherContract.HourlyEntry.COLUMN_WIND_SPEED:
+                return series.getWindSpeed(i);
+            case WeatherContract.HourlyEntry.COLUMN_WEATHER_ID:
+                return series.getWeatherId(i);
+            default:
+                throw new IllegalArgumentException("Unknown hourly column: " + column);
+        }
+    }
+
+    /**
+     * Merges hourly samples into the encoded day rows of their locations, reading each
+     * affected day once and writing it once.
+     *
+     * @return the row ID of the last day written, or -1 if none was.
+     */
+    private long insertHourlySamples(SQLiteDatabase db, ContentValues[] values) {
+        Map<Long, Map<Long, HourlySeries>> seriesByLocation = new HashMap<>();
+        for (ContentValues value : values) {
+            Long locationId = value.getAsLong(WeatherContract.HourlyEntry.COLUMN_LOC_KEY);
+            Long time = value.getAsLong(WeatherContract.HourlyEntry.COLUMN_TIME);
+            if (locationId == null || time == null) {
+                throw new IllegalArgumentException("Hourly samples need a location and a time");
+            }
+            Map<Long, HourlySeries> days = seriesByLocation.get(locationId);
+            if (days == null) {
+                days = new HashMap<>();
+                seriesByLocation.put(locationId, days);
+            }
+            long day = JulianDay.normalize(time);
+            HourlySeries series = days.get(day);
+            if (series == null) {
+                series = readHourlySeries(db, locationId, day);
+                days.put(day, series);
+            }
+            series.put(time,
+                    getRequiredDouble(value, WeatherContract.HourlyEntry.COLUMN_TEMP),
+                    getRequiredDouble(value, WeatherContract.HourlyEntry.COLUMN_HUMIDITY),
+                    getRequiredDouble(value, WeatherContract.HourlyEntry.COLUMN_PRESSURE),
+                    getRequiredDouble(value, WeatherContract.HourlyEntry.COLUMN_WIND_SPEED),
+                    (int) getRequiredDouble(value, WeatherContract.HourlyEntry.COLUMN_WEATHER_ID));
+        }
+
+        long _id = -1;
+        Set<String> locationSettings = new HashSet<>();
+        ContentValues row = new ContentValues();
+        for (Map.Entry<Long, Map<Long, HourlySeries>> location : seriesByLocation.entrySet()) {
+            for (HourlySeries series : location.getValue().values()) {
+                row.clear();
+                row.put(WeatherContract.HourlyEntry.COLUMN_LOC_KEY, location.getKey());
+                row.put(WeatherContract.HourlyEntry.COLUMN_DATE, series.dayStart);
+                row.put(WeatherContract.HourlyEntry.COLUMN_SAMPLE_COUNT, series.size());
+                row.put(WeatherContract.HourlyEntry.COLUMN_SAMPLES, series.encode());
+                _id = db.insert(WeatherContract.HourlyEntry.TABLE_NAME, null, row);
+            }
+            row.clear();
+            row.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, location.getKey());
+            locationSettings.addAll(getLocationSettingsForInsert(db, row));
+        }
+        for (String locationSetting : locationSettings) {
+            notifyChange(WeatherContract.HourlyEntry.buildHourlyLocation(locationSetting));
+        }
+        return _id;
+    }
+
+    private HourlySeries readHourlySeries(SQLiteDatabase db, long locationId, long day) {
+        Cursor cursor = db.query(WeatherContract.HourlyEntry.TABLE_NAME,
+                new String[]{WeatherContract.HourlyEntry.COLUMN_SAMPLES},
+                WeatherContract.HourlyEntry.COLUMN_LOC_KEY + " = ? AND " +
+                        WeatherContract.HourlyEntry.COLUMN_DATE + " = ?",
+                new String[]{Long.toString(locationId), Long.toString(day)},
+                null, null, null);
+        try {
+            return HourlySeries.decode(day, cursor.moveToFirst() ? cursor.getBlob(0) : null);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static double getRequiredDouble(ContentValues values, String column) {
+        Double value = values.getAsDouble(column);
+        if (value == null) {
+            throw new IllegalArgumentException("Hourly sample is missing " + column);
+        }
+        return value;
+    }
+
+    private Cursor getCachedWeather(
+            Uri uri, int match, long date, String[] projection, String sortOrder) {
+        ForecastSnapshotCache.Key key = new ForecastSnapshotCache.Key(
+                WeatherContract.WeatherEntry.getLocationSettingFromUri(uri),
+                match, date, projection, sortOrder);
+        Cursor cached = mSnapshotCache.get(key);
+        if (cached != null) {
+            return cached;
+        }
+        long generation = mSnapshotCache.getGeneration();
+        Cursor cursor = match == WEATHER_WITH_LOCATION_AND_DATE
+                ? getWeatherByLocationSettingAndDate(uri, projection, sortOrder)
+                : getWeatherByLocationSetting(uri, projection, sortOrder);
+        return mSnapshotCache.put(key, cursor, generation);
     }
 
     /*
@@ -128,8 +636,21 @@ public class WeatherProvider extends ContentProvider {
         matcher.addURI(authority, WeatherContract.PATH_WEATHER, WEATHER);
         matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/*", WEATHER_WITH_LOCATION);
         matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/*/#", WEATHER_WITH_LOCATION_AND_DATE);
+        matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/*/" + WeatherContract.PATH_RANGE +
+                "/#/#/" + WeatherContract.PATH_STATS, WEATHER_RANGE_STATS);
+
+        matcher.addURI(authority, WeatherContract.PATH_TODAY, WEATHER_TODAY);
 
         matcher.addURI(authority, WeatherContract.PATH_LOCATION, LOCATION);
+        matcher.addURI(authority, WeatherContract.PATH_LOCATION + "/" +
+                WeatherContract.PATH_NEAREST, LOCATION_NEAREST);
+
+        matcher.addURI(authority, WeatherContract.PATH_HISTORY + "/*", HISTORY_WITH_LOCATION);
+
+        matcher.addURI(authority, WeatherContract.PATH_METRICS, METRICS);
+
+        matcher.addURI(authority, WeatherContract.PATH_HOURLY, HOURLY);
+        matcher.addURI(authority, WeatherContract.PATH_HOURLY + "/*", HOURLY_WITH_LOCATION);
         return matcher;
     }
 
@@ -158,12 +679,25 @@ public class WeatherProvider extends ContentProvider {
             // Student: Uncomment and fill out these two cases
             case WEATHER_WITH_LOCATION_AND_DATE:
                 return WeatherContract.WeatherEntry.CONTENT_ITEM_TYPE;
+            case WEATHER_RANGE_STATS:
+                return WeatherContract.WeatherEntry.CONTENT_ITEM_TYPE;
             case WEATHER_WITH_LOCATION:
                 return WeatherContract.WeatherEntry.CONTENT_TYPE;
+            case WEATHER_TODAY:
+                return WeatherContract.WeatherEntry.CONTENT_TYPE;
             case WEATHER:
                 return WeatherContract.WeatherEntry.CONTENT_TYPE;
             case LOCATION:
                 return WeatherContract.LocationEntry.CONTENT_TYPE;
+            case LOCATION_NEAREST:
+                return WeatherContract.LocationEntry.CONTENT_ITEM_TYPE;
+            case HISTORY_WITH_LOCATION:
+                return WeatherContract.HistoryEntry.CONTENT_TYPE;
+            case METRICS:
+                return WeatherContract.MetricsEntry.CONTENT_TYPE;
+            case HOURLY:
+            case HOURLY_WITH_LOCATION:
+                return WeatherContract.HourlyEntry.CONTENT_TYPE;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
@@ -172,6 +706,17 @@ public class WeatherProvider extends ContentProvider {
     @Override
     public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
                         String sortOrder) {
+        long start = mMetrics.start();
+        Cursor cursor = doQuery(uri, projection, selection, selectionArgs, sortOrder);
+        if (start != 0) {
+            mMetrics.record(ProviderMetrics.OP_QUERY, sUriMatcher.match(uri), start,
+                    cursor.getCount(), getCaller());
+        }
+        return cursor;
+    }
+
+    private Cursor doQuery(Uri uri, String[] projection, String selection, String[] selectionArgs,
+                           String sortOrder) {
         // Here's the switch statement that, given a URI, will determine what kind of request it is,
         // and query the database accordingly.
         Cursor retCursor;
@@ -179,36 +724,85 @@ public class WeatherProvider extends ContentProvider {
             // "weather/*/*"
             case WEATHER_WITH_LOCATION_AND_DATE:
             {
-                retCursor = getWeatherByLocationSettingAndDate(uri, projection, sortOrder);
+                noteLocationQueried(WeatherContract.WeatherEntry.getLocationSettingFromUri(uri));
+                refreshIfStale(WeatherContract.WeatherEntry.getLocationSettingFromUri(uri),
+                        WeatherContract.getMaxAgeFromUri(uri));
+                retCursor = getCachedWeather(uri, WEATHER_WITH_LOCATION_AND_DATE,
+                        WeatherContract.WeatherEntry.getDateFromUri(uri), projection, sortOrder);
+                break;
+            }
+            // "weather/*/range/#/#/stats"
+            case WEATHER_RANGE_STATS: {
+                noteLocationQueried(WeatherContract.WeatherEntry.getLocationSettingFromUri(uri));
+                retCursor = getWeatherRangeStats(uri, projection);
+                break;
+            }
+            // "today"
+            case WEATHER_TODAY: {
+                retCursor = getWeatherToday(uri, projection, sortOrder);
                 break;
             }
             // "weather/*"
             case WEATHER_WITH_LOCATION: {
-                retCursor = getWeatherByLocationSetting(uri, projection, sortOrder);
+                noteLocationQueried(WeatherContract.WeatherEntry.getLocationSettingFromUri(uri));
+                refreshIfStale(WeatherContract.WeatherEntry.getLocationSettingFromUri(uri),
+                        WeatherContract.getMaxAgeFromUri(uri));
+                // Pages are read once each as a long list is scrolled, so are not worth caching
+                if (WeatherContract.isPagedUri(uri)) {
+                    retCursor = getWeatherByLocationSetting(uri, projection, sortOrder);
+                } else {
+                    retCursor = getCachedWeather(uri, WEATHER_WITH_LOCATION,
+                            WeatherContract.WeatherEntry.getStartDateFromUri(uri), projection,
+                            sortOrder);
+                }
                 break;
             }
             // "weather"
             case WEATHER: {
-                retCursor = mOpenHelper.getReadableDatabase().query(
+                retCursor = queryTable(WEATHER,
                         WeatherContract.WeatherEntry.TABLE_NAME,
+                        uri,
                         projection,
                         selection,
                         selectionArgs,
-                        null,
-                        null,
                         sortOrder
                 );
                 break;
             }
             // "location"
             case LOCATION: {
-                retCursor = mOpenHelper.getReadableDatabase().query(
+                retCursor = queryTable(LOCATION,
                         WeatherContract.LocationEntry.TABLE_NAME,
+                        uri,
                         projection,
                         selection,
                         selectionArgs,
-                        null,
-                        null,
+                        sortOrder
+                );
+                break;
+            }
+            // "location/nearest"
+            case LOCATION_NEAREST: {
+                retCursor = getNearestLocation(uri, projection);
+                break;
+            }
+            // "hourly/*"
+            case HOURLY_WITH_LOCATION: {
+                retCursor = getHourlyByLocationSetting(uri, projection);
+                break;
+            }
+            // "metrics"
+            case METRICS: {
+                retCursor = mMetrics.toCursor();
+                break;
+            }
+            // "history/*"
+            case HISTORY_WITH_LOCATION: {
+                retCursor = HistoryArchive.queryTrend(mOpenHelper.getReadableDatabase(),
+                        WeatherContract.HistoryEntry.getLocationSettingFromUri(uri),
+                        WeatherContract.HistoryEntry.getStartDateFromUri(uri),
+                        WeatherContract.HistoryEntry.getEndDateFromUri(uri),
+                        projection,
                         sortOrder
                 );
                 break;
@@ -226,6 +820,16 @@ public class WeatherProvider extends ContentProvider {
      */
     @Override
     public Uri insert(Uri uri, ContentValues values) {
+        long start = mMetrics.start();
+        Uri returnUri = doInsert(uri, values);
+        if (start != 0) {
+            mMetrics.record(ProviderMetrics.OP_INSERT, sUriMatcher.match(uri), start, 1,
+                    getCaller());
+        }
+        return returnUri;
+    }
+
+    private Uri doInsert(Uri uri, ContentValues values) {
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
         Uri returnUri;
@@ -233,15 +837,25 @@ public class WeatherProvider extends ContentProvider {
         switch (match) {
             case WEATHER: {
                 normalizeDate(values);
-                long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, values);
+                long _id = WeatherTable.insert(db, values);
                 if ( _id > 0 )
                     returnUri = WeatherContract.WeatherEntry.buildWeatherUri(_id);
                 else
                     throw new android.database.SQLException("Failed to insert row into " + uri);
+                notifyWeatherChange(getLocationSettingsForInsert(db, values));
+                break;
+            }
+            case HOURLY: {
+                long _id = insertHourlySamples(db, new ContentValues[]{values});
+                if ( _id > 0 )
+                    returnUri = ContentUris.withAppendedId(uri, _id);
+                else
+                    throw new android.database.SQLException("Failed to insert row into " + uri);
                 break;
             }
             case LOCATION: {
-                long _id = db.insert(WeatherContract.LocationEntry.TABLE_NAME, null, values);
+                // Inserting a location that already exists returns the existing row
+                long _id = insertOrGetLocation(db, values);
                 if ( _id > 0 )
                     returnUri = WeatherContract.LocationEntry.buildLocationUri(_id);
                 else
@@ -251,32 +865,54 @@ public class WeatherProvider extends ContentProvider {
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
-        getContext().getContentResolver().notifyChange(uri, null);
         return returnUri;
     }
 
     @Override
     public int delete(Uri uri, String selection, String[] selectionArgs) {
+        long start = mMetrics.start();
+        int rowsDeleted = doDelete(uri, selection, selectionArgs);
+        if (start != 0) {
+            mMetrics.record(ProviderMetrics.OP_DELETE, sUriMatcher.match(uri), start, rowsDeleted,
+                    getCaller());
+        }
+        return rowsDeleted;
+    }
+
+    private int doDelete(Uri uri, String selection, String[] selectionArgs) {
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
         int rowsDeleted;
+        Set<String> locationSettings;
         // this makes delete all rows return the number of rows deleted
         if ( null == selection ) selection = "1";
         switch (match) {
             case WEATHER:
-                rowsDeleted = db.delete(
-                        WeatherContract.WeatherEntry.TABLE_NAME, selection, selectionArgs);
+                locationSettings = getLocationSettingsForWeather(db, selection, selectionArgs);
+                rowsDeleted = WeatherTable.delete(db, selection, selectionArgs);
                 break;
             case LOCATION:
+                locationSettings = getLocationSettings(db, selection, selectionArgs);
+                mLocationIdCache.clear();
                 rowsDeleted = db.delete(
                         WeatherContract.LocationEntry.TABLE_NAME, selection, selectionArgs);
                 break;
+            case HOURLY:
+                rowsDeleted = db.delete(
+                        WeatherContract.HourlyEntry.TABLE_NAME, selection, selectionArgs);
+                if (rowsDeleted != 0) {
+                    notifyChange(uri);
+                }
+                return rowsDeleted;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
         // Because a null deletes all rows
         if (rowsDeleted != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            if (match == LOCATION) {
+                notifyChange(uri);
+            }
+            notifyWeatherChange(locationSettings);
         }
         return rowsDeleted;
     }
@@ -292,17 +928,38 @@ public class WeatherProvider extends ContentProvider {
     @Override
     public int update(
             Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+        long start = mMetrics.start();
+        int rowsUpdated = doUpdate(uri, values, selection, selectionArgs);
+        if (start != 0) {
+            mMetrics.record(ProviderMetrics.OP_UPDATE, sUriMatcher.match(uri), start, rowsUpdated,
+                    getCaller());
+        }
+        return rowsUpdated;
+    }
+
+    private int doUpdate(
+            Uri uri, ContentValues values, String selection, String[] selectionArgs) {
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
         int rowsUpdated;
+        Set<String> locationSettings;
 
         switch (match) {
             case WEATHER:
                 normalizeDate(values);
-                rowsUpdated = db.update(WeatherContract.WeatherEntry.TABLE_NAME, values, selection,
-                        selectionArgs);
+                // Rows can move between locations, so collect both the old and the new owners
+                locationSettings = getLocationSettingsForWeather(db, selection, selectionArgs);
+                rowsUpdated = WeatherTable.update(db, values, selection, selectionArgs);
+                locationSettings.addAll(getLocationSettingsForInsert(db, values));
                 break;
             case LOCATION:
+                LocationGrid.putGridCell(values);
+                locationSettings = getLocationSettings(db, selection, selectionArgs);
+                // Stamping the fetch time, as every sync does, leaves the IDs alone
+                if (values.containsKey(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING)
+                        || values.containsKey(WeatherContract.LocationEntry._ID)) {
+                    mLocationIdCache.clear();
+                }
                 rowsUpdated = db.update(WeatherContract.LocationEntry.TABLE_NAME, values, selection,
                         selectionArgs);
                 break;
@@ -310,44 +967,738 @@ public class WeatherProvider extends ContentProvider {
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
         if (rowsUpdated != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            if (match == LOCATION) {
+                notifyChange(uri);
+            }
+            notifyWeatherChange(locationSettings);
         }
         return rowsUpdated;
     }
 
     @Override
     public int bulkInsert(Uri uri, ContentValues[] values) {
+        long start = mMetrics.start();
+        int returnCount = doBulkInsert(uri, values);
+        if (start != 0) {
+            mMetrics.record(ProviderMetrics.OP_BULK_INSERT, sUriMatcher.match(uri), start,
+                    returnCount, getCaller());
+        }
+        return returnCount;
+    }
+
+    private int doBulkInsert(Uri uri, ContentValues[] values) {
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
         switch (match) {
             case WEATHER:
+                boolean openedBatch = beginNotificationBatch();
+                boolean committed = false;
+                mMaintenanceLock.readLock().lock();
                 db.beginTransaction();
-                int returnCount = 0;
+                int returnCount;
                 try {
-                    for (ContentValues value : values) {
-                        normalizeDate(value);
-                        long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value);
-                        if (_id != -1) {
-                            returnCount++;
-                        }
-                    }
+                    returnCount = insertWeather(db, values);
                     db.setTransactionSuccessful();
+                    committed = true;
                 } finally {
                     db.endTransaction();
+                    mMaintenanceLock.readLock().unlock();
+                    endNotificationBatch(openedBatch, committed);
                 }
-                getContext().getContentResolver().notifyChange(uri, null);
                 return returnCount;
+            case HOURLY:
+                boolean openedHourlyBatch = beginNotificationBatch();
+                boolean hourlyCommitted = false;
+                mMaintenanceLock.readLock().lock();
+                db.beginTransaction();
+                try {
+                    insertHourlySamples(db, values);
+                    db.setTransactionSuccessful();
+                    hourlyCommitted = true;
+                } finally {
+                    db.endTransaction();
+                    mMaintenanceLock.readLock().unlock();
+                    endNotificationBatch(openedHourlyBatch, hourlyCommitted);
+                }
+                return values.length;
             default:
                 return super.bulkInsert(uri, values);
         }
     }
 
+    /**
+     * Inserts weather rows inside the caller's transaction and queues the notifications for
+     * their locations.
+     *
+     * @return the number of rows inserted.
+     */
+    private int insertWeather(SQLiteDatabase db, ContentValues[] values) {
+        int returnCount = 0;
+        Set<String> locationSettings = new HashSet<>();
+        Set<Long> seenLocationIds = new HashSet<>();
+        for (ContentValues value : values) {
+            normalizeDate(value);
+            long _id = WeatherTable.insert(db, value);
+            if (_id != -1) {
+                returnCount++;
+                // Each location only needs to be looked up once per batch
+                Long locationId = value.getAsLong(WeatherContract.WeatherEntry.COLUMN_LOC_KEY);
+                if (seenLocationIds.add(locationId)) {
+                    locationSettings.addAll(getLocationSettingsForInsert(db, value));
+                }
+            }
+        }
+        if (returnCount > 0) {
+            notifyWeatherChange(locationSettings);
+        }
+        return returnCount;
+    }
+
+    /**
+     * Applies the operations in a single transaction, and sends each change notification once
+     * when the whole batch has been committed rather than once per operation.
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        boolean openedBatch = beginNotificationBatch();
+        boolean committed = false;
+        mMaintenanceLock.readLock().lock();
+        db.beginTransaction();
+        try {
+            ContentProviderResult[] results = super.applyBatch(operations);
+            db.setTransactionSuccessful();
+            committed = true;
+            return results;
+        } finally {
+            db.endTransaction();
+            mMaintenanceLock.readLock().unlock();
+            endNotificationBatch(openedBatch, committed);
+        }
+    }
+
+    /**
+     * Handles the provider methods declared in WeatherContract.
+     */
+    @Override
+    public Bundle call(String method, String arg, Bundle extras) {
+        if (WeatherContract.METHOD_ARCHIVE_HISTORY.equals(method)) {
+            Bundle result = new Bundle();
+            result.putInt(WeatherContract.EXTRA_ROW_COUNT,
+                    archiveHistory(extras.getLong(WeatherContract.EXTRA_DATE)));
+            return result;
+        }
+        if (WeatherContract.METHOD_GET_FORECAST_SNAPSHOT.equals(method)) {
+            refreshIfStale(arg, extras.getLong(WeatherContract.EXTRA_MAX_AGE, -1));
+            return getForecastSnapshot(arg, extras.getLong(WeatherContract.EXTRA_DATE));
+        }
+        if (WeatherContract.METHOD_RUN_MAINTENANCE.equals(method)) {
+            return runMaintenance();
+        }
+        if (WeatherContract.METHOD_EVICT_LOCATIONS.equals(method)) {
+            Bundle result = new Bundle();
+            result.putInt(WeatherContract.EXTRA_ROW_COUNT,
+                    evictLocations(extras.getInt(WeatherContract.EXTRA_MAX_LOCATIONS)));
+            return result;
+        }
+        if (WeatherContract.METHOD_SET_METRICS_ENABLED.equals(method)) {
+            boolean enabled = extras.getBoolean(WeatherContract.EXTRA_ENABLED);
+            if (enabled && !mMetrics.isEnabled()) {
+                mMetrics.reset();
+            }
+            mMetrics.setEnabled(enabled);
+            return null;
+        }
+        return super.call(method, arg, extras);
+    }
+
+    /**
+     * Runs database maintenance if no write batch is open, and keeps the report for dump().
+     */
+    private Bundle runMaintenance() {
+        if (!mMaintenanceLock.writeLock().tryLock()) {
+            Bundle skipped = new Bundle();
+            skipped.putBoolean(WeatherContract.EXTRA_MAINTENANCE_SKIPPED, true);
+            return skipped;
+        }
+        try {
+            Bundle report = DatabaseMaintenance.run(mOpenHelper.getWritableDatabase(),
+                    getContext().getDatabasePath(WeatherDbHelper.DATABASE_NAME));
+            mLastMaintenanceReport = DatabaseMaintenance.describe(report);
+            Log.i(LOG_TAG, "Database maintenance: " + mLastMaintenanceReport);
+            return report;
+        } finally {
+            mMaintenanceLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Reads the forecast for a location through the snapshot cache and returns it as primitive
+     * arrays, so that a widget gets everything it needs in one call without a cursor.
+     */
+    private Bundle getForecastSnapshot(String locationSetting, long startDate) {
+        noteLocationQueried(locationSetting);
+        return readForecastSnapshot(locationSetting, startDate).toBundle();
+    }
+
+    private ForecastSnapshot readForecastSnapshot(String locationSetting, long startDate) {
+        Uri uri = WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
+                locationSetting, startDate);
+        Cursor cursor = getCachedWeather(uri, WEATHER_WITH_LOCATION,
+                WeatherContract.WeatherEntry.getStartDateFromUri(uri), ForecastSnapshot.COLUMNS,
+                WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+        try {
+            return ForecastSnapshot.fromCursor(cursor);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Queues a rewrite of the cold-start snapshot file.  Writes arrive in bursts, so a rewrite
+     * already queued covers any that come in before it runs.
+     */
+    private void scheduleSnapshotFileWrite() {
+        if (!mSnapshotFileQueued.compareAndSet(false, true)) {
+            return;
+        }
+        mBackgroundExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                mSnapshotFileQueued.set(false);
+                String locationSetting = Utility.getPreferredLocation(getContext());
+                ForecastSnapshot snapshot = readForecastSnapshot(locationSetting,
+                        JulianDay.toMillis(JulianDay.today()));
+                try {
+                    ForecastSnapshotFile.write(getContext(), locationSetting, snapshot);
+                } catch (IOException e) {
+                    Log.w(LOG_TAG, "Could not write the forecast snapshot file", e);
+                    ForecastSnapshotFile.delete(getContext());
+                }
+            }
+        });
+    }
+
+    /**
+     * Moves weather rows dated before the given date into the history archive and compacts
+     * the archive.  Observers are only notified when rows were actually archived.
+     *
+     * @return the number of weather rows archived.
+     */
+    int archiveHistory(long beforeDate) {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        beforeDate = WeatherContract.normalizeDate(beforeDate);
+        String[] selectionArgs = new String[]{Long.toString(beforeDate)};
+        Set<String> locationSettings;
+        int rowsArchived;
+        mMaintenanceLock.readLock().lock();
+        try {
+            db.beginTransaction();
+            try {
+                locationSettings = getLocationSettingsForWeather(db,
+                        WeatherContract.WeatherEntry.COLUMN_DATE + " < ?", selectionArgs);
+                rowsArchived = HistoryArchive.archive(db, beforeDate);
+                // Past hourly samples are not worth keeping
+                db.delete(WeatherContract.HourlyEntry.TABLE_NAME,
+                        WeatherContract.HourlyEntry.COLUMN_DATE + " < ?", selectionArgs);
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            if (rowsArchived > 0) {
+                notifyWeatherChange(locationSettings);
+                notifyChange(WeatherContract.HistoryEntry.CONTENT_URI);
+            }
+
+            // Compaction commits in small batches of its own, outside the archive transaction
+            HistoryArchive.compact(db, beforeDate);
+        } finally {
+            mMaintenanceLock.readLock().unlock();
+        }
+        return rowsArchived;
+    }
+
+    /*
+        Typed entry points for WeatherRepository.  They share the caches, the maintenance lock
+        and the notification batching of the URI operations above, so readers of either path
+        see the same data and observers hear about every write.  What they skip is the
+        ContentResolver, the URI matching and the Bundle marshalling.
+     */
+
+    /**
+     * @return the forecast for the location from startDate on, read through the snapshot
+     * cache, requesting a refresh if it was fetched more than maxAge ago (if maxAge >= 0).
+     */
+    ForecastSnapshot queryForecast(String locationSetting, long startDate, long maxAge) {
+        long start = mMetrics.start();
+        refreshIfStale(locationSetting, maxAge);
+        noteLocationQueried(locationSetting);
+        ForecastSnapshot snapshot = readForecastSnapshot(locationSetting, startDate);
+        if (start != 0) {
+            mMetrics.record(ProviderMetrics.OP_QUERY, WEATHER_WITH_LOCATION, start,
+                    snapshot.getCount(), getContext().getPackageName());
+        }
+        return snapshot;
+    }
+
+    /**
+     * @return the row ID of the location, inserting it if it is new.
+     */
+    long insertLocation(ContentValues values) {
+        long start = mMetrics.start();
+        long _id = insertOrGetLocation(mOpenHelper.getWritableDatabase(), values);
+        if (_id <= 0) {
+            throw new android.database.SQLException("Failed to insert location " + values);
+        }
+        if (start != 0) {
+            mMetrics.record(ProviderMetrics.OP_INSERT, LOCATION, start, 1,
+                    getContext().getPackageName());
+        }
+        return _id;
+    }
+
+    /**
+     * Inserts a location's freshly fetched forecast and stamps the location's fetch time in one
+     * transaction, sending each notification once after it commits.
+     *
+     * @return the number of weather rows inserted.
+     */
+    int insertForecast(long locationId, ContentValues[] values, long fetchedAt) {
+        long start = mMetrics.start();
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        boolean openedBatch = beginNotificationBatch();
+        boolean committed = false;
+        int returnCount;
+        mMaintenanceLock.readLock().lock();
+        db.beginTransaction();
+        try {
+            returnCount = insertWeather(db, values);
+
+            String[] locationArgs = new String[]{Long.toString(locationId)};
+            ContentValues stamp = new ContentValues();
+            stamp.put(WeatherContract.LocationEntry.COLUMN_FETCHED_AT, fetchedAt);
+            if (db.update(WeatherContract.LocationEntry.TABLE_NAME, stamp, sLocationIdSelection,
+                    locationArgs) != 0) {
+                notifyChange(WeatherContract.LocationEntry.CONTENT_URI);
+                // The fetch time is part of every forecast snapshot for the location
+                notifyWeatherChange(getLocationSettings(db, sLocationIdSelection, locationArgs));
+            }
+            db.setTransactionSuccessful();
+            committed = true;
+        } finally {
+            db.endTransaction();
+            mMaintenanceLock.readLock().unlock();
+            endNotificationBatch(openedBatch, committed);
+        }
+        if (start != 0) {
+            mMetrics.record(ProviderMetrics.OP_BULK_INSERT, WEATHER, start, returnCount,
+                    getContext().getPackageName());
+        }
+        return returnCount;
+    }
+
+    /**
+     * @return a readable name for a UriMatcher code, for metrics.
+     */
+    static String getRouteName(int match) {
+        switch (match) {
+            case WEATHER:
+                return "weather";
+            case WEATHER_WITH_LOCATION:
+                return "weather/*";
+            case WEATHER_WITH_LOCATION_AND_DATE:
+                return "weather/*/#";
+            case WEATHER_RANGE_STATS:
+                return "weather/*/range/#/#/stats";
+            case WEATHER_TODAY:
+                return "today";
+            case LOCATION:
+                return "location";
+            case LOCATION_NEAREST:
+                return "location/nearest";
+            case HISTORY_WITH_LOCATION:
+                return "history/*";
+            case HOURLY:
+                return "hourly";
+            case HOURLY_WITH_LOCATION:
+                return "hourly/*";
+            case METRICS:
+                return "metrics";
+            default:
+                return "unknown(" + match + ")";
+        }
+    }
+
+    ProviderMetrics getMetrics() {
+        return mMetrics;
+    }
+
+    private String getCaller() {
+        try {
+            return getCallingPackage();
+        } catch (SecurityException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        mMetrics.dump(writer);
+        writer.println("Notifications sent: " + getNotificationCount() +
+                ", re-queries caused: " + getRequeryCount());
+        writer.println(mSnapshotCache);
+        writer.println(mQueryPlanCache);
+        writer.println("Last maintenance: " +
+                (mLastMaintenanceReport != null ? mLastMaintenanceReport : "never"));
+    }
+
+    /**
+     * @return the number of change notifications this provider has sent.
+     */
+    long getNotificationCount() {
+        return mNotificationsSent.get();
+    }
+
+    /**
+     * @return the number of location queries that followed a change notification for that
+     * location, i.e. the re-queries the notifications caused.
+     */
+    long getRequeryCount() {
+        return mRequeriesCaused.get();
+    }
+
+    private boolean beginNotificationBatch() {
+        if (mPendingNotifications.get() != null) {
+            return false;
+        }
+        mPendingNotifications.set(new LinkedHashSet<Uri>());
+        return true;
+    }
+
+    private void endNotificationBatch(boolean openedBatch, boolean committed) {
+        if (!openedBatch) {
+            return;
+        }
+        Set<Uri> pending = mPendingNotifications.get();
+        mPendingNotifications.remove();
+        // Even a rolled back batch may have had its uncommitted rows read into snapshots
+        // while it was open, so drop them either way
+        for (Uri uri : pending) {
+            invalidateSnapshots(uri);
+        }
+        if (!committed) {
+            // A rolled back batch changed nothing, so there is nothing to tell observers.
+            // Location IDs cached during the batch may belong to rows that were rolled back.
+            mLocationIdCache.clear();
+            return;
+        }
+        for (Uri uri : pending) {
+            sendNotification(uri);
+        }
+    }
+
+    private void notifyChange(Uri uri) {
+        // Drop cached snapshots as soon as the write happens, and again when the notification
+        // is finally sent, so that reads made while a batch was open are not kept.
+        invalidateSnapshots(uri);
+        Set<Uri> pending = mPendingNotifications.get();
+        if (pending != null) {
+            pending.add(uri);
+        } else {
+            sendNotification(uri);
+        }
+    }
+
+    private void sendNotification(Uri uri) {
+        int match = sUriMatcher.match(uri);
+        if (match == WEATHER_WITH_LOCATION) {
+            String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
+            mNotifiedLocations.add(locationSetting);
+            if (locationSetting.equals(Utility.getPreferredLocation(getContext()))) {
+                scheduleSnapshotFileWrite();
+            }
+        } else if (match == WEATHER) {
+            scheduleSnapshotFileWrite();
+        }
+        mNotificationsSent.incrementAndGet();
+        getContext().getContentResolver().notifyChange(uri, null);
+    }
+
+    private void invalidateSnapshots(Uri uri) {
+        switch (sUriMatcher.match(uri)) {
+            case WEATHER_WITH_LOCATION:
+                mSnapshotCache.invalidate(
+                        WeatherContract.WeatherEntry.getLocationSettingFromUri(uri));
+                break;
+            case WEATHER:
+                mSnapshotCache.invalidateAll();
+                break;
+        }
+    }
+
+    /**
+     * @return the forecast snapshot cache, for inspecting its hit rate and size.
+     */
+    ForecastSnapshotCache getSnapshotCache() {
+        return mSnapshotCache;
+    }
+
+    /**
+     * @return the query plan cache, for inspecting its hit rate and savings.
+     */
+    QueryPlanCache getQueryPlanCache() {
+        return mQueryPlanCache;
+    }
+
+    /**
+     * Requests a background sync if the location was fetched longer ago than maxAge.  The read
+     * that asked goes ahead with the cached rows either way.
+     */
+    private void refreshIfStale(String locationSetting, long maxAge) {
+        if (maxAge < 0) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        if (now - getFetchedAt(locationSetting) <= maxAge) {
+            return;
+        }
+        // A sync only ever fetches the preferred location
+        if (!locationSetting.equals(Utility.getPreferredLocation(getContext()))) {
+            return;
+        }
+        long lastRequest = mLastRefreshRequest.get();
+        if (now - lastRequest < REFRESH_THROTTLE_MILLIS
+                || !mLastRefreshRequest.compareAndSet(lastRequest, now)) {
+            return;
+        }
+        Log.d(LOG_TAG, "Forecast for " + locationSetting + " is older than " + maxAge +
+                "ms, requesting a refresh");
+        SunshineSyncAdapter.syncImmediately(getContext());
+    }
+
+    /**
+     * @return when the location was last fetched, or 0 if it never was.
+     */
+    private long getFetchedAt(String locationSetting) {
+        try {
+            // NULL, for a location not fetched yet, reads as 0
+            return DatabaseUtils.longForQuery(mOpenHelper.getReadableDatabase(), "SELECT " +
+                    WeatherContract.LocationEntry.COLUMN_FETCHED_AT + " FROM " +
+                    WeatherContract.LocationEntry.TABLE_NAME + " WHERE " +
+                    WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                    new String[]{locationSetting});
+        } catch (SQLiteDoneException e) {
+            return 0;
+        }
+    }
+
+    private void noteLocationQueried(String locationSetting) {
+        mPendingAccesses.put(locationSetting, System.currentTimeMillis());
+        if (mNotifiedLocations.remove(locationSetting)) {
+            mRequeriesCaused.incrementAndGet();
+        }
+    }
+
+    /**
+     * Writes out the location reads recorded since the last flush.
+     */
+    private void flushAccesses(SQLiteDatabase db) {
+        Map<String, Long> accesses = new HashMap<>(mPendingAccesses);
+        LocationEviction.recordAccesses(db, accesses);
+        for (Map.Entry<String, Long> access : accesses.entrySet()) {
+            // A read made during the flush stays pending
+            mPendingAccesses.remove(access.getKey(), access.getValue());
+        }
+    }
+
+    /**
+     * Deletes the least recently read locations, and their weather, until at most maxLocations
+     * are left.  Pinned locations and the preferred location are kept.  Each batch of
+     * locations is deleted in its own transaction and notified once it commits.
+     *
+     * @return the number of locations deleted.
+     */
+    int evictLocations(int maxLocations) {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        int evicted = 0;
+        mMaintenanceLock.readLock().lock();
+        try {
+            flushAccesses(db);
+            LinkedHashMap<Long, String> evictable = LocationEviction.selectEvictable(db,
+                    maxLocations, Utility.getPreferredLocation(getContext()));
+            Long[] locationIds = evictable.keySet().toArray(new Long[evictable.size()]);
+            for (int i = 0; i < locationIds.length; i += LocationEviction.BATCH_LOCATIONS) {
+                Long[] batch = Arrays.copyOfRange(locationIds, i,
+                        Math.min(locationIds.length, i + LocationEviction.BATCH_LOCATIONS));
+                Set<String> locationSettings = new HashSet<>();
+                for (Long locationId : batch) {
+                    locationSettings.add(evictable.get(locationId));
+                }
+                db.beginTransaction();
+                try {
+                    evicted += LocationEviction.delete(db, batch);
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+                mLocationIdCache.clear();
+                notifyChange(WeatherContract.LocationEntry.CONTENT_URI);
+                notifyWeatherChange(locationSettings);
+            }
+        } finally {
+            mMaintenanceLock.readLock().unlock();
+        }
+        if (evicted > 0) {
+            Log.d(LOG_TAG, "Evicted " + evicted + " least recently used locations");
+        }
+        return evicted;
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        // The app has gone into the background, where it may be killed at any moment
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN && !mPendingAccesses.isEmpty()) {
+            mBackgroundExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    flushAccesses(mOpenHelper.getWritableDatabase());
+                }
+            });
+        }
+    }
+
+    /**
+     * Notifies the weather/[location] URI of each location, so that loaders watching other
+     * locations are not woken.  Falls back to the whole weather URI when the owning locations
+     * are unknown.
+     */
+    private void notifyWeatherChange(Set<String> locationSettings) {
+        if (locationSettings.isEmpty()) {
+            notifyChange(WeatherContract.WeatherEntry.CONTENT_URI);
+        } else {
+            for (String locationSetting : locationSettings) {
+                notifyChange(WeatherContract.WeatherEntry.buildWeatherLocation(locationSetting));
+            }
+        }
+        // today spans every location and sits outside weather/, so is notified either way
+        notifyChange(WeatherContract.WeatherEntry.buildWeatherToday());
+    }
+
+    /**
+     * Resolves a location setting to its row ID, inserting the location if it is new.  A cached
+     * location needs no SQL; otherwise a single INSERT OR IGNORE either creates the row or, if
+     * the setting already exists, falls through to one indexed lookup of its ID.
+     *
+     * @return the row ID of the location, or -1 if it could not be inserted.
+     */
+    private long insertOrGetLocation(SQLiteDatabase db, ContentValues values) {
+        String locationSetting =
+                values.getAsString(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING);
+        if (locationSetting == null) {
+            return -1;
+        }
+        Long cachedId = mLocationIdCache.getId(locationSetting);
+        if (cachedId != null) {
+            return cachedId;
+        }
+
+        long generation = mLocationIdCache.getGeneration();
+        LocationGrid.putGridCell(values);
+        // A new location counts as just read, so it isn't the first to be evicted
+        if (!values.containsKey(WeatherContract.LocationEntry.COLUMN_LAST_ACCESSED)) {
+            values.put(WeatherContract.LocationEntry.COLUMN_LAST_ACCESSED,
+                    System.currentTimeMillis());
+        }
+        long _id = db.insertWithOnConflict(WeatherContract.LocationEntry.TABLE_NAME, null,
+                values, SQLiteDatabase.CONFLICT_IGNORE);
+        if (_id != -1) {
+            notifyChange(WeatherContract.LocationEntry.CONTENT_URI);
+        } else {
+            try {
+                _id = DatabaseUtils.longForQuery(db, "SELECT " +
+                        WeatherContract.LocationEntry._ID + " FROM " +
+                        WeatherContract.LocationEntry.TABLE_NAME + " WHERE " +
+                        WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                        new String[]{locationSetting});
+            } catch (SQLiteDoneException e) {
+                // The row was ignored for another reason, such as a missing NOT NULL column
+                return -1;
+            }
+        }
+        mLocationIdCache.put(locationSetting, _id, generation);
+        return _id;
+    }
+
+    private Set<String> getLocationSettingsForInsert(SQLiteDatabase db, ContentValues values) {
+        Long locationId = values.getAsLong(WeatherContract.WeatherEntry.COLUMN_LOC_KEY);
+        if (locationId == null) {
+            return new HashSet<>();
+        }
+        String cachedSetting = mLocationIdCache.getLocationSetting(locationId);
+        if (cachedSetting != null) {
+            return new HashSet<>(Collections.singleton(cachedSetting));
+        }
+        long generation = mLocationIdCache.getGeneration();
+        Set<String> locationSettings = getLocationSettings(db, sLocationIdSelection,
+                new String[]{Long.toString(locationId)});
+        for (String locationSetting : locationSettings) {
+            mLocationIdCache.put(locationSetting, locationId, generation);
+        }
+        return locationSettings;
+    }
+
+    /**
+     * @return the location ID cache, for tests.
+     */
+    LocationIdCache getLocationIdCache() {
+        return mLocationIdCache;
+    }
+
+    private Set<String> getLocationSettingsForWeather(
+            SQLiteDatabase db, String selection, String[] selectionArgs) {
+        // A sub-select keeps the caller's selection evaluated against the weather table only,
+        // so unqualified columns such as _id stay unambiguous.
+        String weatherSelection = WeatherContract.LocationEntry._ID + " IN (SELECT " +
+                WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " FROM " +
+                WeatherContract.WeatherEntry.TABLE_NAME +
+                (selection != null ? " WHERE " + selection : "") + ")";
+        return getLocationSettings(db, weatherSelection, selectionArgs);
+    }
+
+    private Set<String> getLocationSettings(
+            SQLiteDatabase db, String selection, String[] selectionArgs) {
+        Set<String> locationSettings = new HashSet<>();
+        Cursor cursor = db.query(WeatherContract.LocationEntry.TABLE_NAME,
+                new String[]{WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING},
+                selection, selectionArgs, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                locationSettings.add(cursor.getString(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return locationSettings;
+    }
+
     // You do not need to call this method. This is a method specifically to assist the testing
     // framework in running smoothly. You can read more at:
     // http://developer.android.com/reference/android/content/ContentProvider.html#shutdown()
     @Override
     @TargetApi(11)
     public void shutdown() {
+        // Let queued snapshot writes and access flushes finish before the database closes
+        mBackgroundExecutor.shutdown();
+        try {
+            if (!mBackgroundExecutor.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                mBackgroundExecutor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            mBackgroundExecutor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
         mOpenHelper.close();
         super.shutdown();
     }
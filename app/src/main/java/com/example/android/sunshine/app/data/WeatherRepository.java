@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentProvider;
+import android.content.ContentProviderClient;
+import android.content.ContentValues;
+import android.content.Context;
+
+/**
+ * Typed access to the weather database for code running in the app's own process, such as
+ * the sync adapter, the widgets and the Muzei source.
+ * <p>
+ * Calls go straight to the process's {@link WeatherProvider} instance rather than through the
+ * ContentResolver, so they skip provider lookup, URI matching and Bundle marshalling.  They
+ * still share the provider's database, caches and change notifications, so loaders and other
+ * ContentResolver clients see every write made here.  The provider remains the way in for
+ * everything outside the process.
+ */
+public class WeatherRepository {
+
+    private static WeatherRepository sInstance;
+
+    private final WeatherProvider mProvider;
+
+    private WeatherRepository(WeatherProvider provider) {
+        mProvider = provider;
+    }
+
+    public static synchronized WeatherRepository getInstance(Context context) {
+        if (sInstance == null) {
+            ContentProviderClient client = context.getApplicationContext().getContentResolver()
+                    .acquireContentProviderClient(WeatherContract.CONTENT_AUTHORITY);
+            if (client == null) {
+                throw new IllegalStateException(
+                        "No provider for " + WeatherContract.CONTENT_AUTHORITY);
+            }
+            try {
+                ContentProvider provider = client.getLocalContentProvider();
+                if (!(provider instanceof WeatherProvider)) {
+                    throw new IllegalStateException(WeatherContract.CONTENT_AUTHORITY +
+                            " isn't a WeatherProvider in this process: " + provider);
+                }
+                // A provider in our own process lives as long as the process does, so the
+                // instance stays valid after the client is released
+                sInstance = new WeatherRepository((WeatherProvider) provider);
+            } finally {
+                client.release();
+            }
+        }
+        return sInstance;
+    }
+
+    /**
+     * @return the forecast for the location from the day of startDate on.
+     */
+    public ForecastSnapshot getForecast(String locationSetting, long startDate) {
+        return getForecast(locationSetting, startDate, -1);
+    }
+
+    /**
+     * As {@link #getForecast(String, long)}, also requesting a background refresh if the
+     * location was fetched more than maxAge milliseconds ago.
+     */
+    public ForecastSnapshot getForecast(String locationSetting, long startDate, long maxAge) {
+        return mProvider.queryForecast(locationSetting, startDate, maxAge);
+    }
+
+    /**
+     * @return the row ID of the location, which is inserted if it is new.
+     */
+    public long addLocation(String locationSetting, String cityName, double lat, double lon) {
+        ContentValues values = new ContentValues();
+        values.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, cityName);
+        values.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
+        values.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, lat);
+        values.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, lon);
+        return mProvider.insertLocation(values);
+    }
+
+    /**
+     * Stores a freshly fetched forecast for a location, replacing rows for the same days, and
+     * records fetchedAt as the location's fetch time.  Both land in one transaction.
+     *
+     * @return the number of weather rows stored.
+     */
+    public int saveForecast(long locationId, ContentValues[] weatherValues, long fetchedAt) {
+        return mProvider.insertForecast(locationId, weatherValues, fetchedAt);
+    }
+
+    /**
+     * Moves weather dated before the given day into the history archive.
+     *
+     * @return the number of weather rows archived.
+     */
+    public int archiveHistory(long beforeDate) {
+        return mProvider.archiveHistory(beforeDate);
+    }
+
+    /**
+     * Pins a location so that it is never evicted, or unpins it.
+     */
+    public void setLocationPinned(String locationSetting, boolean pinned) {
+        ContentValues values = new ContentValues();
+        values.put(WeatherContract.LocationEntry.COLUMN_PINNED, pinned ? 1 : 0);
+        mProvider.update(WeatherContract.LocationEntry.CONTENT_URI, values,
+                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                new String[]{locationSetting});
+    }
+
+    /**
+     * Deletes the least recently read locations, and their weather, until at most
+     * maxLocations are left.  Pinned locations and the preferred location are kept.
+     *
+     * @return the number of locations deleted.
+     */
+    public int evictLocations(int maxLocations) {
+        return mProvider.evictLocations(maxLocations);
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/**
+ * Writes weather rows into their compact storage, which the weather view decodes again.
+ * <p>
+ * Measurements are stored as fixed-point integers, which SQLite packs into one to four bytes
+ * instead of the eight of a REAL, keeping every decimal the API reports: two for temperatures,
+ * humidity, pressure and wind speed, and one for wind direction.  The description
+ * is fully determined by the weather_id, so it is stored once per weather_id in the condition
+ * table rather than in every row.  Together they roughly halve the size of a row.
+ * <p>
+ * Selections given to update and delete are evaluated against the view, so callers go on
+ * selecting by the decoded values.
+ */
+class WeatherTable {
+
+    // Stored integer = value * scale
+    static final int TEMP_SCALE = 100;
+    static final int HUMIDITY_SCALE = 100;
+    static final int PRESSURE_SCALE = 100;
+    static final int WIND_SPEED_SCALE = 100;
+    static final int DEGREES_SCALE = 10;
+
+    static final String[] SCALED_COLUMNS = {
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherEntry.COLUMN_DEGREES
+    };
+    private static final int[] SCALES = {
+            TEMP_SCALE,
+            TEMP_SCALE,
+            HUMIDITY_SCALE,
+            PRESSURE_SCALE,
+            WIND_SPEED_SCALE,
+            DEGREES_SCALE
+    };
+
+    private WeatherTable() {
+    }
+
+    /**
+     * @return an SQL expression decoding a scaled column of the data table.  The cast gives it
+     * REAL affinity, so selections comparing it with string arguments behave as they did on the
+     * REAL columns.
+     */
+    static String decode(String table, int column) {
+        return "CAST(" + table + "." + SCALED_COLUMNS[column] + " / " + SCALES[column] +
+                ".0 AS REAL)";
+    }
+
+    /**
+     * @return an SQL expression encoding a REAL column, for migrating existing rows.
+     */
+    static String encode(String table, int column) {
+        return "CAST(ROUND(" + table + "." + SCALED_COLUMNS[column] + " * " + SCALES[column] +
+                ") AS INTEGER)";
+    }
+
+    /**
+     * @return a copy of the values as stored in the data table: measurements scaled, and the
+     * description left out.
+     */
+    static ContentValues encode(ContentValues values) {
+        ContentValues encoded = new ContentValues(values);
+        encoded.remove(WeatherEntry.COLUMN_SHORT_DESC);
+        for (int i = 0; i < SCALED_COLUMNS.length; i++) {
+            Double value = values.getAsDouble(SCALED_COLUMNS[i]);
+            if (value != null) {
+                encoded.put(SCALED_COLUMNS[i], Math.round(value * SCALES[i]));
+            }
+        }
+        return encoded;
+    }
+
+    /**
+     * Inserts a row, replacing the row for the same location and day if there is one.
+     *
+     * @return the row ID, or -1 if the row could not be inserted.
+     */
+    static long insert(SQLiteDatabase db, ContentValues values) {
+        String shortDesc = values.getAsString(WeatherEntry.COLUMN_SHORT_DESC);
+        Integer weatherId = values.getAsInteger(WeatherEntry.COLUMN_WEATHER_ID);
+        // Both were NOT NULL columns of the weather table, and a row still needs both
+        if (shortDesc == null || weatherId == null) {
+            return -1;
+        }
+        putCondition(db, weatherId, shortDesc);
+        return db.insert(WeatherEntry.DATA_TABLE_NAME, null, encode(values));
+    }
+
+    /**
+     * @return the number of rows matched.
+     */
+    static int update(SQLiteDatabase db, ContentValues values, String selection,
+                      String[] selectionArgs) {
+        ContentValues encoded = encode(values);
+        int rowsUpdated = encoded.size() == 0
+                ? (int) DatabaseUtils.queryNumEntries(db, WeatherEntry.TABLE_NAME, selection,
+                        selectionArgs)
+                : db.update(WeatherEntry.DATA_TABLE_NAME, encoded, selectRows(selection),
+                        selectionArgs);
+
+        String shortDesc = values.getAsString(WeatherEntry.COLUMN_SHORT_DESC);
+        if (shortDesc != null) {
+            Integer weatherId = values.getAsInteger(WeatherEntry.COLUMN_WEATHER_ID);
+            if (weatherId != null) {
+                putCondition(db, weatherId, shortDesc);
+            } else if (rowsUpdated > 0) {
+                // The description belongs to the condition, so every row sharing it changes
+                ContentValues condition = new ContentValues();
+                condition.put(WeatherEntry.COLUMN_SHORT_DESC, shortDesc);
+                db.update(WeatherEntry.CONDITION_TABLE_NAME, condition,
+                        WeatherEntry.COLUMN_WEATHER_ID + " IN (SELECT " +
+                                WeatherEntry.COLUMN_WEATHER_ID + " FROM " +
+                                WeatherEntry.TABLE_NAME +
+                                (selection != null ? " WHERE " + selection : "") + ")",
+                        selectionArgs);
+            }
+        }
+        return rowsUpdated;
+    }
+
+    /**
+     * @return the number of rows deleted.
+     */
+    static int delete(SQLiteDatabase db, String selection, String[] selectionArgs) {
+        if (selection == null) {
+            return db.delete(WeatherEntry.DATA_TABLE_NAME, "1", null);
+        }
+        return db.delete(WeatherEntry.DATA_TABLE_NAME, selectRows(selection), selectionArgs);
+    }
+
+    private static String selectRows(String selection) {
+        return WeatherEntry._ID + " IN (SELECT " + WeatherEntry._ID + " FROM " +
+                WeatherEntry.TABLE_NAME + (selection != null ? " WHERE " + selection : "") + ")";
+    }
+
+    private static void putCondition(SQLiteDatabase db, int weatherId, String shortDesc) {
+        ContentValues condition = new ContentValues();
+        condition.put(WeatherEntry.COLUMN_WEATHER_ID, weatherId);
+        condition.put(WeatherEntry.COLUMN_SHORT_DESC, shortDesc);
+        db.insertWithOnConflict(WeatherEntry.CONDITION_TABLE_NAME, null, condition,
+                SQLiteDatabase.CONFLICT_REPLACE);
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.accounts.Account;
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.ComponentName;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.os.AsyncTask;
+import android.os.Bundle;
+import android.util.Log;
+
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.data.WeatherContract;
+
+/**
+ * Runs weather.db maintenance once a day, while the device is idle and charging.  If a sync is
+ * running, or the provider has a write batch open, the job is rescheduled instead.
+ */
+public class DatabaseMaintenanceJobService extends JobService {
+    public final String LOG_TAG = DatabaseMaintenanceJobService.class.getSimpleName();
+
+    private static final int JOB_ID = 1035;
+    private static final long MAINTENANCE_INTERVAL = 24 * 60 * 60 * 1000L;
+
+    private AsyncTask<JobParameters, Void, Boolean> mTask;
+
+    /**
+     * Schedules the maintenance job, unless it is already scheduled.
+     */
+    public static void schedule(Context context) {
+        JobScheduler scheduler =
+                (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        for (JobInfo job : scheduler.getAllPendingJobs()) {
+            if (job.getId() == JOB_ID) {
+                return;
+            }
+        }
+        scheduler.schedule(new JobInfo.Builder(JOB_ID,
+                new ComponentName(context, DatabaseMaintenanceJobService.class))
+                .setRequiresDeviceIdle(true)
+                .setRequiresCharging(true)
+                .setPeriodic(MAINTENANCE_INTERVAL)
+                .build());
+    }
+
+    @Override
+    public boolean onStartJob(JobParameters params) {
+        Account account = SunshineSyncAdapter.getSyncAccount(this);
+        String authority = getString(R.string.content_authority);
+        if (ContentResolver.isSyncActive(account, authority)) {
+            Log.d(LOG_TAG, "Sync in progress, postponing maintenance");
+            // A job that returns false is done, and asks for nothing; only a job still running
+            // can finish asking to be rescheduled
+            jobFinished(params, true);
+            return true;
+        }
+
+        // The job is started on the main thread, and vacuuming can take a while
+        mTask = new AsyncTask<JobParameters, Void, Boolean>() {
+            private JobParameters mParams;
+
+            @Override
+            protected Boolean doInBackground(JobParameters... params) {
+                mParams = params[0];
+                Bundle result = getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                        WeatherContract.METHOD_RUN_MAINTENANCE, null, null);
+                return result == null ||
+                        result.getBoolean(WeatherContract.EXTRA_MAINTENANCE_SKIPPED);
+            }
+
+            @Override
+            protected void onPostExecute(Boolean skipped) {
+                if (skipped) {
+                    Log.d(LOG_TAG, "Write batch in progress, postponing maintenance");
+                }
+                jobFinished(mParams, skipped);
+            }
+        };
+        mTask.execute(params);
+        return true;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        // The device left idle or was unplugged.  A step already running in the provider will
+        // finish, but the job is run again next time rather than counted as done.
+        if (mTask != null) {
+            mTask.cancel(false);
+        }
+        return true;
+    }
+}
@@ -8,7 +8,6 @@ import android.app.PendingIntent;
 import android.content.AbstractThreadedSyncAdapter;
 import android.content.ContentProviderClient;
 import android.content.ContentResolver;
-import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
@@ -27,7 +26,6 @@ import android.support.annotation.IntDef;
 import android.support.annotation.NonNull;
 import android.support.v4.app.NotificationCompat;
 import android.support.v4.app.TaskStackBuilder;
-import android.text.format.Time;
 import android.util.Log;
 import android.widget.Toast;
 
@@ -36,7 +34,10 @@ import com.example.android.sunshine.app.BuildConfig;
 import com.example.android.sunshine.app.MainActivity;
 import com.example.android.sunshine.app.R;
 import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.art.ArtPack;
+import com.example.android.sunshine.app.data.JulianDay;
 import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.data.WeatherRepository;
 import com.example.android.sunshine.app.muzei.WeatherMuzeiSource;
 import com.google.android.gms.common.api.GoogleApiClient;
 import com.google.android.gms.common.api.ResultCallback;
@@ -71,6 +72,10 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     // 60 seconds (1 minute) * 180 = 3 hours
     public static final int SYNC_INTERVAL = 60 * 180;
     public static final int SYNC_FLEXTIME = SYNC_INTERVAL/3;
+    // Readers passing this as maxAge get a refresh once a periodic sync is overdue
+    public static final long MAX_FORECAST_AGE = (SYNC_INTERVAL + SYNC_FLEXTIME) * 1000L;
+    // Locations kept after each sync; older ones are evicted unless pinned or preferred
+    public static final int MAX_CACHED_LOCATIONS = 20;
     private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
     private static final int WEATHER_NOTIFICATION_ID = 3004;
 
@@ -135,6 +140,10 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
         Log.d(LOG_TAG, "Starting sync");
         String locationQuery = Utility.getPreferredLocation(getContext());
 
+        // Bring the preferred art pack onto the device, if it isn't yet, before the forecast
+        // this sync stores is shown with it
+        ArtPack.getInstance(getContext()).installPreferred();
+
         // These two need to be declared outside the try/catch
         // so that they can be closed in the finally block.
         HttpURLConnection urlConnection = null;
@@ -309,14 +318,8 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
             // current day, we're going to take advantage of that to get a nice
             // normalized UTC date for all of our weather.
 
-            Time dayTime = new Time();
-            dayTime.setToNow();
-
             // we start at the day returned by local time. Otherwise this is a mess.
-            int julianStartDay = Time.getJulianDay(System.currentTimeMillis(), dayTime.gmtoff);
-
-            // now we work exclusively in UTC
-            dayTime = new Time();
+            int julianStartDay = JulianDay.today();
 
             for(int i = 0; i < weatherArray.length(); i++) {
                 // These are the values that will be collected.
@@ -336,7 +339,7 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
                 JSONObject dayForecast = weatherArray.getJSONObject(i);
 
                 // Cheating to convert this to UTC time, which is what we want anyhow
-                dateTime = dayTime.setJulianDay(julianStartDay+i);
+                dateTime = JulianDay.toMillis(julianStartDay+i);
 
                 pressure = dayForecast.getDouble(OWM_PRESSURE);
                 humidity = dayForecast.getInt(OWM_HUMIDITY);
@@ -377,14 +380,18 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
             int inserted = 0;
             // add to database
             if ( cVVector.size() > 0 ) {
-                ContentValues[] cvArray = new ContentValues[cVVector.size()];
-                cVVector.toArray(cvArray);
-                getContext().getContentResolver().bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI, cvArray);
-
-                // delete old data so we don't build up an endless history
-                getContext().getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI,
-                        WeatherContract.WeatherEntry.COLUMN_DATE + " <= ?",
-                        new String[] {Long.toString(dayTime.setJulianDay(julianStartDay-1))});
+                // Insert the new data in one transaction, with the fetch time stamped in it
+                // too so that the time never covers rows that didn't land.  Observers are
+                // notified once per location instead of once per write.
+                WeatherRepository repository = WeatherRepository.getInstance(getContext());
+                repository.saveForecast(locationId,
+                        cVVector.toArray(new ContentValues[cVVector.size()]),
+                        System.currentTimeMillis());
+
+                // move past days into the history archive rather than deleting them
+                repository.archiveHistory(JulianDay.toMillis(julianStartDay));
+                // and keep the number of locations the user has looked at bounded
+                repository.evictLocations(MAX_CACHED_LOCATIONS);
 
                 updateWidgets();
                 updateMuzei();
@@ -412,10 +419,29 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
 
         Log.d(LOG_TAG, "API Client Connected");
 
-        String tempHigh = Utility.formatTemperature(getContext(), high);
-        String tempLow = Utility.formatTemperature(getContext(), low);
+        PutDataRequest request = buildWeatherDataRequest(getContext(), high, low, weatherId);
+        Wearable.DataApi.putDataItem(mGoogleApiClient, request)
+                .setResultCallback(new ResultCallback<DataApi.DataItemResult>() {
+                    @Override
+                    public void onResult(@NonNull DataApi.DataItemResult dataItemResult) {
+                        if (!dataItemResult.getStatus().isSuccess()) {
+                            Log.d(LOG_TAG, "Failed to send weather data");
+                        } else {
+                            Log.d(LOG_TAG, "Successfully sent weather data");
+                        }
+                    }
+                });
+    }
 
-        Bitmap bitmap = BitmapFactory.decodeResource(getContext().getResources(), Utility.getArtResourceForWeatherCondition(weatherId));
+    /**
+     * Builds the data item carrying today's high, low and art to the watch.
+     */
+    public static PutDataRequest buildWeatherDataRequest(Context context, double high, double low,
+                                                         int weatherId) {
+        String tempHigh = Utility.formatTemperature(context, high);
+        String tempLow = Utility.formatTemperature(context, low);
+
+        Bitmap bitmap = BitmapFactory.decodeResource(context.getResources(), Utility.getArtResourceForWeatherCondition(weatherId));
         Asset asset = createAssetFromBitmap(bitmap);
 
         PutDataMapRequest putDataMapRequest = PutDataMapRequest.create(WEATHER_PATH);
@@ -427,20 +453,9 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
 
         PutDataRequest request = putDataMapRequest.asPutDataRequest();
 
-        Log.d(LOG_TAG, "High Temp:" + tempHigh + ", Low Temp:" + tempLow + ", IconID: " + weatherId);
-
+        Log.d(TAG, "High Temp:" + tempHigh + ", Low Temp:" + tempLow + ", IconID: " + weatherId);
 
-        Wearable.DataApi.putDataItem(mGoogleApiClient, request)
-                .setResultCallback(new ResultCallback<DataApi.DataItemResult>() {
-                    @Override
-                    public void onResult(@NonNull DataApi.DataItemResult dataItemResult) {
-                        if (!dataItemResult.getStatus().isSuccess()) {
-                            Log.d(LOG_TAG, "Failed to send weather data");
-                        } else {
-                            Log.d(LOG_TAG, "Successfully sent weather data");
-                        }
-                    }
-                });
+        return request;
     }
 
     private static Asset createAssetFromBitmap(Bitmap bitmap) {
@@ -511,18 +526,21 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
                             ? resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_height)
                             : resources.getDimensionPixelSize(R.dimen.notification_large_icon_default);
 
-                    // Retrieve the large icon
-                    Bitmap largeIcon;
-                    try {
-                        largeIcon = Glide.with(context)
-                                .load(artUrl)
-                                .asBitmap()
-                                .error(artResourceId)
-                                .fitCenter()
-                                .into(largeIconWidth, largeIconHeight).get();
-                    } catch (InterruptedException | ExecutionException e) {
-                        Log.e(LOG_TAG, "Error retrieving large icon from " + artUrl, e);
-                        largeIcon = BitmapFactory.decodeResource(resources, artResourceId);
+                    // Retrieve the large icon, from the installed art pack if there is one
+                    Bitmap largeIcon = ArtPack.getInstance(context)
+                            .getArt(weatherId, ArtPack.SIZE_NOTIFICATION);
+                    if (largeIcon == null) {
+                        try {
+                            largeIcon = Glide.with(context)
+                                    .load(artUrl)
+                                    .asBitmap()
+                                    .error(artResourceId)
+                                    .fitCenter()
+                                    .into(largeIconWidth, largeIconHeight).get();
+                        } catch (InterruptedException | ExecutionException e) {
+                            Log.e(LOG_TAG, "Error retrieving large icon from " + artUrl, e);
+                            largeIcon = BitmapFactory.decodeResource(resources, artResourceId);
+                        }
                     }
                     String title = context.getString(R.string.app_name);
 
@@ -584,44 +602,10 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
      * @return the row ID of the added location.
      */
     long addLocation(String locationSetting, String cityName, double lat, double lon) {
-        long locationId;
-
-        // First, check if the location with this city name exists in the db
-        Cursor locationCursor = getContext().getContentResolver().query(
-                WeatherContract.LocationEntry.CONTENT_URI,
-                new String[]{WeatherContract.LocationEntry._ID},
-                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
-                new String[]{locationSetting},
-                null);
-
-        if (locationCursor.moveToFirst()) {
-            int locationIdIndex = locationCursor.getColumnIndex(WeatherContract.LocationEntry._ID);
-            locationId = locationCursor.getLong(locationIdIndex);
-        } else {
-            // Now that the content provider is set up, inserting rows of data is pretty simple.
-            // First create a ContentValues object to hold the data you want to insert.
-            ContentValues locationValues = new ContentValues();
-
-            // Then add the data, along with the corresponding name of the data type,
-            // so the content provider knows what kind of value is being inserted.
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, cityName);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, lat);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, lon);
-
-            // Finally, insert location data into the database.
-            Uri insertedUri = getContext().getContentResolver().insert(
-                    WeatherContract.LocationEntry.CONTENT_URI,
-                    locationValues
-            );
-
-            // The resulting URI contains the ID for the row.  Extract the locationId from the Uri.
-            locationId = ContentUris.parseId(insertedUri);
-        }
-
-        locationCursor.close();
-        // Wait, that worked?  Yes!
-        return locationId;
+        // The repository inserts the location if it is new and otherwise returns the existing
+        // row, usually straight from its in-memory ID cache, so there's no need to query first.
+        return WeatherRepository.getInstance(getContext())
+                .addLocation(locationSetting, cityName, lat, lon);
     }
 
     /**
@@ -713,6 +697,7 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
 
     public static void initializeSyncAdapter(Context context) {
         getSyncAccount(context);
+        DatabaseMaintenanceJobService.schedule(context);
     }
 
     /**
@@ -2,17 +2,28 @@ package com.example.android.sunshine.app.wearable;
 
 import android.util.Log;
 
+import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.ForecastSnapshot;
+import com.example.android.sunshine.app.data.ForecastSnapshotFile;
 import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
+import com.google.android.gms.common.ConnectionResult;
+import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.common.api.Status;
 import com.google.android.gms.wearable.DataEvent;
 import com.google.android.gms.wearable.DataEventBuffer;
+import com.google.android.gms.wearable.Wearable;
 import com.google.android.gms.wearable.WearableListenerService;
 
+import java.util.concurrent.TimeUnit;
+
 public class WearableService extends WearableListenerService {
 
     private static final String TAG = WearableService.class.getSimpleName();
 
     private static final String WEATHER_PATH = "/weather";
 
+    private static final long CONNECT_TIMEOUT_SECONDS = 5;
+
     @Override
     public void onDataChanged(DataEventBuffer dataEvents) {
         for (DataEvent dataEvent : dataEvents) {
@@ -20,9 +31,42 @@ public class WearableService extends WearableListenerService {
                 String path = dataEvent.getDataItem().getUri().getPath();
                 Log.d(TAG, path);
                 if (path.equals(WEATHER_PATH)) {
+                    sendCachedWeather();
                     SunshineSyncAdapter.syncImmediately(this);
                 }
             }
         }
     }
+
+    /*
+        Answers the watch straight away from the snapshot file, without opening the database.
+        The sync that follows sends fresh data when it completes.
+     */
+    private void sendCachedWeather() {
+        ForecastSnapshot snapshot = ForecastSnapshotFile.read(this,
+                Utility.getPreferredLocation(this), System.currentTimeMillis());
+        if (snapshot == null || snapshot.getCount() == 0) {
+            return;
+        }
+        // onDataChanged runs on a background thread, so it's fine to block here
+        GoogleApiClient googleApiClient = new GoogleApiClient.Builder(this)
+                .addApi(Wearable.API)
+                .build();
+        ConnectionResult result =
+                googleApiClient.blockingConnect(CONNECT_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        if (!result.isSuccess()) {
+            Log.d(TAG, "Could not connect to send cached weather: " + result);
+            return;
+        }
+        try {
+            Status status = Wearable.DataApi.putDataItem(googleApiClient,
+                    SunshineSyncAdapter.buildWeatherDataRequest(this, snapshot.getMaxTemp(0),
+                            snapshot.getMinTemp(0), snapshot.getWeatherId(0)))
+                    .await(CONNECT_TIMEOUT_SECONDS, TimeUnit.SECONDS)
+                    .getStatus();
+            Log.d(TAG, "Sent cached weather: " + status);
+        } finally {
+            googleApiClient.disconnect();
+        }
+    }
 }